@@ -0,0 +1,204 @@
+/*******************************************************************************
+ * Copyright (c) 2012  Ola Spjuth <ola.spjuth@gmail.com>
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contact: http://www.bioclipse.net/
+ ******************************************************************************/
+package net.bioclipse.openphacts.benchmarks;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.bioclipse.openphacts.client.AdaptivePager;
+import net.bioclipse.openphacts.client.ConnectionPool;
+import net.bioclipse.openphacts.client.HostRequestBudget;
+import net.bioclipse.openphacts.client.LDAClient;
+import net.bioclipse.openphacts.client.LDAQueries;
+import net.bioclipse.openphacts.client.RequestCoalescer;
+import net.bioclipse.openphacts.client.ResultTable;
+import net.bioclipse.openphacts.client.StagedPipeline;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openscience.cdk.silent.SilentChemObjectBuilder;
+import org.openscience.cdk.smiles.SmilesParser;
+
+import com.github.egonw.ops4j.ConceptType;
+import com.github.egonw.ops4j.ResponseFormat;
+
+/**
+ * End-to-end calls against the {@link MockLDAServer}, following the steps
+ * of the matching OpenphactsManager methods: HTTP, extraction and SMILES
+ * parsing. The response cache is left out, so every call reaches the
+ * server.
+ *
+ * @author ola
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchBenchmark {
+
+	private static final int COMPOUND_ACTIVITIES = 40;
+	private static final int TARGET_ACTIVITIES = 1000;
+	private static final int THREADS = 4;
+	private static final String TARGET =
+		"http://www.conceptwiki.org/concept/b932a1ed-b6c3-4291-a98a-e195668eda49";
+
+	@Param({"1", "10", "100"})
+	public int size;
+
+	private MockLDAServer server;
+	private ConnectionPool connections;
+	private AdaptivePager pager;
+	private LDAClient client;
+	private LDAClient jsonClient;
+	private List<String> compounds;
+	private PrintStream out;
+
+	private final ThreadLocal<SmilesParser> parser = new ThreadLocal<SmilesParser>() {
+		@Override
+		protected SmilesParser initialValue() {
+			return new SmilesParser(SilentChemObjectBuilder.getInstance());
+		}
+	};
+
+	@Setup
+	public void setUp() throws IOException {
+		// ops4j prints every call
+		out = System.out;
+		System.setOut(new PrintStream(new NullOutputStream()));
+
+		server = new MockLDAServer(COMPOUND_ACTIVITIES, TARGET_ACTIVITIES);
+		connections = new ConnectionPool(THREADS * 2, THREADS * 4, 30000, 10000, 60000);
+		pager = new AdaptivePager(16, 512, 5000, 2 * 1024 * 1024, THREADS);
+		client = new LDAClient(
+			server.getEndpoint(), "appID", "appKey",
+			new HostRequestBudget(THREADS), null, new RequestCoalescer(), connections, null, null, null, null
+		);
+		jsonClient = new LDAClient(
+			server.getEndpoint(), "appID", "appKey",
+			new HostRequestBudget(THREADS), null, new RequestCoalescer(), connections, null, null,
+			ResponseFormat.JSON, null
+		);
+		compounds = new ArrayList<String>();
+		for (int i=0; i<size; i++)
+			compounds.add("http://www.conceptwiki.org/concept/compound-" + i);
+	}
+
+	@TearDown
+	public void tearDown() {
+		pager.shutdown();
+		connections.shutdown();
+		server.stop();
+		System.setOut(out);
+	}
+
+	/**
+	 * <code>size</code> calls of lookUpCW.
+	 */
+	@Benchmark
+	public void lookUpConcepts(Blackhole blackhole) throws Exception {
+		for (int i=0; i<size; i++) {
+			String turtle = client.freetextByTag("aspirin " + i, ConceptType.CHEMICAL_VIEWED_STRUCTURALLY);
+			blackhole.consume(LDAQueries.CONCEPT_SEARCH_RESULTS.extract(turtle));
+		}
+	}
+
+	/**
+	 * getCompoundsInfo for <code>size</code> compounds.
+	 */
+	@Benchmark
+	public void compoundsInfo(Blackhole blackhole) throws Exception {
+		StagedPipeline pipeline = new StagedPipeline("getCompoundsInfo")
+			.stage("fetch", THREADS, 2 * THREADS, new StagedPipeline.Worker() {
+				public Object process(Object compound) throws Exception {
+					return fetchCompound((String)compound);
+				}
+			})
+			.stage("parse", THREADS, 2 * THREADS, new StagedPipeline.Worker() {
+				public Object process(Object responses) throws Exception {
+					List<?> pages = (List<?>)responses;
+					ResultTable info = LDAQueries.COMPOUND_INFO.extract((String)pages.get(0));
+					for (int page=1; page<pages.size(); page++)
+						LDAQueries.COMPOUND_PHARMA.extract((String)pages.get(page));
+					return info.get(1, "smiles");
+				}
+			})
+			.stage("build", THREADS, 2 * THREADS, new StagedPipeline.Worker() {
+				public Object process(Object smiles) throws Exception {
+					return parser.get().parseSmiles((String)smiles);
+				}
+			});
+		pipeline.start(compounds);
+		try {
+			while (!pipeline.isDone()) {
+				StagedPipeline.Result result = pipeline.poll(100, TimeUnit.MILLISECONDS);
+				if (result == null) continue;
+				if (result.getError() != null) throw result.getError();
+				blackhole.consume(result.getValue());
+			}
+		} finally {
+			pipeline.shutdown();
+		}
+	}
+
+	private List<String> fetchCompound(final String compound) throws Exception {
+		List<String> responses = new ArrayList<String>();
+		responses.add(client.compoundInfo(compound));
+		ResultTable count = LDAQueries.COMPOUND_PHARMA_COUNT.extract(
+			client.compoundPharmacologyCount(compound)
+		);
+		responses.addAll(pager.fetchAll(new AdaptivePager.PageSource() {
+			public String fetch(int page, int size, LDAClient.NetworkTimer timer) throws IOException {
+				return client.compoundPharmacologyList(compound, page, size, timer);
+			}
+		}, Integer.parseInt(count.get(1, "count"))));
+		return responses;
+	}
+
+	/**
+	 * getPharmacologyListForTarget for a page of <code>size</code> activities.
+	 */
+	@Benchmark
+	public void pharmacologyListForTarget(Blackhole blackhole) throws Exception {
+		String turtle = client.targetPharmacologyList(TARGET, 1, size);
+		ResultTable table = LDAQueries.COMPOUND_PHARMA_BY_TARGET.extract(turtle);
+		for (String smiles : table.getColumn("smiles"))
+			blackhole.consume(parser.get().parseSmiles(smiles));
+	}
+
+	/**
+	 * {@link #pharmacologyListForTarget(Blackhole)} with the page in JSON.
+	 */
+	@Benchmark
+	public void pharmacologyListForTargetJSON(Blackhole blackhole) throws Exception {
+		String json = jsonClient.targetPharmacologyList(TARGET, 1, size);
+		ResultTable table = LDAQueries.COMPOUND_PHARMA_BY_TARGET.extractJSON(json);
+		for (String smiles : table.getColumn("smiles"))
+			blackhole.consume(parser.get().parseSmiles(smiles));
+	}
+
+}
@@ -0,0 +1,180 @@
+/*******************************************************************************
+ * Copyright (c) 2012  Ola Spjuth <ola.spjuth@gmail.com>
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contact: http://www.bioclipse.net/
+ ******************************************************************************/
+package net.bioclipse.openphacts.benchmarks;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.bioclipse.openphacts.client.LDAQueries;
+import net.bioclipse.openphacts.client.ResultTable;
+import net.bioclipse.openphacts.client.ResultTemplate;
+import net.bioclipse.openphacts.client.TurtleParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.hp.hpl.jena.query.QueryExecution;
+import com.hp.hpl.jena.query.QueryExecutionFactory;
+import com.hp.hpl.jena.query.QuerySolution;
+import com.hp.hpl.jena.query.ResultSet;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+
+/**
+ * Turning a pharmacology page into result rows, both the way the manager
+ * does by default (streaming extraction) and the way it does with
+ * streaming switched off (Turtle import into a Jena model plus SPARQL).
+ * The same page in JSON shows what asking for JSON responses saves.
+ *
+ * <p>Before measuring, the setup checks that streaming extraction of every
+ * fixture, and of the JSON page, gives the same rows as the SPARQL query
+ * of the template.
+ *
+ * @author ola
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExtractionBenchmark {
+
+	@Param({"10", "100", "1000"})
+	public int activities;
+
+	private final ResultTemplate template = LDAQueries.COMPOUND_PHARMA_BY_TARGET;
+	private String turtle;
+	private String json;
+
+	@Setup
+	public void setUp() throws IOException {
+		turtle = Fixtures.pharmacologyPage(activities);
+		json = Fixtures.pharmacologyPageJSON(activities);
+
+		String request = "http://localhost/request";
+		String uri = "http://localhost/compound/1";
+		checkExtraction(LDAQueries.CONCEPT_SEARCH_RESULTS, Fixtures.searchByTag(request));
+		checkExtraction(LDAQueries.COMPOUND_INFO, Fixtures.compound(request, uri));
+		checkExtraction(LDAQueries.COMPOUND_PHARMA_COUNT,
+			Fixtures.compoundPharmacologyCount(request, uri, activities));
+		checkExtraction(LDAQueries.TARGET_PHARMA_COUNT,
+			Fixtures.targetPharmacologyCount(request, uri, activities));
+		checkExtraction(LDAQueries.COMPOUND_PHARMA, turtle);
+		checkExtraction(template, turtle);
+		checkEqual("JSON extraction of " + activities + " activities",
+			query(template, turtle), template.extractJSON(json));
+	}
+
+	/**
+	 * Checks that streaming extraction gives the same rows as the SPARQL
+	 * query, in any order, and that there are any.
+	 */
+	private static void checkExtraction(ResultTemplate template, String turtle) throws IOException {
+		checkEqual("Streaming extraction of " + template.getVariables(),
+			query(template, turtle), template.extract(turtle));
+	}
+
+	private static void checkEqual(String what, ResultTable expected, ResultTable actual) {
+		List<String> expectedRows = getRows(expected), actualRows = getRows(actual);
+		if (expectedRows.isEmpty())
+			throw new IllegalStateException(what + ": the fixture has no results");
+		if (!expectedRows.equals(actualRows))
+			throw new IllegalStateException(what + " differs from SPARQL: expected " +
+				expectedRows + " but got " + actualRows);
+	}
+
+	private static List<String> getRows(ResultTable table) {
+		List<String> rows = new ArrayList<String>();
+		for (int row=1; row<=table.getRowCount(); row++) {
+			StringBuilder values = new StringBuilder();
+			for (String column : table.getColumnNames())
+				values.append(column).append('=').append(table.get(row, column)).append(' ');
+			rows.add(values.toString());
+		}
+		// SPARQL does not define the order of the solutions
+		Collections.sort(rows);
+		return rows;
+	}
+
+	@Benchmark
+	public void turtleParse(final Blackhole blackhole) throws IOException {
+		new TurtleParser(new StringReader(turtle), new TurtleParser.TripleHandler() {
+			public void triple(String subject, String predicate, String object, boolean literal) {
+				blackhole.consume(object);
+			}
+		}).parse();
+	}
+
+	@Benchmark
+	public ResultTable streamingExtraction() throws IOException {
+		return template.extract(turtle);
+	}
+
+	@Benchmark
+	public ResultTable jsonExtraction() throws IOException {
+		return template.extractJSON(json);
+	}
+
+	@Benchmark
+	public Model jenaImport() {
+		return read(turtle);
+	}
+
+	@Benchmark
+	public ResultTable jenaImportAndQuery() {
+		return query(template, turtle);
+	}
+
+	private static ResultTable query(ResultTemplate template, String turtle) {
+		Model model = read(turtle);
+		QueryExecution execution = QueryExecutionFactory.create(template.getQuery(), model);
+		try {
+			ResultTable table = new ResultTable(template.getVariables());
+			ResultSet results = execution.execSelect();
+			while (results.hasNext()) {
+				QuerySolution solution = results.next();
+				String[] row = new String[template.getVariables().size()];
+				for (int i=0; i<row.length; i++) {
+					RDFNode node = solution.get(template.getVariables().get(i));
+					if (node == null) continue;
+					row[i] = node.isLiteral() ? node.asLiteral().getLexicalForm() : node.toString();
+				}
+				table.addRow(row);
+			}
+			return table;
+		} finally {
+			execution.close();
+		}
+	}
+
+	private static Model read(String turtle) {
+		Model model = ModelFactory.createDefaultModel();
+		model.read(new StringReader(turtle), null, "TURTLE");
+		return model;
+	}
+
+}
@@ -0,0 +1,180 @@
+/*******************************************************************************
+ * Copyright (c) 2012  Ola Spjuth <ola.spjuth@gmail.com>
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contact: http://www.bioclipse.net/
+ ******************************************************************************/
+package net.bioclipse.openphacts.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * The Turtle fixtures in <code>src/main/resources/fixtures</code>, with
+ * their <code>${...}</code> placeholders filled in. Pharmacology pages are
+ * made of as many copies of the activity fixture as asked for, so that
+ * benchmarks can scale them. Pharmacology pages are also available in the
+ * JSON format of the LDA API, with the same content.
+ *
+ * @author ola
+ */
+public class Fixtures {
+
+	private static final String PREFIXES = load("prefixes.ttl");
+	private static final String SEARCH_BY_TAG = load("search-bytag.ttl");
+	private static final String COMPOUND = load("compound.ttl");
+	private static final String COMPOUND_PHARMACOLOGY_COUNT = load("compound-pharmacology-count.ttl");
+	private static final String TARGET_PHARMACOLOGY_COUNT = load("target-pharmacology-count.ttl");
+	private static final String PHARMACOLOGY_PAGE = load("pharmacology-page.ttl");
+	private static final String ACTIVITY = load("activity.ttl");
+	private static final String PHARMACOLOGY_PAGE_JSON = load("pharmacology-page.json");
+	private static final String ACTIVITY_JSON = load("activity.json");
+	private static final List<String> SMILES = new ArrayList<String>();
+	static {
+		for (String line : load("smiles.txt").split("\n"))
+			if (line.trim().length() > 0) SMILES.add(line.trim());
+	}
+
+	public static String searchByTag(String request) {
+		Map<String, String> values = new HashMap<String, String>();
+		values.put("request", request);
+		return PREFIXES + fill(SEARCH_BY_TAG, values);
+	}
+
+	public static String compound(String request, String uri) {
+		int id = getId(uri);
+		Map<String, String> values = new HashMap<String, String>();
+		values.put("request", request);
+		values.put("uri", uri);
+		values.put("id", Integer.toString(id));
+		values.put("smiles", getSmiles(id));
+		return PREFIXES + fill(COMPOUND, values);
+	}
+
+	public static String compoundPharmacologyCount(String request, String uri, int count) {
+		return PREFIXES + fill(COMPOUND_PHARMACOLOGY_COUNT, count(request, uri, count));
+	}
+
+	public static String targetPharmacologyCount(String request, String uri, int count) {
+		return PREFIXES + fill(TARGET_PHARMACOLOGY_COUNT, count(request, uri, count));
+	}
+
+	/**
+	 * Returns the given page of a list of <code>count</code> activities.
+	 */
+	public static String pharmacologyPage(String request, int page, int pageSize, int count) {
+		int start = (page - 1) * pageSize;
+		StringBuilder turtle = new StringBuilder(PREFIXES);
+		turtle.append(fill(PHARMACOLOGY_PAGE, page(request, page, pageSize)));
+		for (int n=start; n<Math.min(start + pageSize, count); n++)
+			turtle.append(fill(ACTIVITY, activity(n, getSmiles(n))));
+		return turtle.toString();
+	}
+
+	/**
+	 * Returns a page of <code>count</code> activities.
+	 */
+	public static String pharmacologyPage(int count) {
+		return pharmacologyPage("http://localhost/target/pharmacology/pages", 1, count, count);
+	}
+
+	/**
+	 * Returns the given page of a list of <code>count</code> activities, in
+	 * JSON.
+	 */
+	public static String pharmacologyPageJSON(String request, int page, int pageSize, int count) {
+		int start = (page - 1) * pageSize;
+		StringBuilder items = new StringBuilder();
+		for (int n=start; n<Math.min(start + pageSize, count); n++) {
+			if (n > start) items.append(", ");
+			items.append(fill(ACTIVITY_JSON, activity(n, toJSON(getSmiles(n)))));
+		}
+		Map<String, String> values = page(request, page, pageSize);
+		String json = fill(PHARMACOLOGY_PAGE_JSON, values);
+		// after the other values, so that no placeholders are filled in the items
+		return json.replace("${items}", items);
+	}
+
+	/**
+	 * Returns a page of <code>count</code> activities, in JSON.
+	 */
+	public static String pharmacologyPageJSON(int count) {
+		return pharmacologyPageJSON("http://localhost/target/pharmacology/pages", 1, count, count);
+	}
+
+	public static List<String> getSmilesList(int count) {
+		List<String> smiles = new ArrayList<String>();
+		for (int i=0; i<count; i++) smiles.add(getSmiles(i));
+		return smiles;
+	}
+
+	private static String getSmiles(int index) {
+		return SMILES.get(index % SMILES.size());
+	}
+
+	private static int getId(String uri) {
+		return (uri.hashCode() & Integer.MAX_VALUE) % 100000;
+	}
+
+	private static Map<String, String> page(String request, int page, int pageSize) {
+		Map<String, String> values = new HashMap<String, String>();
+		values.put("request", request);
+		values.put("page", Integer.toString(page));
+		values.put("pageSize", Integer.toString(pageSize));
+		values.put("start", Integer.toString((page - 1) * pageSize));
+		return values;
+	}
+
+	private static Map<String, String> activity(int n, String smiles) {
+		Map<String, String> values = new HashMap<String, String>();
+		values.put("n", Integer.toString(n));
+		values.put("molecule", Integer.toString(1000 + n));
+		values.put("assay", Integer.toString(500 + n % 37));
+		values.put("value", Double.toString(1.5 + n % 1000));
+		values.put("pChembl", Double.toString(5.0 + (n % 40) / 10.0));
+		values.put("smiles", smiles);
+		return values;
+	}
+
+	private static String toJSON(String string) {
+		return string.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+
+	private static Map<String, String> count(String request, String uri, int count) {
+		Map<String, String> values = new HashMap<String, String>();
+		values.put("request", request);
+		values.put("uri", uri);
+		values.put("count", Integer.toString(count));
+		return values;
+	}
+
+	private static String fill(String template, Map<String, String> values) {
+		String filled = template;
+		for (Map.Entry<String, String> value : values.entrySet())
+			filled = filled.replace("${" + value.getKey() + "}", value.getValue());
+		return filled;
+	}
+
+	private static String load(String name) {
+		InputStream stream = Fixtures.class.getResourceAsStream("/fixtures/" + name);
+		if (stream == null) throw new IllegalStateException("Missing fixture: " + name);
+		try {
+			return IOUtils.toString(stream, "UTF-8");
+		} catch (IOException exception) {
+			throw new IllegalStateException("Could not read fixture: " + name, exception);
+		} finally {
+			IOUtils.closeQuietly(stream);
+		}
+	}
+
+}
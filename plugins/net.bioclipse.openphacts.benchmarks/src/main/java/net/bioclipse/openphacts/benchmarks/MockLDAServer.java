@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * Copyright (c) 2012  Ola Spjuth <ola.spjuth@gmail.com>
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contact: http://www.bioclipse.net/
+ ******************************************************************************/
+package net.bioclipse.openphacts.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local stand-in for the parts of the LDA API used by the manager. It
+ * answers from the {@link Fixtures}, so the benchmarks run offline and do
+ * not depend on the load of the real servers.
+ *
+ * @author ola
+ */
+public class MockLDAServer {
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final AtomicLong requests = new AtomicLong();
+	private final int compoundActivities;
+	private final int targetActivities;
+
+	/**
+	 * @param compoundActivities number of activities of every compound
+	 * @param targetActivities   number of activities of every target
+	 */
+	public MockLDAServer(int compoundActivities, int targetActivities) throws IOException {
+		this.compoundActivities = compoundActivities;
+		this.targetActivities = targetActivities;
+		// otherwise Nagle's algorithm adds ~40ms to every response
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				requests.incrementAndGet();
+				try {
+					String response = respond(exchange);
+					byte[] body = (response == null ? "Not Found" : response).getBytes("UTF-8");
+					exchange.getResponseHeaders().set("Content-Type", response == null ? "text/plain" :
+						response.startsWith("{") ? "application/json; charset=UTF-8" :
+						"text/turtle; charset=UTF-8");
+					exchange.sendResponseHeaders(response == null ? 404 : 200, body.length);
+					OutputStream output = exchange.getResponseBody();
+					output.write(body);
+					output.close();
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		executor = Executors.newFixedThreadPool(16);
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	/**
+	 * Returns the endpoint to give to the LDA client.
+	 */
+	public String getEndpoint() {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+	}
+
+	public long getRequestCount() {
+		return requests.get();
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	private String respond(HttpExchange exchange) throws IOException {
+		String path = exchange.getRequestURI().getPath();
+		Map<String, String> params = getParameters(exchange.getRequestURI().getRawQuery());
+		String request = toIRI(getEndpoint() + path.substring(1) + "?" +
+			exchange.getRequestURI().getRawQuery());
+		String uri = params.get("uri");
+		boolean json = "json".equals(params.get("_format"));
+
+		if ("/search/byTag".equals(path))
+			return Fixtures.searchByTag(request);
+		if ("/compound".equals(path))
+			return Fixtures.compound(request, uri);
+		if ("/compound/pharmacology/count".equals(path))
+			return Fixtures.compoundPharmacologyCount(request, uri, compoundActivities);
+		if ("/compound/pharmacology/pages".equals(path) && json)
+			return Fixtures.pharmacologyPageJSON(request, getInt(params, "_page", 1),
+				getInt(params, "_pageSize", 10), compoundActivities);
+		if ("/compound/pharmacology/pages".equals(path))
+			return Fixtures.pharmacologyPage(request, getInt(params, "_page", 1),
+				getInt(params, "_pageSize", 10), compoundActivities);
+		if ("/target/pharmacology/count".equals(path))
+			return Fixtures.targetPharmacologyCount(request, uri, targetActivities);
+		if ("/target/pharmacology/pages".equals(path) && json)
+			return Fixtures.pharmacologyPageJSON(request, getInt(params, "_page", 1),
+				getInt(params, "_pageSize", 10), targetActivities);
+		if ("/target/pharmacology/pages".equals(path))
+			return Fixtures.pharmacologyPage(request, getInt(params, "_page", 1),
+				getInt(params, "_pageSize", 10), targetActivities);
+		return null;
+	}
+
+	private static Map<String, String> getParameters(String query) throws IOException {
+		Map<String, String> params = new HashMap<String, String>();
+		if (query == null) return params;
+		for (String pair : query.split("&")) {
+			int equals = pair.indexOf('=');
+			if (equals == -1) continue;
+			params.put(
+				URLDecoder.decode(pair.substring(0, equals), "UTF-8"),
+				URLDecoder.decode(pair.substring(equals + 1), "UTF-8")
+			);
+		}
+		return params;
+	}
+
+	private static int getInt(Map<String, String> params, String name, int value) {
+		String param = params.get(name);
+		return param == null ? value : Integer.parseInt(param);
+	}
+
+	/**
+	 * Escapes the characters that cannot appear in a Turtle IRI.
+	 */
+	private static String toIRI(String url) {
+		StringBuilder iri = new StringBuilder();
+		for (char c : url.toCharArray()) {
+			if (c <= ' ' || "<>\"{}|^`\\".indexOf(c) != -1)
+				iri.append('%').append(String.format("%02X", (int)c));
+			else
+				iri.append(c);
+		}
+		return iri.toString();
+	}
+
+}
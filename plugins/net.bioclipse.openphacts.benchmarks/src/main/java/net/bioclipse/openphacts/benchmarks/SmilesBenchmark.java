@@ -0,0 +1,64 @@
+/*******************************************************************************
+ * Copyright (c) 2012  Ola Spjuth <ola.spjuth@gmail.com>
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contact: http://www.bioclipse.net/
+ ******************************************************************************/
+package net.bioclipse.openphacts.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openscience.cdk.exception.InvalidSmilesException;
+import org.openscience.cdk.silent.SilentChemObjectBuilder;
+import org.openscience.cdk.smiles.SmilesParser;
+
+/**
+ * Parsing the SMILES of a set of activities, which the manager does for
+ * every molecule it returns.
+ *
+ * @author ola
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SmilesBenchmark {
+
+	@Param({"10", "100", "1000"})
+	public int molecules;
+
+	private List<String> smiles;
+	private SmilesParser parser;
+
+	@Setup
+	public void setUp() {
+		smiles = Fixtures.getSmilesList(molecules);
+		parser = new SmilesParser(SilentChemObjectBuilder.getInstance());
+	}
+
+	@Benchmark
+	public void parse(Blackhole blackhole) throws InvalidSmilesException {
+		for (String molecule : smiles)
+			blackhole.consume(parser.parseSmiles(molecule));
+	}
+
+}
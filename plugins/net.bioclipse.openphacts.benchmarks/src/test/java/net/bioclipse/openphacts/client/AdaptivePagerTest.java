@@ -0,0 +1,147 @@
+/*******************************************************************************
+ * Copyright (c) 2012  Ola Spjuth <ola.spjuth@gmail.com>
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contact: http://www.bioclipse.net/
+ ******************************************************************************/
+package net.bioclipse.openphacts.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * How {@link AdaptivePager} sizes pages from the network time and length
+ * of the pages it retrieved.
+ *
+ * @author ola
+ */
+public class AdaptivePagerTest {
+
+	private static final long TARGET_LATENCY = 100; // ms
+
+	private final AdaptivePager pager = new AdaptivePager(4, 64, TARGET_LATENCY, 1000, 2);
+
+	@After
+	public void tearDown() {
+		pager.shutdown();
+	}
+
+	/**
+	 * A source of pages of items numbered from 0, which reports the given
+	 * network time, or none if negative, after waiting locally for the
+	 * given time.
+	 */
+	private static class Source implements AdaptivePager.PageSource {
+		final List<String> requested = Collections.synchronizedList(new ArrayList<String>());
+		volatile long wait;
+		volatile long network;
+		volatile int length = 1;
+
+		public String fetch(int page, int size, LDAClient.NetworkTimer timer) throws IOException {
+			requested.add(page + "x" + size);
+			try {
+				Thread.sleep(wait);
+			} catch (InterruptedException exception) {
+				throw new IOException(exception);
+			}
+			if (network >= 0) timer.record(TimeUnit.MILLISECONDS.toNanos(network));
+			StringBuilder items = new StringBuilder();
+			for (int item=(page-1)*size; item<page*size; item++)
+				items.append(item).append(' ');
+			while (items.length() < length) items.append(' ');
+			return items.toString();
+		}
+	}
+
+	/**
+	 * Checks that the pages hold the items from 0 up to at least the count,
+	 * in order.
+	 */
+	private static void checkItems(List<String> pages, int count) {
+		int next = 0;
+		for (String page : pages)
+			for (String item : page.trim().split(" +"))
+				assertEquals(next++, Integer.parseInt(item));
+		assertTrue(next >= count);
+	}
+
+	@Test
+	public void testFastPagesGrow() throws IOException {
+		Source source = new Source();
+		checkItems(pager.fetchAll(source, 5000), 5000);
+		assertEquals(64, pager.getPageSize());
+	}
+
+	@Test
+	public void testWaitingLocallyDoesNotShrinkPages() throws IOException {
+		Source source = new Source();
+		pager.fetchAll(source, 5000);
+		assertEquals(64, pager.getPageSize());
+		// queued behind other requests, but quick on the network
+		source.wait = 2 * TARGET_LATENCY;
+		source.network = 1;
+		checkItems(pager.fetchAll(source, 256), 256);
+		assertEquals(64, pager.getPageSize());
+	}
+
+	@Test
+	public void testSlowNetworkShrinksPages() throws IOException {
+		Source source = new Source();
+		pager.fetchAll(source, 5000);
+		assertEquals(64, pager.getPageSize());
+		source.network = 2 * TARGET_LATENCY;
+		checkItems(pager.fetchAll(source, 256), 256);
+		assertEquals(4, pager.getPageSize());
+	}
+
+	@Test
+	public void testPagesWithoutNetworkTimeOnlyCountWithTheirLength() throws IOException {
+		Source source = new Source();
+		source.network = -1;
+		pager.fetchAll(source, 5000);
+		assertEquals(4, pager.getPageSize());
+
+		source.network = 1;
+		pager.fetchAll(source, 5000);
+		assertEquals(64, pager.getPageSize());
+		source.network = -1;
+		source.length = 2000;
+		pager.fetchAll(source, 5000);
+		assertEquals(4, pager.getPageSize());
+	}
+
+	@Test
+	public void testTimeoutsRetryWithSmallerPages() throws IOException {
+		final Source source = new Source();
+		pager.fetchAll(source, 5000);
+		assertEquals(64, pager.getPageSize());
+		source.requested.clear();
+		List<String> pages = pager.fetchAll(new AdaptivePager.PageSource() {
+			public String fetch(int page, int size, LDAClient.NetworkTimer timer) throws IOException {
+				if (size > 16) throw new SocketTimeoutException("Read timed out");
+				return source.fetch(page, size, timer);
+			}
+		}, 100);
+		checkItems(pages, 100);
+		// only the pages that did not time out reached the source
+		assertFalse(source.requested.isEmpty());
+		for (String page : source.requested)
+			assertTrue(Integer.parseInt(page.split("x")[1]) <= 16);
+	}
+
+}
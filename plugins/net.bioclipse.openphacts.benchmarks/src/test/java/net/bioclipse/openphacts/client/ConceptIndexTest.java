@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright (c) 2012  Ola Spjuth <ola.spjuth@gmail.com>
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contact: http://www.bioclipse.net/
+ ******************************************************************************/
+package net.bioclipse.openphacts.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.bioclipse.openphacts.model.Resource;
+
+/**
+ * Searched queries are answered by {@link ConceptIndex} as ConceptWiki
+ * answered them, also after the index is read back from its file.
+ *
+ * @author ola
+ */
+public class ConceptIndexTest {
+
+	private File file;
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("concepts", ".tsv");
+		file.delete();
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	private static List<String> names(List<Resource> resources) {
+		List<String> names = new ArrayList<String>();
+		for (Resource resource : resources) names.add(resource.getName() + " " + resource.getURI());
+		return names;
+	}
+
+	@Test
+	public void testSearchedQueryGivesTheResultsOfConceptWiki() {
+		ConceptIndex index = new ConceptIndex(file);
+		index.addAll("compound", Arrays.asList(
+			new Resource("Aspirin lysine", "u3"), new Resource("Aspirine", "u4")
+		));
+		List<Resource> found = Arrays.asList(new Resource("Aspirin", "u1"), new Resource("ASA", "u2"));
+		index.addSearch("compound", "Aspirin ", found);
+
+		List<String> expected = Arrays.asList(
+			"Aspirin http://www.conceptwiki.org/concept/u1",
+			"ASA http://www.conceptwiki.org/concept/u2"
+		);
+		assertEquals(expected, names(index.getSearch("compound", "aspirin")));
+		// the fuzzy search finds other concepts, and misses ASA
+		assertEquals(
+			Arrays.asList(
+				"Aspirin http://www.conceptwiki.org/concept/u1",
+				"Aspirine http://www.conceptwiki.org/concept/u4",
+				"Aspirin lysine http://www.conceptwiki.org/concept/u3"
+			),
+			names(index.search("compound", "aspirin", 10))
+		);
+		assertEquals(expected, names(new ConceptIndex(file).getSearch("compound", "ASPIRIN")));
+	}
+
+	@Test
+	public void testQueriesNotSearchedHaveNoResults() {
+		ConceptIndex index = new ConceptIndex(file);
+		index.addSearch("compound", "aspirin", Arrays.asList(new Resource("Aspirin", "u1")));
+		assertNull(index.getSearch("compound", "aspiri"));
+		assertNull(index.getSearch("protein", "aspirin"));
+		assertEquals(1, index.search("compound", "aspiri", 10).size());
+	}
+
+	@Test
+	public void testSearchWithoutResults() {
+		ConceptIndex index = new ConceptIndex(file);
+		index.addSearch("protein", "nothing", Collections.<Resource>emptyList());
+		assertEquals(0, index.getSearch("protein", "nothing").size());
+		assertEquals(0, new ConceptIndex(file).getSearch("protein", "nothing").size());
+	}
+
+	@Test
+	public void testSearchesWithoutStoredResultsAreSkipped() throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		out.write("compound\tu1\tAspirin\nsearched\tcompound\taspirin\n".getBytes("UTF-8"));
+		out.close();
+		ConceptIndex index = new ConceptIndex(file);
+		assertNull(index.getSearch("compound", "aspirin"));
+		assertEquals(1, index.size());
+	}
+
+}
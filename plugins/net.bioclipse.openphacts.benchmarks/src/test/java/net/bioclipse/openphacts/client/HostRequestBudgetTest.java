@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Copyright (c) 2012  Ola Spjuth <ola.spjuth@gmail.com>
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contact: http://www.bioclipse.net/
+ ******************************************************************************/
+package net.bioclipse.openphacts.client;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.Semaphore;
+
+import org.junit.Test;
+
+/**
+ * Changing the number of requests allowed per host of a
+ * {@link HostRequestBudget} keeps counting the requests already running.
+ *
+ * @author ola
+ */
+public class HostRequestBudgetTest {
+
+	private static final String URL = "http://api.openphacts.org/compound";
+
+	@Test
+	public void testLoweringWaitsForRunningRequests() {
+		HostRequestBudget budget = new HostRequestBudget(3);
+		Semaphore first = budget.tryAcquire(URL);
+		Semaphore second = budget.tryAcquire(URL);
+		assertNotNull(first);
+		assertNotNull(second);
+		budget.setMaxPerHost(1);
+		assertNull(budget.tryAcquire(URL));
+		first.release();
+		assertNull(budget.tryAcquire(URL));
+		second.release();
+		Semaphore third = budget.tryAcquire(URL);
+		assertSame(first, third);
+		assertNull(budget.tryAcquire(URL));
+		third.release();
+	}
+
+	@Test
+	public void testRaisingAddsPermits() {
+		HostRequestBudget budget = new HostRequestBudget(1);
+		Semaphore first = budget.tryAcquire(URL);
+		assertNull(budget.tryAcquire(URL));
+		budget.setMaxPerHost(3);
+		Semaphore second = budget.tryAcquire(URL);
+		Semaphore third = budget.tryAcquire(URL);
+		assertNotNull(second);
+		assertNotNull(third);
+		assertNull(budget.tryAcquire(URL));
+		// releasing the permit taken before the change does not add one
+		first.release();
+		assertNotNull(budget.tryAcquire(URL));
+		assertNull(budget.tryAcquire(URL));
+	}
+
+	@Test
+	public void testHostsHaveTheirOwnPermits() {
+		HostRequestBudget budget = new HostRequestBudget(1);
+		assertNotNull(budget.tryAcquire(URL));
+		assertNotNull(budget.tryAcquire("http://www.conceptwiki.org/web-ws/concept"));
+		budget.setMaxPerHost(2);
+		assertNotNull(budget.tryAcquire(URL));
+		assertNull(budget.tryAcquire(URL));
+	}
+
+}
@@ -0,0 +1,221 @@
+/*******************************************************************************
+ * Copyright (c) 2012  Ola Spjuth <ola.spjuth@gmail.com>
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contact: http://www.bioclipse.net/
+ ******************************************************************************/
+package net.bioclipse.openphacts.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * The clusters a {@link MappingGraph} gives stay those Open PHACTS would
+ * give, also when clusters are forgotten to stay within the maximum size.
+ *
+ * @author ola
+ */
+public class MappingGraphTest {
+
+	/**
+	 * Open PHACTS with URIs numbered from 0, where the URIs with the same
+	 * number divided by the cluster size match, except that every URI
+	 * divisible by the number of singles matches nothing.
+	 */
+	private static class Server {
+		final int clusterSize;
+		final int singles;
+		int calls;
+
+		Server(int clusterSize, int singles) {
+			this.clusterSize = clusterSize;
+			this.singles = singles;
+		}
+
+		/**
+		 * Returns the matches of the URI without itself, like mapUri.
+		 */
+		List<String> map(int uri) {
+			calls++;
+			List<String> matches = new ArrayList<String>();
+			if (uri % singles == 0) return matches;
+			int first = uri - uri % clusterSize;
+			for (int other=first; other<first+clusterSize; other++)
+				if (other != uri && other % singles != 0) matches.add(uri(other));
+			return matches;
+		}
+	}
+
+	private static String uri(int number) {
+		return "http://x/" + number;
+	}
+
+	/**
+	 * Maps the URI like OpenphactsManager.mapURI, and returns its matches
+	 * in any order.
+	 */
+	private static Set<String> map(MappingGraph graph, Server server, int number) {
+		String uri = uri(number);
+		List<String> cluster = graph.getCluster(uri);
+		if (cluster == null) {
+			List<String> matches = server.map(number);
+			if (matches.isEmpty()) {
+				graph.addUnmapped(uri);
+			} else {
+				List<String> equivalent = new ArrayList<String>(matches);
+				equivalent.add(uri);
+				graph.addMatches(equivalent);
+			}
+			cluster = graph.getCluster(uri);
+		}
+		Set<String> matches = new HashSet<String>(cluster);
+		matches.remove(uri);
+		return matches;
+	}
+
+	private static int known(MappingGraph graph, int count) {
+		int known = 0;
+		for (int number=0; number<count; number++)
+			if (graph.contains(uri(number))) known++;
+		return known;
+	}
+
+	@Test
+	public void testClusters() {
+		MappingGraph graph = new MappingGraph(100);
+		graph.addMatches(Arrays.asList("a", "b"));
+		graph.addMatches(Arrays.asList("c", "d"));
+		assertEquals(2, graph.getClusterCount());
+		graph.addMatches(Arrays.asList("d", "a", "e"));
+		assertEquals(1, graph.getClusterCount());
+		assertEquals(Arrays.asList("a", "b", "c", "d", "e"), graph.getCluster("c"));
+		graph.addUnmapped("f");
+		graph.addUnmapped("a");
+		assertEquals(Collections.emptyList(), graph.getCluster("f"));
+		assertEquals(5, graph.getCluster("a").size());
+		assertNull(graph.getCluster("g"));
+		assertEquals(5, graph.size());
+	}
+
+	@Test
+	public void testUnmappedURIsGetMatches() {
+		MappingGraph graph = new MappingGraph(100);
+		graph.addUnmapped("a");
+		graph.addMatches(Arrays.asList("a", "b"));
+		assertEquals(Arrays.asList("a", "b"), graph.getCluster("a"));
+		assertEquals(2, graph.size());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedClustersAreEvicted() {
+		MappingGraph graph = new MappingGraph(8);
+		graph.addMatches(Arrays.asList("a1", "a2"));
+		graph.addMatches(Arrays.asList("b1", "b2"));
+		graph.addMatches(Arrays.asList("c1", "c2"));
+		graph.addUnmapped("d");
+		graph.addUnmapped("e");
+		graph.getCluster("a1");
+		graph.getCluster("d");
+		// the graph is full: b and c are used least recently, and go until
+		// half of it is left
+		graph.addMatches(Arrays.asList("f1", "f2"));
+		assertFalse(graph.contains("b1"));
+		assertFalse(graph.contains("c2"));
+		assertEquals(Arrays.asList("a1", "a2"), graph.getCluster("a2"));
+		assertEquals(Collections.emptyList(), graph.getCluster("d"));
+		assertEquals(Collections.emptyList(), graph.getCluster("e"));
+		assertEquals(Arrays.asList("f1", "f2"), graph.getCluster("f1"));
+		// now e and then a are used least recently, and go before d and f
+		graph.getCluster("a1");
+		graph.getCluster("d");
+		graph.getCluster("f1");
+		graph.addMatches(Arrays.asList("g1", "g2", "g3"));
+		assertFalse(graph.contains("e"));
+		assertFalse(graph.contains("a1"));
+		assertTrue(graph.contains("d"));
+		assertTrue(graph.contains("f2"));
+		assertTrue(graph.contains("g1"));
+	}
+
+	@Test
+	public void testEvictingAClusterBeingMerged() {
+		MappingGraph graph = new MappingGraph(6);
+		graph.addMatches(Arrays.asList("a1", "a2"));
+		graph.addMatches(Arrays.asList("b1", "b2"));
+		graph.addMatches(Arrays.asList("c1", "c2"));
+		// a is used least recently, but is merged, so b and c go
+		graph.addMatches(Arrays.asList("a2", "a3"));
+		assertEquals(Arrays.asList("a1", "a2", "a3"), graph.getCluster("a3"));
+		assertFalse(graph.contains("b1"));
+		assertFalse(graph.contains("c1"));
+
+		// with no room for the merged clusters, they are added again whole
+		graph = new MappingGraph(4);
+		graph.addMatches(Arrays.asList("a1", "a2"));
+		graph.addMatches(Arrays.asList("b1", "b2"));
+		graph.addMatches(Arrays.asList("a1", "b1", "c1", "c2"));
+		assertEquals(Arrays.asList("a1", "b1", "c1", "c2"), graph.getCluster("c2"));
+		assertFalse(graph.contains("a2"));
+		assertFalse(graph.contains("b2"));
+		assertEquals(4, graph.size());
+	}
+
+	@Test
+	public void testUnmappedURIsShareTheMaximum() {
+		MappingGraph graph = new MappingGraph(10);
+		for (int number=0; number<25; number++) graph.addUnmapped(uri(number));
+		assertTrue(known(graph, 25) <= 10);
+		graph.addMatches(Arrays.asList("a1", "a2", "a3", "a4"));
+		assertTrue(graph.size() + known(graph, 25) <= 10);
+		assertEquals(4, graph.getCluster("a1").size());
+		// the latest URIs without matches are kept
+		assertTrue(graph.contains(uri(24)));
+		assertFalse(graph.contains(uri(0)));
+	}
+
+	@Test
+	public void testMappingWithEvictionGivesTheMatchesOfTheServer() {
+		Server server = new Server(5, 7);
+		MappingGraph graph = new MappingGraph(20);
+		Random random = new Random(42);
+		for (int i=0; i<5000; i++) {
+			int number = random.nextInt(200);
+			assertEquals("URI " + number + " at " + i,
+				new HashSet<String>(server.map(number)), map(graph, server, number));
+			assertTrue(known(graph, 200) <= 20);
+		}
+		// the graph answered some of them
+		assertTrue(server.calls < 2 * 5000);
+	}
+
+	@Test
+	public void testEvictedURIsAreMappedAgain() {
+		Server server = new Server(4, 1000);
+		MappingGraph graph = new MappingGraph(8);
+		for (int round=0; round<3; round++) {
+			for (int number=1; number<40; number++) {
+				Set<String> expected = new HashSet<String>(server.map(number));
+				assertEquals(expected, map(graph, server, number));
+				assertTrue(known(graph, 40) <= 8);
+			}
+		}
+		assertEquals(graph.size(), known(graph, 40));
+	}
+
+}
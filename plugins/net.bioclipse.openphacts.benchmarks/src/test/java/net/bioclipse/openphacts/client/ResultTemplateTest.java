@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * Copyright (c) 2012  Ola Spjuth <ola.spjuth@gmail.com>
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contact: http://www.bioclipse.net/
+ ******************************************************************************/
+package net.bioclipse.openphacts.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.hp.hpl.jena.query.QueryExecution;
+import com.hp.hpl.jena.query.QueryExecutionFactory;
+import com.hp.hpl.jena.query.QuerySolution;
+import com.hp.hpl.jena.query.ResultSet;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+
+/**
+ * Streaming extraction with {@link ResultTemplate}, checked against the
+ * SPARQL query of the template run by Jena, and the fallback to SPARQL for
+ * what streaming cannot answer.
+ *
+ * @author ola
+ */
+public class ResultTemplateTest {
+
+	private static final String TURTLE =
+		"@prefix x: <http://x/> .\n" +
+		"@prefix xsd: <http://www.w3.org/2001/XMLSchema#> .\n" +
+		"x:item1 x:molecule x:m1 ; x:value \"1.50\"^^xsd:double ; x:unit \"nM\"@en .\n" +
+		"x:item2 x:molecule x:m2 , x:m3 .\n" +
+		"x:item3 x:value 7 .\n" +
+		"x:m1 x:label \"first\" .\n" +
+		"x:m3 x:label \"third\" , \"\"\"third,\n again\"\"\" .\n" +
+		"[ x:molecule x:m4 ] .\n";
+
+	private static final ResultTemplate ITEMS = new ResultTemplate(
+		"PREFIX x: <http://x/> " +
+		"SELECT ?molecule ?value ?unit ?label WHERE {" +
+		" ?item x:molecule ?molecule ." +
+		" OPTIONAL { ?item x:value ?value ; x:unit ?unit . }" +
+		" OPTIONAL { ?molecule x:label ?label . }" +
+		"}",
+		"molecule", "value", "unit", "label"
+	).where("?item", "http://x/molecule", "?molecule")
+	 .optional(
+		"?item", "http://x/value", "?value",
+		"?item", "http://x/unit", "?unit"
+	).optional("?molecule", "http://x/label", "?label");
+
+	private static final ResultTemplate LABELS = new ResultTemplate(
+		"SELECT ?property ?label WHERE { <http://x/m3> ?property ?label . }",
+		"property", "label"
+	).where("http://x/m3", "?property", "?label");
+
+	/**
+	 * Runs the query with Jena, giving literals with their lexical form.
+	 */
+	private static final ResultTemplate.QueryEngine JENA = new ResultTemplate.QueryEngine() {
+		public ResultTable select(String turtle, ResultTemplate template) {
+			Model model = ModelFactory.createDefaultModel();
+			model.read(new StringReader(turtle), null, "TURTLE");
+			QueryExecution execution = QueryExecutionFactory.create(template.getQuery(), model);
+			try {
+				ResultTable table = new ResultTable(template.getVariables());
+				ResultSet results = execution.execSelect();
+				while (results.hasNext()) {
+					QuerySolution solution = results.next();
+					String[] row = new String[template.getVariables().size()];
+					for (int i=0; i<row.length; i++) {
+						RDFNode node = solution.get(template.getVariables().get(i));
+						if (node == null) continue;
+						row[i] = node.isLiteral() ? node.asLiteral().getLexicalForm() : node.toString();
+					}
+					table.addRow(row);
+				}
+				return table;
+			} finally {
+				execution.close();
+			}
+		}
+	};
+
+	/**
+	 * Fails the test when SPARQL is run.
+	 */
+	private static final ResultTemplate.QueryEngine NO_SPARQL = new ResultTemplate.QueryEngine() {
+		public ResultTable select(String turtle, ResultTemplate template) {
+			fail("Ran SPARQL for " + template.getVariables());
+			return null;
+		}
+	};
+
+	private static List<String> getRows(ResultTable table) {
+		List<String> rows = new ArrayList<String>();
+		for (int row=1; row<=table.getRowCount(); row++) {
+			List<String> values = new ArrayList<String>();
+			for (String column : table.getColumnNames())
+				values.add(table.get(row, column));
+			rows.add(values.toString());
+		}
+		// SPARQL does not define the order of the solutions
+		Collections.sort(rows);
+		return rows;
+	}
+
+	@Test
+	public void testStreamingGivesTheRowsOfSparql() throws Exception {
+		List<String> rows = getRows(ITEMS.extract(TURTLE, NO_SPARQL));
+		assertEquals(getRows(JENA.select(TURTLE, ITEMS)), rows);
+		assertEquals(Arrays.asList(
+			"[http://x/m1, 1.50, nM, first]",
+			"[http://x/m2, null, null, null]",
+			"[http://x/m3, null, null, third,\n again]",
+			"[http://x/m3, null, null, third]",
+			"[http://x/m4, null, null, null]"
+		), rows);
+	}
+
+	@Test
+	public void testRepeatedTriplesMatchOnce() throws Exception {
+		String turtle = TURTLE + "<http://x/item2> <http://x/molecule> <http://x/m2> .\n";
+		assertEquals(getRows(JENA.select(turtle, ITEMS)), getRows(ITEMS.extract(turtle)));
+	}
+
+	@Test
+	public void testVariablePredicatesRunSparql() throws Exception {
+		assertTrue(ITEMS.isStreamable());
+		assertFalse(LABELS.isStreamable());
+		assertEquals(
+			Arrays.asList("[http://x/label, third,\n again]", "[http://x/label, third]"),
+			getRows(LABELS.extract(TURTLE, JENA))
+		);
+		try {
+			LABELS.extract(TURTLE);
+			fail("Streamed a template with a variable predicate");
+		} catch (IllegalStateException expected) {
+		}
+	}
+
+	@Test
+	public void testUnreadableTurtleRunsSparql() throws Exception {
+		final ResultTable answer = new ResultTable(ITEMS.getVariables());
+		final List<String> queried = new ArrayList<String>();
+		ResultTable table = ITEMS.extract("<http://x/s> <http://x/p>", new ResultTemplate.QueryEngine() {
+			public ResultTable select(String turtle, ResultTemplate template) {
+				queried.add(turtle);
+				return answer;
+			}
+		});
+		assertSame(answer, table);
+		assertEquals(Arrays.asList("<http://x/s> <http://x/p>"), queried);
+	}
+
+	@Test
+	public void testNoRowsWithoutRequiredMatches() throws Exception {
+		String turtle = "<http://x/m1> <http://x/label> \"first\" .";
+		assertEquals(0, ITEMS.extract(turtle, NO_SPARQL).getRowCount());
+		assertEquals(0, JENA.select(turtle, ITEMS).getRowCount());
+	}
+
+}
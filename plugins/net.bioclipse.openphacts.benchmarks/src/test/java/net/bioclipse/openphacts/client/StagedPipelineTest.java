@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * Copyright (c) 2012  Ola Spjuth <ola.spjuth@gmail.com>
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contact: http://www.bioclipse.net/
+ ******************************************************************************/
+package net.bioclipse.openphacts.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import net.bioclipse.openphacts.model.StageStatistics;
+
+/**
+ * Every input of a {@link StagedPipeline} ends in a result, also when a
+ * worker fails in an unexpected way.
+ *
+ * @author ola
+ */
+public class StagedPipelineTest {
+
+	/**
+	 * Runs the inputs through the pipeline and returns the results in input
+	 * order, failing if they do not all come within a few seconds.
+	 */
+	private static List<StagedPipeline.Result> run(StagedPipeline pipeline, List<?> inputs)
+			throws InterruptedException {
+		List<StagedPipeline.Result> results = new ArrayList<StagedPipeline.Result>();
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		pipeline.start(inputs);
+		try {
+			while (!pipeline.isDone()) {
+				assertTrue("The pipeline did not finish", System.nanoTime() < deadline);
+				StagedPipeline.Result result = pipeline.poll(100, TimeUnit.MILLISECONDS);
+				if (result != null) results.add(result);
+			}
+		} finally {
+			pipeline.shutdown();
+		}
+		Collections.sort(results);
+		return results;
+	}
+
+	private static StagedPipeline.Worker times(final int factor) {
+		return new StagedPipeline.Worker() {
+			public Object process(Object input) {
+				return (Integer)input * factor;
+			}
+		};
+	}
+
+	@Test
+	public void testResultsInInputOrder() throws InterruptedException {
+		StagedPipeline pipeline = new StagedPipeline("test")
+			.stage("double", 3, 2, times(2))
+			.stage("triple", 2, 2, times(3));
+		List<StagedPipeline.Result> results = run(pipeline, Arrays.asList(1, 2, 3, 4, 5, 6, 7));
+		assertEquals(7, results.size());
+		for (int i=0; i<7; i++) {
+			assertEquals(i, results.get(i).getIndex());
+			assertEquals(6 * (i + 1), results.get(i).getValue());
+		}
+	}
+
+	@Test
+	public void testSplittingStage() throws InterruptedException {
+		StagedPipeline pipeline = new StagedPipeline("test")
+			.splittingStage("split", 2, 2, new StagedPipeline.Worker() {
+				public Object process(Object input) {
+					List<Integer> parts = new ArrayList<Integer>();
+					for (int i=0; i<(Integer)input; i++) parts.add(i);
+					return parts;
+				}
+			})
+			.stage("double", 2, 2, times(2));
+		List<StagedPipeline.Result> results = run(pipeline, Arrays.asList(2, 0, 3));
+		List<String> values = new ArrayList<String>();
+		for (StagedPipeline.Result result : results)
+			values.add(result.getIndex() + ":" + result.getValue());
+		assertEquals(Arrays.asList("0:0", "0:2", "2:0", "2:2", "2:4"), values);
+	}
+
+	@Test
+	public void testExceptionsStopOnlyTheirItem() throws InterruptedException {
+		StagedPipeline pipeline = new StagedPipeline("test")
+			.stage("check", 2, 2, new StagedPipeline.Worker() {
+				public Object process(Object input) throws Exception {
+					if ((Integer)input == 2) throw new Exception("two");
+					return input;
+				}
+			})
+			.stage("double", 2, 2, times(2));
+		List<StagedPipeline.Result> results = run(pipeline, Arrays.asList(1, 2, 3));
+		assertEquals(3, results.size());
+		assertEquals(2, results.get(0).getValue());
+		assertNull(results.get(1).getValue());
+		assertEquals("two", results.get(1).getError().getMessage());
+		assertEquals(6, results.get(2).getValue());
+	}
+
+	@Test
+	public void testErrorsEndTheirItem() throws InterruptedException {
+		StagedPipeline pipeline = new StagedPipeline("test")
+			.stage("fail", 1, 2, new StagedPipeline.Worker() {
+				public Object process(Object input) {
+					if ((Integer)input == 1) throw new AssertionError("one");
+					return input;
+				}
+			});
+		List<StagedPipeline.Result> results = run(pipeline, Arrays.asList(0, 1, 2));
+		assertEquals(3, results.size());
+		assertTrue(results.get(1).getError() instanceof ExecutionException);
+		assertEquals("one", results.get(1).getError().getCause().getMessage());
+		// the worker thread survived to process the next item
+		assertEquals(2, results.get(2).getValue());
+		StageStatistics statistics = pipeline.getStatistics().get(0);
+		assertEquals("test", statistics.getPipeline());
+		assertEquals(3, statistics.getProcessed());
+	}
+
+	@Test
+	public void testSplittingStageWithoutList() throws InterruptedException {
+		StagedPipeline pipeline = new StagedPipeline("test")
+			.splittingStage("split", 1, 2, new StagedPipeline.Worker() {
+				public Object process(Object input) {
+					if ((Integer)input == 0) return null;
+					if ((Integer)input == 1) return "not a list";
+					return Arrays.asList(input);
+				}
+			});
+		List<StagedPipeline.Result> results = run(pipeline, Arrays.asList(0, 1, 2));
+		assertEquals(3, results.size());
+		assertTrue(results.get(0).getError() instanceof NullPointerException);
+		assertTrue(results.get(1).getError() instanceof ClassCastException);
+		assertEquals(2, results.get(2).getValue());
+	}
+
+}
@@ -0,0 +1,270 @@
+/*******************************************************************************
+ * Copyright (c) 2012  Ola Spjuth <ola.spjuth@gmail.com>
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contact: http://www.bioclipse.net/
+ ******************************************************************************/
+package net.bioclipse.openphacts.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * The triples {@link TurtleParser} reports for the Turtle constructs found
+ * in LDA responses.
+ *
+ * @author ola
+ */
+public class TurtleParserTest {
+
+	private static final String RDF = "http://www.w3.org/1999/02/22-rdf-syntax-ns#";
+
+	/**
+	 * Returns the triples of the document as "subject predicate object", with
+	 * literals quoted.
+	 */
+	private static List<String> parse(String turtle) throws IOException {
+		final List<String> triples = new ArrayList<String>();
+		new TurtleParser(new StringReader(turtle), new TurtleParser.TripleHandler() {
+			public void triple(String subject, String predicate, String object, boolean literal) {
+				triples.add(subject + " " + predicate + " " + (literal ? '"' + object + '"' : object));
+			}
+		}).parse();
+		return triples;
+	}
+
+	@Test
+	public void testIRIs() throws IOException {
+		assertEquals(
+			Arrays.asList("http://x/s http://x/p http://x/o"),
+			parse("<http://x/s> <http://x/p> <http://x/o> .")
+		);
+	}
+
+	@Test
+	public void testPrefixedNames() throws IOException {
+		assertEquals(
+			Arrays.asList(
+				"http://x/s http://y/p http://x/o",
+				"http://x/a.b http://y/p http://x/c",
+				"http://x/d http://y/p http://x/e"
+			),
+			parse(
+				"@prefix x: <http://x/> .\n" +
+				"PREFIX y: <http://y/>\n" +
+				"x:s y:p x:o .\n" +
+				"x:a.b y:p x:c.\n" +
+				"x:d y:p x:e ."
+			)
+		);
+	}
+
+	@Test
+	public void testEmptyPrefixAndBase() throws IOException {
+		assertEquals(
+			Arrays.asList(
+				"http://x/s http://x/p http://base/dir/o",
+				"http://base/dir/doc#s http://x/p http://x/o"
+			),
+			parse(
+				"@prefix : <http://x/> .\n" +
+				"@base <http://base/dir/doc> .\n" +
+				":s :p <o> .\n" +
+				"<#s> :p :o ."
+			)
+		);
+	}
+
+	@Test
+	public void testRDFType() throws IOException {
+		assertEquals(
+			Arrays.asList("http://x/s " + RDF + "type http://x/C"),
+			parse("<http://x/s> a <http://x/C> .")
+		);
+	}
+
+	@Test
+	public void testPredicateAndObjectLists() throws IOException {
+		assertEquals(
+			Arrays.asList(
+				"http://x/s http://x/p http://x/o1",
+				"http://x/s http://x/p http://x/o2",
+				"http://x/s http://x/q \"v\"",
+				"http://x/s http://x/r http://x/o3"
+			),
+			parse(
+				"@prefix x: <http://x/> .\n" +
+				"x:s x:p x:o1 , x:o2 ;\n" +
+				"    x:q \"v\" ; ;\n" +
+				"    x:r x:o3 ;\n" +
+				"."
+			)
+		);
+	}
+
+	@Test
+	public void testEscapesInLiterals() throws IOException {
+		assertEquals(
+			Arrays.asList(
+				"http://x/s http://x/p \"tab\tnewline\nquote\"backslash\\\"",
+				"http://x/s http://x/p \"\u00e9\u00e9 \uD83D\uDE00\"",
+				"http://x/s http://x/p \"it's\"",
+				"http://x/s http://x/p \"\""
+			),
+			parse(
+				"<http://x/s> <http://x/p> \"tab\\tnewline\\nquote\\\"backslash\\\\\" .\n" +
+				"<http://x/s> <http://x/p> \"\\u00e9\u00e9 \\U0001F600\" .\n" +
+				"<http://x/s> <http://x/p> 'it\\'s' .\n" +
+				"<http://x/s> <http://x/p> \"\" ."
+			)
+		);
+	}
+
+	@Test
+	public void testLongStrings() throws IOException {
+		assertEquals(
+			Arrays.asList(
+				"http://x/s http://x/p \"two\nlines with \"quotes\"\"",
+				"http://x/s http://x/p \"ends in a quote\"\""
+			),
+			parse(
+				"<http://x/s> <http://x/p> \"\"\"two\nlines with \"quotes\\\"\"\"\" .\n" +
+				"<http://x/s> <http://x/p> '''ends in a quote\"''' ."
+			)
+		);
+	}
+
+	@Test
+	public void testLanguageTagsAndDatatypes() throws IOException {
+		// only the lexical form is reported, as published
+		assertEquals(
+			Arrays.asList(
+				"http://x/s http://x/p \"chat\"",
+				"http://x/s http://x/p \"chat\"",
+				"http://x/s http://x/p \"1.50\"",
+				"http://x/s http://x/p \"1.50\"",
+				"http://x/s http://x/p \"007\""
+			),
+			parse(
+				"@prefix xsd: <http://www.w3.org/2001/XMLSchema#> .\n" +
+				"<http://x/s> <http://x/p> \"chat\"@fr , \"chat\"@en-GB ;\n" +
+				"  <http://x/p> \"1.50\"^^xsd:double , " +
+				"\"1.50\"^^<http://www.w3.org/2001/XMLSchema#decimal> ;\n" +
+				"  <http://x/p> \"007\"^^xsd:string ."
+			)
+		);
+	}
+
+	@Test
+	public void testNumbersAndBooleans() throws IOException {
+		assertEquals(
+			Arrays.asList(
+				"http://x/s http://x/p \"42\"",
+				"http://x/s http://x/p \"-1.5\"",
+				"http://x/s http://x/p \"1.0e6\"",
+				"http://x/s http://x/p \"true\"",
+				"http://x/s http://x/p \"7\""
+			),
+			parse("<http://x/s> <http://x/p> 42 , -1.5 , 1.0e6 , true , 7.")
+		);
+	}
+
+	@Test
+	public void testBlankNodes() throws IOException {
+		assertEquals(
+			Arrays.asList(
+				"_:b1 http://x/p http://x/o",
+				"http://x/s http://x/p _:b1",
+				"_:#0 http://x/q \"v\"",
+				"http://x/s http://x/p _:#0",
+				"_:#1 http://x/q \"w\""
+			),
+			parse(
+				"_:b1 <http://x/p> <http://x/o> .\n" +
+				"<http://x/s> <http://x/p> _:b1 .\n" +
+				"<http://x/s> <http://x/p> [ <http://x/q> \"v\" ] .\n" +
+				"[ <http://x/q> \"w\" ] ."
+			)
+		);
+	}
+
+	@Test
+	public void testCollections() throws IOException {
+		assertEquals(
+			Arrays.asList(
+				"_:#0 " + RDF + "first \"1\"",
+				"_:#0 " + RDF + "rest _:#1",
+				"_:#1 " + RDF + "first http://x/o",
+				"_:#1 " + RDF + "rest " + RDF + "nil",
+				"http://x/s http://x/p _:#0",
+				"http://x/s http://x/q " + RDF + "nil"
+			),
+			parse("<http://x/s> <http://x/p> ( 1 <http://x/o> ) ; <http://x/q> () .")
+		);
+	}
+
+	@Test
+	public void testComments() throws IOException {
+		assertEquals(
+			Arrays.asList("http://x/s http://x/p \"# not a comment\""),
+			parse(
+				"# a comment\n" +
+				"<http://x/s> # another one\n" +
+				"  <http://x/p> \"# not a comment\" . # and one at the end"
+			)
+		);
+	}
+
+	@Test
+	public void testSyntaxErrors() {
+		String[] broken = {
+			"<http://x/s> <http://x/p> <http://x/o>",
+			"<http://x/s> <http://x/p> \"unterminated .",
+			"x:s <http://x/p> <http://x/o> .",
+			"@foo <http://x/> .",
+			"<http://x/s> <http://x/p> \"\\u00zz\" ."
+		};
+		for (String turtle : broken) {
+			try {
+				parse(turtle);
+				fail("Parsed " + turtle);
+			} catch (IOException exception) {
+				assertTrue(exception.getMessage(), exception.getMessage().startsWith("Turtle syntax error"));
+			}
+		}
+	}
+
+	@Test
+	public void testLineNumberInErrors() {
+		try {
+			parse("<http://x/s> <http://x/p> <http://x/o> .\n\n<http://x/s> x:p <http://x/o> .");
+			fail();
+		} catch (IOException exception) {
+			assertTrue(exception.getMessage(), exception.getMessage().contains("line 3"));
+		}
+	}
+
+	@Test
+	public void testDocumentLargerThanBuffer() throws IOException {
+		StringBuilder turtle = new StringBuilder("@prefix x: <http://x/> .\n");
+		for (int i=0; i<2000; i++)
+			turtle.append("x:s").append(i).append(" x:p \"value ").append(i).append("\" .\n");
+		List<String> triples = parse(turtle.toString());
+		assertEquals(2000, triples.size());
+		assertEquals("http://x/s1999 http://x/p \"value 1999\"", triples.get(1999));
+	}
+
+}
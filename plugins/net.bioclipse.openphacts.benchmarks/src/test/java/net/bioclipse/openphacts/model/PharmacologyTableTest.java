@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * Copyright (c) 2012  Ola Spjuth <ola.spjuth@gmail.com>
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contact: http://www.bioclipse.net/
+ ******************************************************************************/
+package net.bioclipse.openphacts.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Filtering and sorting a {@link PharmacologyTable}, and the positions the
+ * rows keep.
+ *
+ * @author ola
+ */
+public class PharmacologyTableTest {
+
+	private PharmacologyTable table;
+
+	/**
+	 * Adds an activity of compound "c" + number, with only the fields the
+	 * tests look at.
+	 */
+	private void add(int compound, String type, String value, String unit, String pChembl) {
+		table.addRow(
+			"http://x/c" + compound, null, "http://x/assay" + (compound % 2), null,
+			type, "=", value, unit, pChembl, null, null
+		);
+	}
+
+	@Before
+	public void setUp() {
+		table = new PharmacologyTable();
+		add(0, "IC50", "10", "nM", "8.0");
+		add(1, "IC50", "5", "nM", null);
+		add(2, "Ki", "10", "nM", "7.0");
+		add(3, "IC50", "n/a", "uM", "8.0");
+		add(4, null, "2", null, "6.5");
+		add(5, "IC50", "10", "nM", "");
+	}
+
+	/**
+	 * Returns the positions of the rows, in table order.
+	 */
+	private static List<Integer> positions(PharmacologyTable table) {
+		List<Integer> positions = new ArrayList<Integer>();
+		for (int row=0; row<table.size(); row++) positions.add(table.getPosition(row));
+		return positions;
+	}
+
+	@Test
+	public void testMissingValuesAreNaN() {
+		assertTrue(Double.isNaN(table.getPChembl(1)));
+		assertTrue(Double.isNaN(table.getPChembl(5)));
+		assertTrue(Double.isNaN(table.getPublishedValue(3)));
+		assertEquals("n/a", table.getPublishedValueText(3));
+		assertNull(table.getPChemblText(1));
+		assertEquals("", table.getPChemblText(5));
+	}
+
+	@Test
+	public void testNaNLastInBothDirections() {
+		assertEquals(Arrays.asList(4, 2, 0, 3, 1, 5), positions(table.sortByPChembl(false)));
+		assertEquals(Arrays.asList(0, 3, 2, 4, 1, 5), positions(table.sortByPChembl(true)));
+		assertEquals(Arrays.asList(4, 1, 0, 2, 5, 3), positions(table.sortByPublishedValue(false)));
+		assertEquals(Arrays.asList(0, 2, 5, 1, 4, 3), positions(table.sortByPublishedValue(true)));
+	}
+
+	@Test
+	public void testSortingIsStable() {
+		// equal values keep the order they were added in, also descending
+		PharmacologyTable sorted = table.sortByPublishedValue(true);
+		assertEquals(Arrays.asList(0, 2, 5), positions(sorted).subList(0, 3));
+		// and sorting again keeps the order of the previous sort for ties
+		PharmacologyTable resorted = table.sortByPChembl(false).sortByPublishedValue(true);
+		assertEquals(Arrays.asList(2, 0, 5, 1, 4, 3), positions(resorted));
+	}
+
+	@Test
+	public void testFiltersOnAbsentTerms() {
+		assertEquals(0, table.filterByType("EC50").size());
+		assertEquals(0, table.filterByUnit("mM").size());
+		assertEquals(0, table.filterByAssay("http://x/assay9").size());
+		// a missing term does not select the rows without one
+		assertEquals(0, table.filterByType(null).size());
+		assertEquals(0, table.filterByUnit(null).size());
+	}
+
+	@Test
+	public void testFilters() {
+		assertEquals(Arrays.asList(0, 1, 3, 5), positions(table.filterByType("IC50")));
+		assertEquals(Arrays.asList(0, 1, 2, 5), positions(table.filterByUnit("nM")));
+		assertEquals(Arrays.asList(1, 3, 5), positions(table.filterByAssay("http://x/assay1")));
+		assertEquals(Arrays.asList(0, 2, 3), positions(table.filterByPChembl(7.0)));
+		assertEquals(Arrays.asList(0, 1, 2, 5), positions(table.filterByPublishedValue(5, 10)));
+	}
+
+	@Test
+	public void testPositionsAfterFilterAndSort() {
+		PharmacologyTable selected = table.filterByType("IC50").filterByUnit("nM");
+		assertEquals(Arrays.asList(0, 1, 5), positions(selected));
+		PharmacologyTable sorted = selected.sortByPublishedValue(false);
+		assertEquals(Arrays.asList(1, 0, 5), positions(sorted));
+		for (int row=0; row<sorted.size(); row++) {
+			int position = sorted.getPosition(row);
+			assertEquals("http://x/c" + position, sorted.getCompoundURI(row));
+			assertEquals(table.getPublishedValueText(position), sorted.getPublishedValueText(row));
+		}
+		// filtering a sorted table keeps its order
+		assertEquals(Arrays.asList(4, 2, 0, 3), positions(
+			table.sortByPChembl(false).filterByPChembl(6.0)
+		));
+	}
+
+	@Test
+	public void testFilteredTablesAreReadOnly() {
+		PharmacologyTable selected = table.filterByType("IC50");
+		try {
+			selected.addRow(null, null, null, null, null, null, null, null, null, null, null);
+			fail("Added a row to a filtered table");
+		} catch (IllegalStateException expected) {
+		}
+		try {
+			selected.getCompoundURI(selected.size());
+			fail("Read past the filtered rows");
+		} catch (IndexOutOfBoundsException expected) {
+		}
+	}
+
+	@Test
+	public void testAddAllCopiesTheSelectedRows() {
+		PharmacologyTable copy = new PharmacologyTable();
+		copy.addAll(table.filterByType("IC50").sortByPublishedValue(true));
+		assertEquals(Arrays.asList(0, 1, 2, 3), positions(copy));
+		assertEquals("http://x/c0", copy.getCompoundURI(0));
+		assertEquals("http://x/c5", copy.getCompoundURI(1));
+		assertEquals("http://x/c1", copy.getCompoundURI(2));
+		assertEquals("n/a", copy.getPublishedValueText(3));
+		assertTrue(Double.isNaN(copy.getPChembl(1)));
+	}
+
+}
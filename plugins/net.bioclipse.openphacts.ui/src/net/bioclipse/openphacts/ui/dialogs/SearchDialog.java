@@ -1,22 +1,35 @@
 package net.bioclipse.openphacts.ui.dialogs;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
-import net.bioclipse.core.business.BioclipseException;
 import net.bioclipse.openphacts.business.IOpenphactsManager;
+import net.bioclipse.openphacts.client.CallbackFuture;
 import net.bioclipse.openphacts.model.Resource;
 import net.bioclipse.openphacts.ui.Activator;
 
+import org.apache.log4j.Logger;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.jface.dialogs.TitleAreaDialog;
-import org.eclipse.jface.viewers.ArrayContentProvider;
 import org.eclipse.jface.viewers.ColumnLabelProvider;
 import org.eclipse.jface.viewers.ColumnPixelData;
-import org.eclipse.jface.viewers.IStructuredContentProvider;
+import org.eclipse.jface.viewers.ILazyContentProvider;
 import org.eclipse.jface.viewers.TableLayout;
 import org.eclipse.jface.viewers.TableViewer;
 import org.eclipse.jface.viewers.TableViewerColumn;
 import org.eclipse.jface.viewers.Viewer;
 import org.eclipse.swt.SWT;
+import org.eclipse.swt.events.ModifyEvent;
+import org.eclipse.swt.events.ModifyListener;
 import org.eclipse.swt.events.SelectionEvent;
 import org.eclipse.swt.events.SelectionListener;
 import org.eclipse.swt.graphics.Point;
@@ -30,14 +43,35 @@ import org.eclipse.swt.widgets.Shell;
 import org.eclipse.swt.widgets.Text;
 
 /**
+ * Searches ConceptWiki for compounds while the user types. Searches run in
+ * a background job that starts once typing pauses, and a new query cancels
+ * the search for the previous one. Results are added to a virtual table in
+ * batches, and are kept per query so that going back to a recent query,
+ * for example after deleting a character, does not contact the server.
  * 
  * @author ola
  *
  */
 public class SearchDialog extends TitleAreaDialog {
 
+	private static final Logger logger = Logger.getLogger(SearchDialog.class);
+
+	/** Time to wait after the last keystroke before searching, in ms */
+	private static final long DEBOUNCE_DELAY = 300;
+	/** Number of results added to the table at a time */
+	private static final int BATCH_SIZE = 50;
+	/** Shortest query ConceptWiki is asked for */
+	private static final int MIN_QUERY_LENGTH = 3;
+
+	private static final QueryCache cache = new QueryCache(100);
+
 	private Text searchText;
 	private TableViewer resultViewer;
+	private IOpenphactsManager openphacts;
+	private final List<Resource> results = new ArrayList<Resource>();
+	private SearchJob searchJob;
+	// identifies the most recent search, so that older ones cannot show results
+	private int generation;
 
 	public SearchDialog(Shell parentShell) {
 		super(parentShell);
@@ -61,7 +95,7 @@ public class SearchDialog extends TitleAreaDialog {
 		setTitleImage(Activator.imageDescriptorFromPlugin(
 				Activator.PLUGIN_ID, "icons/OPS_logo_small.jpg").createImage());
 		
-		final IOpenphactsManager openphacts = 
+		openphacts = 
 				net.bioclipse.openphacts.Activator.getDefault().getJavaOpenphactsManager();
 		
 		// create the top level composite for the dialog area
@@ -102,6 +136,12 @@ public class SearchDialog extends TitleAreaDialog {
 
 		searchText = new Text(composite, SWT.BORDER);
 		searchText.setLayoutData(gridData);
+		searchText.addModifyListener(new ModifyListener() {
+			@Override
+			public void modifyText(ModifyEvent e) {
+				search(DEBOUNCE_DELAY);
+			}
+		});
 
 		Button btnSearch = new Button(composite, SWT.NONE);
 		btnSearch.setText("Search");
@@ -109,14 +149,7 @@ public class SearchDialog extends TitleAreaDialog {
 			
 			@Override
 			public void widgetSelected(SelectionEvent e) {
-				List<Resource> res;
-				try {
-					res = openphacts.lookUpCompounds(searchText.getText());
-					
-					System.out.println(res);
-				} catch (BioclipseException e1) {
-					e1.printStackTrace();
-				}
+				search(0);
 			}
 			
 			@Override
@@ -127,11 +160,25 @@ public class SearchDialog extends TitleAreaDialog {
 		
 		//Viewer
 		//======
-		resultViewer = new TableViewer(composite);
+		resultViewer = new TableViewer(composite, SWT.VIRTUAL | SWT.BORDER | SWT.FULL_SELECTION);
 		GridData gridData2 = new GridData(GridData.FILL_BOTH);
 		gridData2.horizontalSpan=3;
 		resultViewer.getTable().setLayoutData(gridData2);
-		resultViewer.setContentProvider(new ArrayContentProvider());
+		resultViewer.setUseHashlookup(true);
+		resultViewer.setContentProvider(new ILazyContentProvider() {
+			@Override
+			public void updateElement(int index) {
+				if (index < results.size())
+					resultViewer.replace(results.get(index), index);
+			}
+			@Override
+			public void inputChanged(Viewer viewer, Object oldInput, Object newInput) {
+			}
+			@Override
+			public void dispose() {
+			}
+		});
+		resultViewer.setInput(results);
 
         TableLayout tableLayout = new TableLayout();
         resultViewer.getTable().setLayout(tableLayout);
@@ -140,14 +187,176 @@ public class SearchDialog extends TitleAreaDialog {
         TableViewerColumn molCol=new TableViewerColumn(resultViewer, SWT.NONE);
         molCol.getColumn().setText("Name");
         tableLayout.addColumnData(new ColumnPixelData(250));
-        molCol.setLabelProvider(new ColumnLabelProvider());
+        molCol.setLabelProvider(new ColumnLabelProvider() {
+        	@Override
+        	public String getText(Object element) {
+        		return ((Resource)element).getName();
+        	}
+        });
         
 		return searchText;
 
 	} 
+
+	/**
+	 * Starts searching for the current query after the given delay,
+	 * canceling the search for the previous query.
+	 */
+	private void search(long delay) {
+		String query = searchText.getText().trim();
+		if (searchJob != null) searchJob.cancel();
+		generation++;
+		clearResults();
+		if (query.length() < MIN_QUERY_LENGTH) {
+			searchJob = null;
+			setMessage("Type at least " + MIN_QUERY_LENGTH + " characters to search");
+			return;
+		}
+		List<Resource> cached = cache.get(query);
+		if (cached != null) {
+			searchJob = null;
+			showResults(generation, query, cached);
+			return;
+		}
+		setMessage("Searching for " + query + "...");
+		searchJob = new SearchJob(query, generation);
+		searchJob.schedule(delay);
+	}
+
+	private void clearResults() {
+		results.clear();
+		resultViewer.setItemCount(0);
+		setErrorMessage(null);
+	}
+
+	/**
+	 * Adds the results to the table in batches, each in its own UI event,
+	 * so that typing is not blocked by long result lists. Called from the
+	 * UI thread.
+	 */
+	private void showResults(final int search, final String query,
+			final List<Resource> found) {
+		final int[] shown = { 0 };
+		Runnable batch = new Runnable() {
+			@Override
+			public void run() {
+				if (search != generation || resultViewer.getTable().isDisposed()) return;
+				int end = Math.min(shown[0] + BATCH_SIZE, found.size());
+				results.addAll(found.subList(shown[0], end));
+				shown[0] = end;
+				resultViewer.setItemCount(results.size());
+				if (end < found.size()) {
+					getShell().getDisplay().asyncExec(this);
+				} else {
+					setMessage(found.size() + " results for " + query);
+				}
+			}
+		};
+		batch.run();
+	}
+
+	/**
+	 * Looks up compounds for one query. Canceling the job cancels the lookup.
+	 */
+	private class SearchJob extends Job {
+
+		private final String query;
+		private final int search;
+
+		SearchJob(String query, int search) {
+			super("Searching Open PHACTS for " + query);
+			this.query = query;
+			this.search = search;
+			setSystem(true);
+		}
+
+		@Override
+		protected IStatus run(IProgressMonitor monitor) {
+			CallbackFuture<List<Resource>> future = openphacts.lookUpCompoundsAsync(query);
+			try {
+				while (true) {
+					if (monitor.isCanceled()) {
+						future.cancel(true);
+						return Status.CANCEL_STATUS;
+					}
+					try {
+						final List<Resource> found = future.get(100, TimeUnit.MILLISECONDS);
+						cache.put(query, found);
+						asyncExec(new Runnable() {
+							@Override
+							public void run() {
+								showResults(search, query, found);
+							}
+						});
+						return Status.OK_STATUS;
+					} catch (TimeoutException exception) {
+						// check for cancellation again
+					}
+				}
+			} catch (InterruptedException exception) {
+				future.cancel(true);
+				return Status.CANCEL_STATUS;
+			} catch (ExecutionException exception) {
+				final String message = exception.getCause().getMessage();
+				logger.debug("Search for " + query + " failed: " + message);
+				asyncExec(new Runnable() {
+					@Override
+					public void run() {
+						if (search == generation) setErrorMessage(message);
+					}
+				});
+				return Status.OK_STATUS;
+			}
+		}
+
+		private void asyncExec(Runnable runnable) {
+			Shell shell = getShell();
+			if (shell != null && !shell.isDisposed())
+				shell.getDisplay().asyncExec(runnable);
+		}
+	}
+
+	/**
+	 * The results of recent queries. Only the same query is answered from
+	 * them: the results of a shorter query may have been cut off by the
+	 * server, so they cannot be narrowed down to those of a longer one.
+	 */
+	private static class QueryCache {
+
+		private final Map<String, List<Resource>> results;
+
+		QueryCache(final int size) {
+			results = new LinkedHashMap<String, List<Resource>>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, List<Resource>> eldest) {
+					return size() > size;
+				}
+			};
+		}
+
+		synchronized void put(String query, List<Resource> found) {
+			results.put(normalize(query), found);
+		}
+
+		synchronized List<Resource> get(String query) {
+			return results.get(normalize(query));
+		}
+
+		private static String normalize(String text) {
+			return text.trim().toLowerCase(Locale.ENGLISH);
+		}
+	}
 	
 	
 	
+	@Override
+	public boolean close() {
+		if (searchJob != null) searchJob.cancel();
+		generation++;
+		return super.close();
+	}
+
 	@Override
 	protected void okPressed() {
 		validate();
@@ -11,13 +11,23 @@
 package net.bioclipse.openphacts.business;
 
 import java.util.List;
+import java.util.Map;
 
 import net.bioclipse.core.PublishedClass;
 import net.bioclipse.core.PublishedMethod;
 import net.bioclipse.core.business.BioclipseException;
 import net.bioclipse.core.domain.IMolecule;
 import net.bioclipse.managers.business.IBioclipseManager;
+import net.bioclipse.openphacts.client.CallbackFuture;
+import net.bioclipse.openphacts.model.CacheStatistics;
+import net.bioclipse.openphacts.model.ConnectionPoolStatistics;
+import net.bioclipse.openphacts.model.EndpointStatistics;
+import net.bioclipse.openphacts.model.OperationStatistics;
+import net.bioclipse.openphacts.model.PharmacologyCounts;
+import net.bioclipse.openphacts.model.PharmacologyTable;
 import net.bioclipse.openphacts.model.Resource;
+import net.bioclipse.openphacts.model.SimilarityHit;
+import net.bioclipse.openphacts.model.StageStatistics;
 
 /**
  * 
@@ -33,6 +43,18 @@ public interface IOpenphactsManager extends IBioclipseManager {
 
 	@PublishedMethod(methodSummary = "Set Open PHACTS LDA endpoint")
 	public void setOPSLDAendpoint(String endpoint);
+
+	@PublishedMethod(
+			methodSummary = "Set mirrors of the Open PHACTS LDA endpoint, which take part of the " +
+					"calls and take over when the endpoint fails",
+			params = "List<String> mirrors"
+	)
+	public void setMirrors(List<String> mirrors);
+
+	@PublishedMethod(
+			methodSummary = "Return the health, latency and load of the endpoint and its mirrors"
+	)
+	public List<EndpointStatistics> getEndpointStatistics();
 	
 	@PublishedMethod(
 			methodSummary = "Look up proteins in ConceptWiki by name",
@@ -53,6 +75,181 @@ public interface IOpenphactsManager extends IBioclipseManager {
 	)
 	public List<IMolecule> getCompoundsInfo(List<Resource> collection) 
 			throws BioclipseException;
+
+	@PublishedMethod(
+			methodSummary = "Get info for chemical structures from Open PHACTS" +
+					", including pharmacological data, looking up to the given" +
+					" number of compounds in parallel. The input order is kept.",
+			params = "List<CWResult> collection, int threads"
+	)
+	public List<IMolecule> getCompoundsInfo(List<Resource> collection, int threads) 
+			throws BioclipseException;
+
+	@PublishedMethod(
+			methodSummary = "Set the maximum number of simultaneous requests" +
+					" sent to a single Open PHACTS host",
+			params = "int max"
+	)
+	public void setMaxRequestsPerHost(int max);
+
+	@PublishedMethod(
+			methodSummary = "Set the maximum number of requests per second sent to a" +
+					" single Open PHACTS host, or 0 for no limit. The rate is lowered" +
+					" for a while when the host reports too many requests",
+			params = "double max"
+	)
+	public void setMaxRequestsPerSecond(double max);
+
+	@PublishedMethod(
+			methodSummary = "Set how many times a failed call to Open PHACTS is tried" +
+					" again, when it failed because of a timeout, a dropped connection," +
+					" too many requests or a server error",
+			params = "int max"
+	)
+	public void setMaxRetries(int max);
+
+	@PublishedMethod(
+			methodSummary = "Switch hedging of slow calls on or off: a call that takes longer " +
+					"than the given percentile of recent calls is sent again, and the first " +
+					"answer is used. At most the given percentage of calls is sent twice",
+			params = "boolean enabled, int percentile, int maxExtraPercent"
+	)
+	public void setHedging(boolean enabled, int percentile, int maxExtraPercent);
+
+	@PublishedMethod(
+			methodSummary = "Set the maximum number of HTTP connections kept open to a single host",
+			params = "int max"
+	)
+	public void setMaxConnectionsPerRoute(int max);
+
+	@PublishedMethod(
+			methodSummary = "Set the maximum number of HTTP connections kept open overall",
+			params = "int max"
+	)
+	public void setMaxConnections(int max);
+
+	@PublishedMethod(
+			methodSummary = "Set how long an idle HTTP connection is kept open for reuse, " +
+					"when the server does not say",
+			params = "int seconds"
+	)
+	public void setKeepAlive(int seconds);
+
+	@PublishedMethod(
+			methodSummary = "Set the connect and read timeouts of HTTP calls, 0 for none",
+			params = "int connectSeconds, int readSeconds"
+	)
+	public void setTimeouts(int connectSeconds, int readSeconds);
+
+	@PublishedMethod(
+			methodSummary = "Return the number of leased, pending and idle HTTP connections"
+	)
+	public ConnectionPoolStatistics getConnectionPoolStatistics();
+
+	@PublishedMethod(
+			methodSummary = "Return the queue depth and throughput of the stages" +
+					" of the most recent batch call of every operation, like" +
+					" the fetch, parse and build stages of getCompoundsInfo"
+	)
+	public List<StageStatistics> getPipelineStatistics();
+
+	@PublishedMethod(
+			methodSummary = "Return the queue depth and throughput of the stages" +
+					" of the most recent batch call of the given operation, like" +
+					" getCompoundsInfo, mapURIs or getURIs.resolve",
+			params = "String operation"
+	)
+	public List<StageStatistics> getPipelineStatistics(String operation);
+
+	@PublishedMethod(
+			methodSummary = "Return the number of calls, failures and latency percentiles of" +
+					" the steps of Open PHACTS calls: network requests per operation, Turtle" +
+					" extraction, triple store import, SPARQL and SMILES parsing"
+	)
+	public List<OperationStatistics> getOperationStatistics();
+
+	@PublishedMethod(
+			methodSummary = "Return the counters of Open PHACTS calls, like cache hits and" +
+					" misses, payload sizes and HTTP status codes"
+	)
+	public Map<String, Long> getMetricCounters();
+
+	@PublishedMethod(
+			methodSummary = "Reset the latencies and counters of Open PHACTS calls"
+	)
+	public void resetMetrics();
+
+	@PublishedMethod(
+			methodSummary = "Log the given fraction, between 0 and 1, of the Open PHACTS" +
+					" responses at debug level. None are logged by default",
+			params = "double fraction"
+	)
+	public void setPayloadLogging(double fraction);
+
+	@PublishedMethod(
+			methodSummary = "Enable or disable the on-disk cache of Open PHACTS" +
+					" responses. It is disabled by default; cached responses are" +
+					" used for up to a day",
+			params = "boolean enabled"
+	)
+	public void setCacheEnabled(boolean enabled);
+
+	@PublishedMethod(
+			methodSummary = "Choose between extracting results while streaming" +
+					" through the Open PHACTS responses (the default), or by" +
+					" loading them in a triple store and running SPARQL",
+			params = "boolean streaming"
+	)
+	public void setStreamingExtraction(boolean streaming);
+
+	@PublishedMethod(
+			methodSummary = "Choose between asking Open PHACTS for responses in" +
+					" Turtle (the default) or in JSON, which is cheaper to read." +
+					" Similarity searches always use Turtle",
+			params = "boolean json"
+	)
+	public void setJSONResponses(boolean json);
+
+	@PublishedMethod(
+			methodSummary = "Return the hit, miss and eviction counts of the" +
+					" on-disk cache of Open PHACTS responses"
+	)
+	public CacheStatistics getCacheStatistics();
+
+	@PublishedMethod(
+			methodSummary = "Remove all Open PHACTS responses from the on-disk cache"
+	)
+	public void clearCache();
+
+	@PublishedMethod(
+			methodSummary = "Enable or disable answering compound and protein" +
+					" lookups from a local index of ConceptWiki names, which" +
+					" collects the results of earlier lookups. Names looked up" +
+					" before are answered from the index alone; for other names" +
+					" its concepts come first, followed by the other results of" +
+					" ConceptWiki, or alone if ConceptWiki cannot be reached",
+			params = "boolean enabled"
+	)
+	public void setConceptIndexEnabled(boolean enabled);
+
+	@PublishedMethod(
+			methodSummary = "Add the concepts in a tab separated file, with a name" +
+					" and a ConceptWiki UUID on every line, to the local index." +
+					" Returns the number of concepts added",
+			params = "String file, String type"
+	)
+	public int importConcepts(String file, String type)
+		throws BioclipseException;
+
+	@PublishedMethod(
+			methodSummary = "Return the number of concepts in the local index"
+	)
+	public int getConceptIndexSize();
+
+	@PublishedMethod(
+			methodSummary = "Remove all concepts from the local index"
+	)
+	public void clearConceptIndex();
 	
 	@PublishedMethod(
 			methodSummary = "Get info for proteins from Open PHACTS",
@@ -68,6 +265,24 @@ public interface IOpenphactsManager extends IBioclipseManager {
 	public int getPharmacologyCountForTarget(String targetURI)
 		throws BioclipseException;
 
+	@PublishedMethod(
+		methodSummary = "Get the number of activities against each of the given proteins " +
+				"in Open PHACTS, retrieved concurrently. Failures are reported per URI " +
+				"in the errors of the returned map",
+		params = "List<String> targetURIs"
+	)
+	public PharmacologyCounts getPharmacologyCountsForTargets(List<String> targetURIs)
+		throws BioclipseException;
+
+	@PublishedMethod(
+		methodSummary = "Get the number of activities of each of the given compounds " +
+				"in Open PHACTS, retrieved concurrently. Failures are reported per URI " +
+				"in the errors of the returned map",
+		params = "List<Resource> compounds"
+	)
+	public PharmacologyCounts getPharmacologyCountsForCompounds(List<Resource> compounds)
+		throws BioclipseException;
+
 	@PublishedMethod(
 		methodSummary = "Get a certain number of activities against the given proteins in Open PHACTS.",
 		params = "String targetURI"
@@ -76,24 +291,83 @@ public interface IOpenphactsManager extends IBioclipseManager {
 		throws BioclipseException;
 
 	@PublishedMethod(
-		methodSummary = "Get a certain number of activities against the given proteins in Open PHACTS.",
+		methodSummary = "Get all activities against the given proteins in Open PHACTS, retrieved page by page.",
 		params = "String targetURI"
 	)
 	public List<IMolecule> getAllPharmacologyForTarget(String targetURI)
 		throws BioclipseException;
 
 	@PublishedMethod(
-		methodSummary="Return other URIs the given URI maps to.",
+		methodSummary = "Get all activities against the given proteins in Open PHACTS, retrieved page by page"
+				+ " with the given number of activities per page.",
+		params = "String targetURI, int pageSize"
+	)
+	public List<IMolecule> getAllPharmacologyForTarget(String targetURI, int pageSize)
+		throws BioclipseException;
+
+	@PublishedMethod(
+		methodSummary = "Get a certain number of activities against the given proteins in Open PHACTS "
+				+ "as a table, which can be filtered and sorted without parsing structures.",
+		params = "String targetURI, int page, int size"
+	)
+	public PharmacologyTable getPharmacologyTableForTarget(String targetURI, int page, int size)
+		throws BioclipseException;
+
+	@PublishedMethod(
+		methodSummary = "Get all activities against the given proteins in Open PHACTS as a table.",
+		params = "String targetURI"
+	)
+	public PharmacologyTable getAllPharmacologyTableForTarget(String targetURI)
+		throws BioclipseException;
+
+	@PublishedMethod(
+		methodSummary = "Get all activities of the given compound in Open PHACTS as a table.",
+		params = "String compoundURI"
+	)
+	public PharmacologyTable getPharmacologyTableForCompound(String compoundURI)
+		throws BioclipseException;
+
+	@PublishedMethod(
+		methodSummary = "Get the compounds of a table that have a structure as molecules, with their "
+				+ "activities as properties. Structures are only parsed when a molecule is first used.",
+		params = "PharmacologyTable table"
+	)
+	public List<IMolecule> getPharmacologyMolecules(PharmacologyTable table);
+
+	@PublishedMethod(
+		methodSummary="Return other URIs the given URI maps to, without the URI itself. Mappings are "
+				+ "remembered, so URIs that map to a URI seen before are answered without asking Open "
+				+ "PHACTS, including matches found through other URIs that map to the same ones. When "
+				+ "too many are remembered, those used least recently are forgotten.",
 		params="String URI"
 	)
 	public List<String> mapURI(String URI) throws BioclipseException;
 
+	@PublishedMethod(
+		methodSummary="Return the other URIs each of the given URIs maps to, in the same order, with null "
+				+ "for URIs that could not be mapped. Only URIs not mapped before are looked up, in parallel.",
+		params="List<String> URIs"
+	)
+	public List<List<String>> mapURIs(List<String> URIs) throws BioclipseException;
+
+	@PublishedMethod(
+		methodSummary="Forget all remembered URI mappings"
+	)
+	public void clearMappings();
+
 	@PublishedMethod(
 		methodSummary="Return a URI for the given molecule, or an empty String if no match was found",
 		params="IMolecule molecule"
 	)
 	public String getURI(IMolecule molecule) throws BioclipseException;
 
+	@PublishedMethod(
+		methodSummary="Return URIs for the given molecules, in the same order, with null for molecules "
+				+ "without a match. Identical molecules are looked up only once.",
+		params="List<IMolecule> molecules"
+	)
+	public List<String> getURIs(List<IMolecule> molecules) throws BioclipseException;
+
 	@PublishedMethod(
 		methodSummary="Return URIs for similar molecules, or an empty List if no similar compounds were found. "
 				+ "It uses the Tanimoto distance, with a minimal similarity treshold of 0.8.",
@@ -109,4 +383,66 @@ public interface IOpenphactsManager extends IBioclipseManager {
 	)
 	public List<String> findSimilar(IMolecule molecule, Double treshold) throws BioclipseException;
 
+	@PublishedMethod(
+		methodSummary="Return the compounds most similar to the given molecule with their relevance, "
+				+ "most relevant first. It uses the Tanimoto distance, with a minimal similarity "
+				+ "treshold of 0.8 if null is given. A limit of 0 returns all compounds.",
+		params="IMolecule molecule, Double treshold, int limit"
+	)
+	public List<SimilarityHit> findSimilarHits(IMolecule molecule, Double treshold, int limit)
+		throws BioclipseException;
+
+	@PublishedMethod(
+		methodSummary="Return compounds similar to any of the given molecules, with the index of the "
+				+ "query molecule and the relevance, searching for all molecules in parallel. It uses "
+				+ "the Tanimoto distance, with a minimal similarity treshold of 0.8 if null is given. "
+				+ "If merge is true, a compound similar to several molecules is only returned again "
+				+ "when it is more similar than before.",
+		params="List<IMolecule> molecules, Double treshold, boolean merge"
+	)
+	public List<SimilarityHit> findSimilar(List<IMolecule> molecules, Double treshold, boolean merge)
+		throws BioclipseException;
+
+	@PublishedMethod(
+			methodSummary = "Look up compounds in the background. Returns a future that can be " +
+					"waited on, canceled, or given callbacks",
+			params = "String query"
+	)
+	public CallbackFuture<List<Resource>> lookUpCompoundsAsync(String query);
+
+	@PublishedMethod(
+			methodSummary = "Look up proteins in the background. Returns a future that can be " +
+					"waited on, canceled, or given callbacks",
+			params = "String query"
+	)
+	public CallbackFuture<List<Resource>> lookUpProteinsAsync(String query);
+
+	@PublishedMethod(
+			methodSummary = "Get info for compounds in the background. Returns a future that " +
+					"can be waited on, canceled, or given callbacks",
+			params = "List<Resource> collection"
+	)
+	public CallbackFuture<List<IMolecule>> getCompoundsInfoAsync(List<Resource> collection);
+
+	@PublishedMethod(
+			methodSummary = "Get info for proteins in the background. Returns a future that " +
+					"can be waited on, canceled, or given callbacks",
+			params = "List<Resource> collection"
+	)
+	public CallbackFuture<List<String>> getProteinsInfoAsync(List<Resource> collection);
+
+	@PublishedMethod(
+			methodSummary = "Map a URI in the background. Returns a future that can be " +
+					"waited on, canceled, or given callbacks",
+			params = "String URI"
+	)
+	public CallbackFuture<List<String>> mapURIAsync(String URI);
+
+	@PublishedMethod(
+			methodSummary = "Look up the Open PHACTS URI of a molecule in the background. " +
+					"Returns a future that can be waited on, canceled, or given callbacks",
+			params = "IMolecule molecule"
+	)
+	public CallbackFuture<String> getURIAsync(IMolecule molecule);
+
 }
@@ -10,26 +10,43 @@
  ******************************************************************************/
 package net.bioclipse.openphacts.business;
 
-import java.net.MalformedURLException;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.ProgressMonitorWrapper;
 import org.eclipse.core.runtime.preferences.ConfigurationScope;
 import org.eclipse.core.runtime.preferences.IEclipsePreferences;
+import org.openscience.cdk.interfaces.IAtomContainer;
 
-import com.github.egonw.ops4j.Compounds;
 import com.github.egonw.ops4j.ConceptType;
-import com.github.egonw.ops4j.Concepts;
-import com.github.egonw.ops4j.Mapping;
-import com.github.egonw.ops4j.Structures;
-import com.github.egonw.ops4j.Targets;
+import com.github.egonw.ops4j.ResponseFormat;
 
 import net.bioclipse.cdk.business.ICDKManager;
+import net.bioclipse.cdk.domain.CDKMolecule;
 import net.bioclipse.cdk.domain.ICDKMolecule;
 import net.bioclipse.core.business.BioclipseException;
 import net.bioclipse.core.domain.IMolecule;
@@ -38,12 +55,45 @@ import net.bioclipse.inchi.InChI;
 import net.bioclipse.inchi.business.IInChIManager;
 import net.bioclipse.jobs.IReturner;
 import net.bioclipse.managers.business.IBioclipseManager;
+import net.bioclipse.openphacts.Activator;
+import net.bioclipse.openphacts.client.AdaptivePager;
+import net.bioclipse.openphacts.client.CallbackFuture;
+import net.bioclipse.openphacts.client.ConceptIndex;
+import net.bioclipse.openphacts.client.ConnectionPool;
+import net.bioclipse.openphacts.client.EndpointRouter;
+import net.bioclipse.openphacts.client.HostRequestBudget;
+import net.bioclipse.openphacts.client.LDAClient;
+import net.bioclipse.openphacts.client.LDAJsonParser;
+import net.bioclipse.openphacts.client.LDAQueries;
+import net.bioclipse.openphacts.client.MappingGraph;
+import net.bioclipse.openphacts.client.Metrics;
+import net.bioclipse.openphacts.client.RequestCoalescer;
+import net.bioclipse.openphacts.client.RequestHedger;
+import net.bioclipse.openphacts.client.ResponseCache;
+import net.bioclipse.openphacts.client.ResultTable;
+import net.bioclipse.openphacts.client.RetryPolicy;
+import net.bioclipse.openphacts.client.ResultTemplate;
+import net.bioclipse.openphacts.client.StagedPipeline;
+import net.bioclipse.openphacts.client.TurtleParser;
+import net.bioclipse.openphacts.model.CacheStatistics;
+import net.bioclipse.openphacts.model.ConnectionPoolStatistics;
+import net.bioclipse.openphacts.model.EndpointStatistics;
+import net.bioclipse.openphacts.model.OperationStatistics;
+import net.bioclipse.openphacts.model.PharmacologyCounts;
+import net.bioclipse.openphacts.model.PharmacologyTable;
 import net.bioclipse.openphacts.model.Resource;
+import net.bioclipse.openphacts.model.SimilarityHit;
+import net.bioclipse.openphacts.model.StageStatistics;
 import net.bioclipse.rdf.business.IRDFManager;
 import net.bioclipse.rdf.business.IRDFStore;
 
 /**
  * A manager to query the Open PHACTS infrastructure.
+ *
+ * <p>Responses can be kept in an on-disk cache, so that repeated queries do
+ * not go to the server again. The cache is off unless switched on with
+ * {@link #setCacheEnabled(boolean)}, because a cached answer is up to a day
+ * old and nothing in the answer tells so.
  * @author ola
  *
  */
@@ -52,86 +102,87 @@ public class OpenphactsManager implements IBioclipseManager {
 	private static final Logger logger = Logger.getLogger(OpenphactsManager.class);
 	public static final String OPENPHACTS_PREFERENCE_NODE ="openphacts.prefs.node";
 	public static final String OPENPHACTS_ENDPOINT_PREFERENCE ="openphacts.prefs.endpoint";
+	public static final String OPENPHACTS_MIRRORS_PREFERENCE ="openphacts.prefs.mirrors";
+	public static final String OPENPHACTS_HEDGING_ENABLED_PREFERENCE ="openphacts.prefs.hedging.enabled";
+	public static final String OPENPHACTS_HEDGING_PERCENTILE_PREFERENCE ="openphacts.prefs.hedging.percentile";
+	public static final String OPENPHACTS_HEDGING_MAX_EXTRA_PREFERENCE ="openphacts.prefs.hedging.maxExtra";
 	public static final String CONCEPTWIKI_ENDPOINT_PREFERENCE ="conceptwiki.prefs.endpoint";
+	public static final String OPENPHACTS_MAX_REQUESTS_PER_HOST_PREFERENCE ="openphacts.prefs.maxRequestsPerHost";
+	public static final String OPENPHACTS_MAX_REQUESTS_PER_SECOND_PREFERENCE ="openphacts.prefs.maxRequestsPerSecond";
+	public static final String OPENPHACTS_MAX_RETRIES_PREFERENCE ="openphacts.prefs.maxRetries";
+	public static final String OPENPHACTS_CACHE_ENABLED_PREFERENCE ="openphacts.prefs.cache.enabled";
+	public static final String OPENPHACTS_CACHE_SIZE_PREFERENCE ="openphacts.prefs.cache.size";
+	public static final String OPENPHACTS_CACHE_TTL_PREFERENCE ="openphacts.prefs.cache.ttl";
+	public static final String OPENPHACTS_STREAMING_EXTRACTION_PREFERENCE ="openphacts.prefs.streamingExtraction";
+	public static final String OPENPHACTS_JSON_RESPONSES_PREFERENCE ="openphacts.prefs.jsonResponses";
+	public static final String OPENPHACTS_HTTP_MAX_PER_ROUTE_PREFERENCE ="openphacts.prefs.http.maxPerRoute";
+	public static final String OPENPHACTS_HTTP_MAX_TOTAL_PREFERENCE ="openphacts.prefs.http.maxTotal";
+	public static final String OPENPHACTS_HTTP_KEEP_ALIVE_PREFERENCE ="openphacts.prefs.http.keepAlive";
+	public static final String OPENPHACTS_HTTP_CONNECT_TIMEOUT_PREFERENCE ="openphacts.prefs.http.connectTimeout";
+	public static final String OPENPHACTS_HTTP_READ_TIMEOUT_PREFERENCE ="openphacts.prefs.http.readTimeout";
+	public static final String OPENPHACTS_CONCEPT_INDEX_ENABLED_PREFERENCE ="openphacts.prefs.conceptIndex.enabled";
+	public static final String OPENPHACTS_PAYLOAD_LOGGING_PREFERENCE ="openphacts.prefs.payloadLogging";
+
+	private static final int DEFAULT_MAX_REQUESTS_PER_HOST = 4;
+	private static final double DEFAULT_MAX_REQUESTS_PER_SECOND = 10;
+	private static final int DEFAULT_MAX_RETRIES = 3;
+	private static final long RETRY_BASE_DELAY = 500; // ms
+	private static final long RETRY_MAX_DELAY = 30000; // ms
+	private static final int DEFAULT_CACHE_SIZE = 100; // MB
+	private static final int DEFAULT_CACHE_TTL = 24; // hours
+	private static final int DEFAULT_PAGE_SIZE = 250;
+	private static final int ASYNC_THREADS = 8;
+	private static final int MIN_PAGE_SIZE = 16;
+	private static final int MAX_PAGE_SIZE = 512;
+	private static final long TARGET_PAGE_LATENCY = 5000; // ms
+	private static final int TARGET_PAGE_LENGTH = 2 * 1024 * 1024; // characters
+	private static final int DEFAULT_HTTP_MAX_PER_ROUTE = 8;
+	private static final int DEFAULT_HTTP_MAX_TOTAL = 32;
+	private static final int DEFAULT_HTTP_KEEP_ALIVE = 30; // seconds
+	private static final int DEFAULT_HTTP_CONNECT_TIMEOUT = 10; // seconds
+	private static final int DEFAULT_HTTP_READ_TIMEOUT = 60; // seconds
+	private static final int MAX_INDEX_RESULTS = 100;
+	/** Structures kept per request by getAllPharmacologyForTarget, by SMILES */
+	private static final int MAX_PARSED_STRUCTURES = 1000;
+	private static final int URI_CACHE_SIZE = 50000;
+	private static final String NO_URI = "";
+	private static final int MAPPING_GRAPH_SIZE = 500000;
+	private static final long ENDPOINT_PROBE_INTERVAL = 30000; // ms
+	private static final int DEFAULT_HEDGING_PERCENTILE = 95;
+	private static final int DEFAULT_HEDGING_MAX_EXTRA = 5; // percent of the calls
+	private static final String METRICS_NAME = "net.bioclipse.openphacts:type=Metrics";
 
-	private static final String EXACT_MATCHES =
-		"PREFIX skos: <http://www.w3.org/2004/02/skos/core#> " +
-		"SELECT ?match WHERE {" +
-	    " ?concept skos:exactMatch ?match ." +
-		"}";
-	private static final String CONCEPT_SEARCH_RESULTS =
-		"SELECT ?uuid ?match WHERE {" +
-		" ?uuid <http://www.openphacts.org/api#match> ?match ." +
-		"}";
-	private static final String PROTEIN_INFO =
-		"SELECT ?uuid ?name ?residues ?pi WHERE {" +
-		" ?uuid <http://www.w3.org/2004/02/skos/core#prefLabel> ?name ;" +
-		"       <http://www.w3.org/2004/02/skos/core#exactMatch> ?dbUri ." +
-		" OPTIONAL {" + 
-		"  ?dbUri <http://www4.wiwiss.fu-berlin.de/drugbank/resource/drugbank/theoreticalPi> ?pi ;" +
-		"         <http://www4.wiwiss.fu-berlin.de/drugbank/resource/drugbank/numberOfResidues> ?residues ." +
-		" }" +
-		"}";
-	private static final String COMPOUND_INFO =
-			"SELECT ?compound ?smiles ?inchi ?logp ?hba ?hbd ?ro5Violations ?psa ?rtb ?molweight ?molformula WHERE {" +
-			" ?compound_uri <http://www.openphacts.org/api#smiles> ?smiles ; " +
-			"               <http://www.openphacts.org/api#inchi> ?inchi . " +
-			" OPTIONAL { ?compound_uri <http://www.openphacts.org/api#logp> ?logp . }" +
-			" OPTIONAL { ?compound_uri <http://www.openphacts.org/api#hba> ?hba . }" +
-			" OPTIONAL { ?compound_uri <http://www.openphacts.org/api#hbd> ?hbd . }" +
-			" OPTIONAL { ?compound_uri <http://www.openphacts.org/api#ro5_violations> ?ro5Violations . }" +
-			" OPTIONAL { ?compound_uri <http://www.openphacts.org/api#psa> ?psa . }" +
-			" OPTIONAL { ?compound_uri <http://www.openphacts.org/api#rtb> ?rtb . }" +
-			" OPTIONAL { ?compound_uri <http://www.openphacts.org/api#molweight> ?molweight . }" +
-			" OPTIONAL { ?compound_uri <http://www.openphacts.org/api#molformula> ?molformula . }" +
-			"}";
-	private static final String COMPOUND_PHARMA_COUNT =
-			"SELECT ?uuid ?count WHERE {" +
-			" ?uuid <http://www.openphacts.org/api#compoundPharmacologyTotalResults> ?count ." +
-			"}";
-	private static final String TARGET_PHARMA_COUNT =
-			"SELECT ?uuid ?count WHERE {" +
-			" ?uuid <http://www.openphacts.org/api#targetPharmacologyTotalResults> ?count ." +
-			"}";
-	private static final String COMPOUND_URI =
-			"SELECT ?compound WHERE {" +
-			" ?compound <http://semanticscience.org/resource/CHEMINF_000396> ?inchi ." +
-			"}";
-	private static final String COMPOUND_SIMILARITY =
-			"SELECT ?compound ?relevance WHERE {" +
-			" ?compound <http://www.openphacts.org/api/#relevance> ?relevance ." +
-			"}";
-
-	private static final String COMPOUND_PHARMA =
-			"SELECT * WHERE {" +
-			" ?item <http://rdf.ebi.ac.uk/terms/chembl#hasMolecule> ?chembl_compound_uri ; " +
-			"   <http://rdf.ebi.ac.uk/terms/chembl#hasAssay> ?assay_uri . " +
-			" OPTIONAL { ?item <http://rdf.ebi.ac.uk/terms/chembl#publishedType> ?published_type . } " +
-			" OPTIONAL { ?item <http://rdf.ebi.ac.uk/terms/chembl#publishedRelation> ?published_relation . } " +
-			" OPTIONAL { ?item <http://rdf.ebi.ac.uk/terms/chembl#publishedValue> ?published_value . } " +
-			" OPTIONAL { ?item <http://rdf.ebi.ac.uk/terms/chembl#publishedUnits> ?published_unit . } " +
-			" OPTIONAL { ?item <http://rdf.ebi.ac.uk/terms/chembl#pChembl> ?pChembl . } " +
-			" OPTIONAL { ?item <http://rdf.ebi.ac.uk/terms/chembl#activityComment> ?act_comment . } " +
-			" OPTIONAL { ?assay_uri <http://purl.org/dc/terms/description> ?assay_description. } " +
-			"}";
-	private static final String COMPOUND_PHARMA_BY_TARGET =
-			"SELECT * WHERE {" +
-			" ?item <http://rdf.ebi.ac.uk/terms/chembl#hasMolecule> ?chembl_compound_uri ; " +
-			"   <http://rdf.ebi.ac.uk/terms/chembl#hasAssay> ?assay_uri . " +
-			" ?chembl_compound_uri <http://www.w3.org/2004/02/skos/core#exactMatch> ?rsc_compound_uri . " +
-			" OPTIONAL { ?item <http://rdf.ebi.ac.uk/terms/chembl#publishedType> ?published_type . } " +
-			" OPTIONAL { ?item <http://rdf.ebi.ac.uk/terms/chembl#publishedRelation> ?published_relation . } " +
-			" OPTIONAL { ?item <http://rdf.ebi.ac.uk/terms/chembl#publishedValue> ?published_value . } " +
-			" OPTIONAL { ?item <http://rdf.ebi.ac.uk/terms/chembl#publishedUnits> ?published_unit . } " +
-			" OPTIONAL { ?item <http://rdf.ebi.ac.uk/terms/chembl#pChembl> ?pChembl . } " +
-			" OPTIONAL { ?item <http://rdf.ebi.ac.uk/terms/chembl#activityComment> ?act_comment . } " +
-			" OPTIONAL { ?assay_uri <http://purl.org/dc/terms/description> ?assay_description. } " +
-			" OPTIONAL { ?rsc_compound_uri <http://www.openphacts.org/api#smiles> ?smiles . } " +
-			"}";
-	
     private static final String APPID = "5dea5f60";
 	private static final String APPKEY = "064e38c33ad32e925cd7a6e78b7c4996";
-	
+
+	private HostRequestBudget requestBudget;
+	private RetryPolicy retryPolicy;
+	private RequestHedger requestHedger;
+	private ResponseCache responseCache;
+	private ConceptIndex conceptIndex;
+	private final RequestCoalescer requestCoalescer = new RequestCoalescer();
+	private ConnectionPool connectionPool;
+	private EndpointRouter endpointRouter;
+	private AdaptivePager pager;
+	private ExecutorService asyncExecutor;
+	// the most recently started pipeline of every operation
+	private final Map<String, StagedPipeline> pipelines = Collections.synchronizedMap(
+		new LinkedHashMap<String, StagedPipeline>()
+	);
+	private Metrics metrics;
+	private final Random payloadSampler = new Random();
+	private final MappingGraph mappingGraph = new MappingGraph(MAPPING_GRAPH_SIZE);
+	// InChIKey -> compound URI, or NO_URI if Open PHACTS does not know it
+	private final Map<String, String> uriCache = Collections.synchronizedMap(
+		new LinkedHashMap<String, String>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+				return size() > URI_CACHE_SIZE;
+			}
+		}
+	);
+
 	public String getManagerName() {
 		return "openphacts";
 	}
@@ -147,6 +198,450 @@ public class OpenphactsManager implements IBioclipseManager {
 		 preferences.put(OPENPHACTS_ENDPOINT_PREFERENCE,endpoint);
 	}
 
+	private List<String> getMirrors(){
+		 IEclipsePreferences preferences = ConfigurationScope.INSTANCE
+				  .getNode(OPENPHACTS_PREFERENCE_NODE);
+		 List<String> mirrors = new ArrayList<String>();
+		 for (String mirror : preferences.get(OPENPHACTS_MIRRORS_PREFERENCE, "").split(","))
+			 if (mirror.trim().length() > 0) mirrors.add(mirror.trim());
+		 return mirrors;
+	}
+	public void setMirrors(List<String> mirrors){
+		 IEclipsePreferences preferences = ConfigurationScope.INSTANCE
+				  .getNode(OPENPHACTS_PREFERENCE_NODE);
+		 StringBuilder value = new StringBuilder();
+		 for (String mirror : mirrors) {
+			 if (mirror.indexOf(',') != -1)
+				 throw new IllegalArgumentException("Not a valid endpoint: " + mirror);
+			 if (value.length() > 0) value.append(',');
+			 value.append(mirror.trim());
+		 }
+		 preferences.put(OPENPHACTS_MIRRORS_PREFERENCE, value.toString());
+	}
+
+	/**
+	 * Returns the router over the endpoint and its mirrors. It is replaced
+	 * when the preferences name other endpoints, so that the statistics of
+	 * the endpoints are kept as long as they are in use.
+	 */
+	private synchronized EndpointRouter getEndpointRouter() {
+		List<String> endpoints = new ArrayList<String>();
+		endpoints.add(getOPSLDAendpoint());
+		for (String mirror : getMirrors())
+			if (!endpoints.contains(mirror)) endpoints.add(mirror);
+		if (endpointRouter == null || !endpointRouter.getEndpoints().equals(endpoints)) {
+			if (endpointRouter != null) endpointRouter.shutdown();
+			endpointRouter = new EndpointRouter(endpoints);
+			endpointRouter.startProbes(ENDPOINT_PROBE_INTERVAL);
+		}
+		return endpointRouter;
+	}
+
+	public List<EndpointStatistics> getEndpointStatistics() {
+		return getEndpointRouter().getStatistics();
+	}
+
+	private int getMaxRequestsPerHost(){
+		 IEclipsePreferences preferences = ConfigurationScope.INSTANCE
+				  .getNode(OPENPHACTS_PREFERENCE_NODE);
+		 return preferences.getInt(OPENPHACTS_MAX_REQUESTS_PER_HOST_PREFERENCE, DEFAULT_MAX_REQUESTS_PER_HOST);
+	}
+	public void setMaxRequestsPerHost(int max){
+		 IEclipsePreferences preferences = ConfigurationScope.INSTANCE
+				  .getNode(OPENPHACTS_PREFERENCE_NODE);
+		 getRequestBudget().setMaxPerHost(max);
+		 getPager().setConcurrency(max);
+		 preferences.putInt(OPENPHACTS_MAX_REQUESTS_PER_HOST_PREFERENCE, max);
+	}
+
+	/**
+	 * Returns the pager used to retrieve long pharmacology lists, which
+	 * retrieves as many pages at a time as the request budget allows.
+	 */
+	private synchronized AdaptivePager getPager() {
+		if (pager == null)
+			pager = new AdaptivePager(
+				MIN_PAGE_SIZE, MAX_PAGE_SIZE, TARGET_PAGE_LATENCY, TARGET_PAGE_LENGTH,
+				getMaxRequestsPerHost()
+			);
+		return pager;
+	}
+
+	private synchronized HostRequestBudget getRequestBudget() {
+		if (requestBudget == null)
+			requestBudget = new HostRequestBudget(getMaxRequestsPerHost(), getMaxRequestsPerSecond());
+		return requestBudget;
+	}
+
+	private double getMaxRequestsPerSecond(){
+		 IEclipsePreferences preferences = ConfigurationScope.INSTANCE
+				  .getNode(OPENPHACTS_PREFERENCE_NODE);
+		 return preferences.getDouble(OPENPHACTS_MAX_REQUESTS_PER_SECOND_PREFERENCE, DEFAULT_MAX_REQUESTS_PER_SECOND);
+	}
+	public void setMaxRequestsPerSecond(double max){
+		 IEclipsePreferences preferences = ConfigurationScope.INSTANCE
+				  .getNode(OPENPHACTS_PREFERENCE_NODE);
+		 getRequestBudget().setMaxPerSecond(max);
+		 preferences.putDouble(OPENPHACTS_MAX_REQUESTS_PER_SECOND_PREFERENCE, max);
+	}
+
+	private synchronized RetryPolicy getRetryPolicy() {
+		if (retryPolicy == null) {
+			IEclipsePreferences preferences = ConfigurationScope.INSTANCE
+				.getNode(OPENPHACTS_PREFERENCE_NODE);
+			retryPolicy = new RetryPolicy(
+				preferences.getInt(OPENPHACTS_MAX_RETRIES_PREFERENCE, DEFAULT_MAX_RETRIES),
+				RETRY_BASE_DELAY, RETRY_MAX_DELAY
+			);
+		}
+		return retryPolicy;
+	}
+	public void setMaxRetries(int max){
+		 IEclipsePreferences preferences = ConfigurationScope.INSTANCE
+				  .getNode(OPENPHACTS_PREFERENCE_NODE);
+		 synchronized (this) {
+			 retryPolicy = new RetryPolicy(max, RETRY_BASE_DELAY, RETRY_MAX_DELAY);
+		 }
+		 preferences.putInt(OPENPHACTS_MAX_RETRIES_PREFERENCE, max);
+	}
+
+	/**
+	 * Returns the hedger of slow calls, or null if hedging is switched off.
+	 * The latencies it knows are kept while it is switched off.
+	 */
+	private synchronized RequestHedger getRequestHedger() {
+		IEclipsePreferences preferences = ConfigurationScope.INSTANCE
+			.getNode(OPENPHACTS_PREFERENCE_NODE);
+		if (!preferences.getBoolean(OPENPHACTS_HEDGING_ENABLED_PREFERENCE, false)) return null;
+		if (requestHedger == null)
+			requestHedger = new RequestHedger(
+				preferences.getInt(OPENPHACTS_HEDGING_PERCENTILE_PREFERENCE, DEFAULT_HEDGING_PERCENTILE),
+				preferences.getInt(OPENPHACTS_HEDGING_MAX_EXTRA_PREFERENCE, DEFAULT_HEDGING_MAX_EXTRA) / 100.0,
+				getMetrics()
+			);
+		return requestHedger;
+	}
+	public void setHedging(boolean enabled, int percentile, int maxExtraPercent){
+		 if (percentile < 1 || percentile > 100)
+			 throw new IllegalArgumentException("The percentile must be between 1 and 100");
+		 if (maxExtraPercent < 0)
+			 throw new IllegalArgumentException("The number of hedged calls cannot be negative");
+		 IEclipsePreferences preferences = ConfigurationScope.INSTANCE
+				  .getNode(OPENPHACTS_PREFERENCE_NODE);
+		 synchronized (this) {
+			 if (requestHedger != null) requestHedger.setLimits(percentile, maxExtraPercent / 100.0);
+		 }
+		 preferences.putBoolean(OPENPHACTS_HEDGING_ENABLED_PREFERENCE, enabled);
+		 preferences.putInt(OPENPHACTS_HEDGING_PERCENTILE_PREFERENCE, percentile);
+		 preferences.putInt(OPENPHACTS_HEDGING_MAX_EXTRA_PREFERENCE, maxExtraPercent);
+	}
+
+	private boolean isCacheEnabled(){
+		 IEclipsePreferences preferences = ConfigurationScope.INSTANCE
+				  .getNode(OPENPHACTS_PREFERENCE_NODE);
+		 return preferences.getBoolean(OPENPHACTS_CACHE_ENABLED_PREFERENCE, false);
+	}
+	public void setCacheEnabled(boolean enabled){
+		 IEclipsePreferences preferences = ConfigurationScope.INSTANCE
+				  .getNode(OPENPHACTS_PREFERENCE_NODE);
+		 preferences.putBoolean(OPENPHACTS_CACHE_ENABLED_PREFERENCE, enabled);
+	}
+
+	/**
+	 * Returns the on-disk response cache, kept in the state location of this
+	 * plugin, or null if caching is disabled.
+	 */
+	private synchronized ResponseCache getResponseCache() {
+		if (!isCacheEnabled()) return null;
+		if (responseCache == null) {
+			IEclipsePreferences preferences = ConfigurationScope.INSTANCE
+				.getNode(OPENPHACTS_PREFERENCE_NODE);
+			File directory = Activator.getDefault().getStateLocation()
+				.append("cache").toFile();
+			responseCache = new ResponseCache(
+				directory,
+				preferences.getInt(OPENPHACTS_CACHE_SIZE_PREFERENCE, DEFAULT_CACHE_SIZE) * 1024L * 1024L,
+				preferences.getInt(OPENPHACTS_CACHE_TTL_PREFERENCE, DEFAULT_CACHE_TTL) * 60L * 60L * 1000L
+			);
+		}
+		return responseCache;
+	}
+
+	public CacheStatistics getCacheStatistics() {
+		ResponseCache cache = getResponseCache();
+		if (cache == null) return new CacheStatistics(0, 0, 0, 0, 0, 0);
+		return cache.getStatistics();
+	}
+
+	public void clearCache() {
+		ResponseCache cache = getResponseCache();
+		if (cache != null) cache.clear();
+	}
+
+	private boolean isConceptIndexEnabled(){
+		 IEclipsePreferences preferences = ConfigurationScope.INSTANCE
+				  .getNode(OPENPHACTS_PREFERENCE_NODE);
+		 return preferences.getBoolean(OPENPHACTS_CONCEPT_INDEX_ENABLED_PREFERENCE, false);
+	}
+	public void setConceptIndexEnabled(boolean enabled){
+		 IEclipsePreferences preferences = ConfigurationScope.INSTANCE
+				  .getNode(OPENPHACTS_PREFERENCE_NODE);
+		 preferences.putBoolean(OPENPHACTS_CONCEPT_INDEX_ENABLED_PREFERENCE, enabled);
+	}
+
+	/**
+	 * Returns the local index of ConceptWiki names, kept in the state
+	 * location of this plugin.
+	 */
+	private synchronized ConceptIndex getConceptIndex() {
+		if (conceptIndex == null) {
+			File file = Activator.getDefault().getStateLocation()
+				.append("concepts.tsv").toFile();
+			conceptIndex = new ConceptIndex(file);
+		}
+		return conceptIndex;
+	}
+
+	public int importConcepts(String file, String type, IProgressMonitor monitor)
+			throws BioclipseException {
+		getConceptType(type);
+		monitor.beginTask("Importing concepts from " + file, IProgressMonitor.UNKNOWN);
+		try {
+			return getConceptIndex().importFile(type, new File(file));
+		} catch (IOException e) {
+			throw new BioclipseException("Could not read " + file + ": " + e.getMessage(), e);
+		} finally {
+			monitor.done();
+		}
+	}
+
+	public int getConceptIndexSize() {
+		return getConceptIndex().size();
+	}
+
+	public void clearConceptIndex() {
+		getConceptIndex().clear();
+	}
+
+	/**
+	 * Returns the HTTP connections shared by all calls, set up from the
+	 * preferences on first use.
+	 */
+	private synchronized ConnectionPool getConnectionPool() {
+		if (connectionPool == null) {
+			IEclipsePreferences preferences = ConfigurationScope.INSTANCE
+				.getNode(OPENPHACTS_PREFERENCE_NODE);
+			connectionPool = new ConnectionPool(
+				preferences.getInt(OPENPHACTS_HTTP_MAX_PER_ROUTE_PREFERENCE, DEFAULT_HTTP_MAX_PER_ROUTE),
+				preferences.getInt(OPENPHACTS_HTTP_MAX_TOTAL_PREFERENCE, DEFAULT_HTTP_MAX_TOTAL),
+				preferences.getInt(OPENPHACTS_HTTP_KEEP_ALIVE_PREFERENCE, DEFAULT_HTTP_KEEP_ALIVE) * 1000L,
+				preferences.getInt(OPENPHACTS_HTTP_CONNECT_TIMEOUT_PREFERENCE, DEFAULT_HTTP_CONNECT_TIMEOUT) * 1000,
+				preferences.getInt(OPENPHACTS_HTTP_READ_TIMEOUT_PREFERENCE, DEFAULT_HTTP_READ_TIMEOUT) * 1000
+			);
+			connectionPool.setMetrics(getMetrics());
+		}
+		return connectionPool;
+	}
+
+	public void setMaxConnectionsPerRoute(int max){
+		 if (max < 1) throw new IllegalArgumentException("At least one connection is needed");
+		 IEclipsePreferences preferences = ConfigurationScope.INSTANCE
+				  .getNode(OPENPHACTS_PREFERENCE_NODE);
+		 getConnectionPool().setMaxPerRoute(max);
+		 preferences.putInt(OPENPHACTS_HTTP_MAX_PER_ROUTE_PREFERENCE, max);
+	}
+	public void setMaxConnections(int max){
+		 if (max < 1) throw new IllegalArgumentException("At least one connection is needed");
+		 IEclipsePreferences preferences = ConfigurationScope.INSTANCE
+				  .getNode(OPENPHACTS_PREFERENCE_NODE);
+		 getConnectionPool().setMaxTotal(max);
+		 preferences.putInt(OPENPHACTS_HTTP_MAX_TOTAL_PREFERENCE, max);
+	}
+	public void setKeepAlive(int seconds){
+		 IEclipsePreferences preferences = ConfigurationScope.INSTANCE
+				  .getNode(OPENPHACTS_PREFERENCE_NODE);
+		 getConnectionPool().setKeepAlive(seconds * 1000L);
+		 preferences.putInt(OPENPHACTS_HTTP_KEEP_ALIVE_PREFERENCE, seconds);
+	}
+	public void setTimeouts(int connectSeconds, int readSeconds){
+		 IEclipsePreferences preferences = ConfigurationScope.INSTANCE
+				  .getNode(OPENPHACTS_PREFERENCE_NODE);
+		 getConnectionPool().setTimeouts(connectSeconds * 1000, readSeconds * 1000);
+		 preferences.putInt(OPENPHACTS_HTTP_CONNECT_TIMEOUT_PREFERENCE, connectSeconds);
+		 preferences.putInt(OPENPHACTS_HTTP_READ_TIMEOUT_PREFERENCE, readSeconds);
+	}
+
+	public ConnectionPoolStatistics getConnectionPoolStatistics() {
+		return getConnectionPool().getStatistics();
+	}
+
+	private boolean isStreamingExtraction(){
+		 IEclipsePreferences preferences = ConfigurationScope.INSTANCE
+				  .getNode(OPENPHACTS_PREFERENCE_NODE);
+		 return preferences.getBoolean(OPENPHACTS_STREAMING_EXTRACTION_PREFERENCE, true);
+	}
+	public void setStreamingExtraction(boolean streaming){
+		 IEclipsePreferences preferences = ConfigurationScope.INSTANCE
+				  .getNode(OPENPHACTS_PREFERENCE_NODE);
+		 preferences.putBoolean(OPENPHACTS_STREAMING_EXTRACTION_PREFERENCE, streaming);
+	}
+
+	private boolean isJSONResponses(){
+		 IEclipsePreferences preferences = ConfigurationScope.INSTANCE
+				  .getNode(OPENPHACTS_PREFERENCE_NODE);
+		 return preferences.getBoolean(OPENPHACTS_JSON_RESPONSES_PREFERENCE, false);
+	}
+	public void setJSONResponses(boolean json){
+		 IEclipsePreferences preferences = ConfigurationScope.INSTANCE
+				  .getNode(OPENPHACTS_PREFERENCE_NODE);
+		 preferences.putBoolean(OPENPHACTS_JSON_RESPONSES_PREFERENCE, json);
+	}
+
+	/**
+	 * Pulls the rows of the given template out of a response. JSON responses
+	 * are always read while streaming through them. Turtle is by default
+	 * too, unless the template or the Turtle cannot be handled that way;
+	 * then, or when streaming is switched off, the Turtle is imported in a
+	 * triple store and the SPARQL query of the template is run instead.
+	 */
+	private ResultTable extract(String turtle, ResultTemplate template) throws Exception {
+		Metrics metrics = getMetrics();
+		long start = metrics.start();
+		if (LDAJsonParser.isJSON(turtle)) {
+			try {
+				ResultTable table = template.extractJSON(turtle);
+				metrics.stop("extract.json", start);
+				return table;
+			} catch (Exception e) {
+				metrics.failed("extract.json", start);
+				throw e;
+			}
+		}
+		if (isStreamingExtraction()) {
+			try {
+				ResultTable table = template.extract(turtle, sparqlFallback);
+				metrics.stop("extract", start);
+				return table;
+			} catch (Exception e) {
+				metrics.failed("extract", start);
+				throw e;
+			}
+		}
+		return query(turtle, template);
+	}
+
+	private final ResultTemplate.QueryEngine sparqlFallback = new ResultTemplate.QueryEngine() {
+		public ResultTable select(String turtle, ResultTemplate template) throws Exception {
+			getMetrics().increment("extract.fallback");
+			return query(turtle, template);
+		}
+	};
+
+	/**
+	 * Imports the Turtle in a triple store and runs the SPARQL query of the
+	 * template.
+	 */
+	private ResultTable query(String turtle, ResultTemplate template) throws Exception {
+		Metrics metrics = getMetrics();
+		long start = metrics.start();
+		IRDFManager rdf = net.bioclipse.rdf.Activator.getDefault().getJavaManager();
+		IRDFStore store = rdf.createInMemoryStore();
+		try {
+			rdf.importFromString(store, turtle, "Turtle");
+			metrics.stop("rdf.import", start);
+		} catch (Exception e) {
+			metrics.failed("rdf.import", start);
+			throw e;
+		}
+		start = metrics.start();
+		IStringMatrix matches;
+		try {
+			matches = rdf.sparql(store, template.getQuery());
+			metrics.stop("rdf.sparql", start);
+		} catch (Exception e) {
+			metrics.failed("rdf.sparql", start);
+			throw e;
+		}
+		ResultTable table = new ResultTable(template.getVariables());
+		for (int row=1; row<=matches.getRowCount(); row++) {
+			String[] values = new String[template.getVariables().size()];
+			for (int column=0; column<values.length; column++)
+				values[column] = matches.get(row, template.getVariables().get(column));
+			table.addRow(values);
+		}
+		return table;
+	}
+
+	private LDAClient getClient() {
+		return new LDAClient(
+			getEndpointRouter(), APPID, APPKEY, getRequestBudget(), getResponseCache(),
+			requestCoalescer, getConnectionPool(), getMetrics(), getRetryPolicy(),
+			isJSONResponses() ? ResponseFormat.JSON : ResponseFormat.TURTLE, getRequestHedger()
+		);
+	}
+
+	/**
+	 * Returns the metrics of all calls, which are also available through
+	 * JMX as {@value #METRICS_NAME}.
+	 */
+	private synchronized Metrics getMetrics() {
+		if (metrics == null) {
+			metrics = new Metrics();
+			metrics.register(METRICS_NAME);
+		}
+		return metrics;
+	}
+
+	public List<OperationStatistics> getOperationStatistics() {
+		return getMetrics().getOperations();
+	}
+
+	public Map<String, Long> getMetricCounters() {
+		return getMetrics().getCounters();
+	}
+
+	public void resetMetrics() {
+		getMetrics().reset();
+	}
+
+	private double getPayloadLogging(){
+		 IEclipsePreferences preferences = ConfigurationScope.INSTANCE
+				  .getNode(OPENPHACTS_PREFERENCE_NODE);
+		 return preferences.getDouble(OPENPHACTS_PAYLOAD_LOGGING_PREFERENCE, 0);
+	}
+	public void setPayloadLogging(double fraction){
+		 IEclipsePreferences preferences = ConfigurationScope.INSTANCE
+				  .getNode(OPENPHACTS_PREFERENCE_NODE);
+		 preferences.putDouble(OPENPHACTS_PAYLOAD_LOGGING_PREFERENCE, fraction);
+	}
+
+	/**
+	 * Logs a response at debug level, for the fraction of the responses set
+	 * with {@link #setPayloadLogging(double)}. None are logged by default.
+	 */
+	private void logPayload(String label, String payload) {
+		if (!logger.isDebugEnabled()) return;
+		double fraction = getPayloadLogging();
+		if (fraction <= 0) return;
+		synchronized (payloadSampler) {
+			if (payloadSampler.nextDouble() >= fraction) return;
+		}
+		logger.debug(label + ": " + payload);
+	}
+
+	private ICDKMolecule parseSmiles(ICDKManager cdk, String smiles) throws BioclipseException {
+		Metrics metrics = getMetrics();
+		long start = metrics.start();
+		try {
+			ICDKMolecule molecule = cdk.fromSMILES(smiles);
+			metrics.stop("smiles", start);
+			return molecule;
+		} catch (BioclipseException e) {
+			metrics.failed("smiles", start);
+			throw e;
+		}
+	}
+
 	/**
 	 * Look up proteins in conceptwiki
 	 * 
@@ -170,63 +665,159 @@ public class OpenphactsManager implements IBioclipseManager {
 		return lookUpCW(query, "compound", monitor);
 	}
 
+	/**
+	 * Returns the other URIs the given URI maps to, without the URI itself.
+	 * Matches are remembered in the mapping graph, so any URI of a cluster
+	 * seen before is answered without asking Open PHACTS. Since exact
+	 * matches are transitive, the answer includes URIs that reached the
+	 * cluster through the lookups of other URIs in it. URIs come in the
+	 * order the graph first saw them, which for a URI looked up on its own
+	 * is the order of Open PHACTS.
+	 */
 	public List<String> mapURI(String URI, IProgressMonitor monitor)
 			throws BioclipseException {
-		IRDFManager rdf = net.bioclipse.rdf.Activator.getDefault().getJavaManager();
-		Mapping mapper;
 		try {
-			mapper = Mapping.getInstance(
-				getOPSLDAendpoint(), APPID, APPKEY
-			);
-			String rdfContent = mapper.mapUri(URI);
-			System.out.println("OPS LDA results: " + rdfContent);
-			IRDFStore store = rdf.createInMemoryStore();
-			rdf.importFromString(store, rdfContent, "Turtle");
-			IStringMatrix matches = rdf.sparql(store, EXACT_MATCHES);
-			return matches.getColumn("match");
+			return mapURI(getClient(), URI);
 		} catch (Exception e) {
 			throw new BioclipseException(e.getMessage(), e);
 		}
 	}
+
+	/**
+	 * Returns the URIs each of the given URIs maps to, in the same order,
+	 * with null for URIs that could not be mapped. Only URIs that are not in
+	 * the mapping graph yet are looked up, in parallel, and a URI is skipped
+	 * if an earlier lookup in the batch found its cluster.
+	 */
+	public List<List<String>> mapURIs(List<String> URIs, IProgressMonitor monitor)
+			throws BioclipseException {
+		if (monitor == null) monitor = new NullProgressMonitor();
+
+		final LDAClient client = getClient();
+		Set<String> unseen = new LinkedHashSet<String>();
+		for (String uri : URIs)
+			if (!mappingGraph.contains(uri)) unseen.add(uri);
+
+		monitor.beginTask("Mapping URIs with Open PHACTS", unseen.size());
+		try {
+			StagedPipeline pipeline = new StagedPipeline("mapURIs")
+				.stage("map", getMaxRequestsPerHost(), 2 * getMaxRequestsPerHost(),
+					new StagedPipeline.Worker() {
+						public Object process(Object uri) throws Exception {
+							return mapURI(client, (String)uri);
+						}
+					});
+			List<String> distinct = new ArrayList<String>(unseen);
+			List<StagedPipeline.Result> results = runPipeline(pipeline, distinct, monitor);
+			if (results == null) return null;
+			for (StagedPipeline.Result result : results) {
+				if (result.getError() != null)
+					logger.warn("Could not map " + distinct.get(result.getIndex()) + ": " +
+						result.getError().getMessage());
+			}
+
+			List<List<String>> mappings = new ArrayList<List<String>>();
+			for (String uri : URIs) mappings.add(getMatches(uri));
+			return mappings;
+		} finally {
+			monitor.done();
+		}
+	}
+
+	private List<String> mapURI(LDAClient client, String URI) throws Exception {
+		List<String> known = getMatches(URI);
+		if (known != null) {
+			getMetrics().increment("mapping.hits");
+			return known;
+		}
+		getMetrics().increment("mapping.misses");
+		String rdfContent = client.mapUri(URI);
+		logPayload("OPS LDA results", rdfContent);
+		List<String> matches = extract(rdfContent, LDAQueries.EXACT_MATCHES).getColumn("match");
+		if (matches.isEmpty()) {
+			mappingGraph.addUnmapped(URI);
+			return matches;
+		}
+		List<String> equivalent = new ArrayList<String>(matches);
+		equivalent.add(URI);
+		mappingGraph.addMatches(equivalent);
+		return getMatches(URI);
+	}
+
+	/**
+	 * Returns the URIs in the cluster of the given URI without the URI
+	 * itself, or null if the mapping graph does not know it.
+	 */
+	private List<String> getMatches(String URI) {
+		List<String> cluster = mappingGraph.getCluster(URI);
+		if (cluster != null) cluster.remove(URI);
+		return cluster;
+	}
+
+	/**
+	 * Forgets all URI mappings, so they are looked up again.
+	 */
+	public void clearMappings() {
+		mappingGraph.clear();
+	}
 	
+	private static ConceptType getConceptType(String type) throws BioclipseException {
+		if ("compound".equals(type)) {
+			return ConceptType.CHEMICAL_VIEWED_STRUCTURALLY;
+		} else if ("protein".equals(type)) {
+			return ConceptType.AMINO_ACID_PEPTIDE_OR_PROTEIN;
+		} else {
+			throw new BioclipseException("Type must be either protein or compound");
+		}
+	}
+
 	/**
-	 * Private method for CW access
+	 * Private method for CW access. If the concept index is enabled, names
+	 * searched in ConceptWiki before are answered with what ConceptWiki
+	 * found for them then. For other names the concepts found in the index
+	 * come first, followed by the other results of ConceptWiki, which are
+	 * added to the index; if ConceptWiki cannot be reached, the concepts in
+	 * the index are all that is returned.
 	 */
 	private List<Resource> lookUpCW(String name, String type, IProgressMonitor monitor)
 			throws BioclipseException {
 		
-		if (name==null || name.length()<3)
+		ConceptType cwtype = getConceptType(type);
+		List<Resource> indexed = Collections.emptyList();
+		if (name != null && isConceptIndexEnabled()) {
+			ConceptIndex index = getConceptIndex();
+			List<Resource> searched = index.getSearch(type, name);
+			if (searched != null) return searched;
+			indexed = index.search(type, name, MAX_INDEX_RESULTS);
+		}
+
+		if (name==null || name.length()<3) {
+			if (!indexed.isEmpty()) return indexed;
 			throw new BioclipseException(
 							"Searches need to be at least 3 characters long");
+		}
 
 		monitor.beginTask("Searching ConceptWiki for:" + name, IProgressMonitor.UNKNOWN);
 		monitor.subTask("Searching ConceptWiki for:" + name);
 
-		IRDFManager rdf = net.bioclipse.rdf.Activator.getDefault().getJavaManager();
-
 		//Query CW based on type
-		IRDFStore store = rdf.createInMemoryStore();
+		String rdfContent;
 		try {
-			Concepts concepts = Concepts.getInstance(getOPSLDAendpoint(), APPID, APPKEY);
-			ConceptType cwtype = null;
-			if ("compound".equals(type)) {
-				cwtype = ConceptType.CHEMICAL_VIEWED_STRUCTURALLY;
-			} else if ("protein".equals(type)) {
-				cwtype = ConceptType.AMINO_ACID_PEPTIDE_OR_PROTEIN;
-			} else {
-				throw new BioclipseException("Type must be either protein or compound");
-			}
-			String rdfContent = concepts.freetextByTag(name, cwtype);
-			System.out.println("OPS LDA results: " + rdfContent);
-			rdf.importFromString(store, rdfContent, "Turtle");
+			rdfContent = getClient().freetextByTag(name, cwtype);
+			logPayload("OPS LDA results", rdfContent);
 		} catch (Exception e) {
+			if (!indexed.isEmpty()) {
+				logger.warn("Could not search ConceptWiki, returning the " + indexed.size() +
+					" concepts in the local index: " + e.getMessage());
+				return indexed;
+			}
 			throw new BioclipseException("Something went wrong: " + e.getMessage(), e);
 		}
 
 		//Parse the results
 		List<Resource> res = new ArrayList<Resource>();
 		try {
-			IStringMatrix matches = rdf.sparql(store, CONCEPT_SEARCH_RESULTS);
+			ResultTable matches = extract(rdfContent, LDAQueries.CONCEPT_SEARCH_RESULTS);
 			for (int i=1; i<=matches.getRowCount(); i++) {
 				String uuid = matches.get(i, "uuid");
 				uuid = uuid.substring(uuid.lastIndexOf('/')+1);
@@ -237,7 +828,15 @@ public class OpenphactsManager implements IBioclipseManager {
 			throw new BioclipseException("Something went wrong: " + e.getMessage(), e);
 		}
 
-		return res;
+		if (!isConceptIndexEnabled()) return res;
+		getConceptIndex().addSearch(type, name, res);
+		if (indexed.isEmpty()) return res;
+		List<Resource> merged = new ArrayList<Resource>(indexed);
+		Set<String> uris = new HashSet<String>();
+		for (Resource resource : indexed) uris.add(resource.getURI());
+		for (Resource resource : res)
+			if (uris.add(resource.getURI())) merged.add(resource);
+		return merged;
 	}
 
 	/**
@@ -253,14 +852,7 @@ public class OpenphactsManager implements IBioclipseManager {
 		monitor.beginTask("Retrieving information about protein from Open PHACTS", collection.size());
 		List<String> res = new ArrayList<String>();
 
-		IRDFManager rdf = net.bioclipse.rdf.Activator.getDefault().getJavaManager();
-		
-		Targets targets = null;
-		try {
-			targets = Targets.getInstance(getOPSLDAendpoint(), APPID, APPKEY);
-		} catch (Exception e) {
-			throw new BioclipseException("Something went wrong: " + e.getMessage(), e);
-		}
+		LDAClient client = getClient();
 		int i=0;
 		for (Resource protein : collection){
 			i++;
@@ -273,14 +865,12 @@ public class OpenphactsManager implements IBioclipseManager {
 			String cwikiURI = protein.getURI();
 			
 			//Query CW based on type
-			IRDFStore store = rdf.createInMemoryStore();
 			try {
-				String rdfContent = targets.info(cwikiURI);
-				System.out.println("OPS LDA results: " + rdfContent);
-				rdf.importFromString(store, rdfContent, "Turtle");
+				String rdfContent = client.targetInfo(cwikiURI);
+				logPayload("OPS LDA results", rdfContent);
 
 				// process the results
-				IStringMatrix matches = rdf.sparql(store, PROTEIN_INFO);
+				ResultTable matches = extract(rdfContent, LDAQueries.PROTEIN_INFO);
 				String tinfo = "";
 				if (matches.getRowCount() > 0) {
 					String name = matches.get(1, "name");
@@ -310,7 +900,6 @@ public class OpenphactsManager implements IBioclipseManager {
 		if (monitor == null) monitor = new NullProgressMonitor();
 
 		IInChIManager inchi = net.bioclipse.inchi.business.Activator.getDefault().getJavaInChIManager();
-		IRDFManager rdf = net.bioclipse.rdf.Activator.getDefault().getJavaManager();
 
 		InChI inchiVal = null;
 		try {
@@ -321,19 +910,8 @@ public class OpenphactsManager implements IBioclipseManager {
 			);
 		}
 		if (inchiVal != null) {
-			// do something
-			Structures structures = null;
 			try {
-				structures = Structures.getInstance(getOPSLDAendpoint(), APPID, APPKEY);
-				String turtle = structures.inchi2uri(inchiVal.getValue());
-				
-				IRDFStore countStore = rdf.createInMemoryStore();
-				rdf.importFromString(countStore, turtle, "Turtle");
-				IStringMatrix countMatches = rdf.sparql(countStore, COMPOUND_URI);
-				if (countMatches.getRowCount() > 0) {
-					String uri = countMatches.get(1, "compound");
-					return uri;
-				}
+				return resolveInChI(getClient(), inchiVal);
 			} catch (Exception e) {
 				throw new BioclipseException("Something went wrong: " + e.getMessage(), e);
 			}
@@ -342,33 +920,118 @@ public class OpenphactsManager implements IBioclipseManager {
 		return null;
 	}
 
-	public void findSimilar(IMolecule molecule, IReturner<String> returner,
-            IProgressMonitor monitor)
-	throws BioclipseException {
-		findSimilar(molecule, null, returner, monitor);
-	}
-
-	public void findSimilar(IMolecule molecule, Double treshold, IReturner<String> returner,
-            IProgressMonitor monitor)
-	throws BioclipseException {
+	/**
+	 * Returns URIs for the given molecules, in the same order, with null for
+	 * molecules Open PHACTS does not know or no InChI could be generated for.
+	 * InChIs are generated in parallel on all processors. Each distinct InChI
+	 * is then resolved once, as far as the per-host request budget allows in
+	 * parallel, and remembered by its InChIKey for later calls.
+	 */
+	public List<String> getURIs(List<IMolecule> molecules, IProgressMonitor monitor)
+			throws BioclipseException {
 		if (monitor == null) monitor = new NullProgressMonitor();
 
-		Double tresholdUsed = treshold == null ? Double.valueOf(0.8) : treshold;
-
-		IRDFManager rdf = net.bioclipse.rdf.Activator.getDefault().getJavaManager();
-		ICDKManager cdk = net.bioclipse.cdk.business.Activator.getDefault().getJavaCDKManager();
-		String smiles = cdk.calculateSMILES(molecule);
+		final IInChIManager inchi = net.bioclipse.inchi.business.Activator.getDefault().getJavaInChIManager();
+		final LDAClient client = getClient();
+		int cpus = Runtime.getRuntime().availableProcessors();
 
-		Structures structures = null;
+		monitor.beginTask("Looking up molecules in Open PHACTS", 2 * molecules.size());
 		try {
-			structures = Structures.getInstance(getOPSLDAendpoint(), APPID, APPKEY);
-			String turtle = structures.tanimotoSimilarity(smiles, tresholdUsed.floatValue());
-			
-			IRDFStore countStore = rdf.createInMemoryStore();
-			rdf.importFromString(countStore, turtle, "Turtle");
-			IStringMatrix countMatches = rdf.sparql(countStore, COMPOUND_SIMILARITY);
-			if (countMatches.getRowCount() > 0) {
-				for (int hit=1; hit<=countMatches.getRowCount(); hit++) {
+			StagedPipeline generate = new StagedPipeline("getURIs.inchi")
+				.stage("inchi", cpus, 2 * cpus, new StagedPipeline.Worker() {
+					public Object process(Object molecule) throws Exception {
+						return inchi.generate((IMolecule)molecule);
+					}
+				});
+			List<StagedPipeline.Result> inchis = runPipeline(generate, molecules, monitor);
+			if (inchis == null) return null;
+
+			// only resolve distinct InChIs that were not resolved before
+			Map<String, String> uris = new HashMap<String, String>();
+			Map<String, InChI> unresolved = new LinkedHashMap<String, InChI>();
+			for (StagedPipeline.Result result : inchis) {
+				InChI inchiVal = (InChI)result.getValue();
+				if (inchiVal == null) continue;
+				String key = getKey(inchiVal);
+				String uri = uriCache.get(key);
+				if (uri != null) uris.put(key, uri);
+				else unresolved.put(key, inchiVal);
+			}
+			StagedPipeline resolve = new StagedPipeline("getURIs.resolve")
+				.stage("resolve", getMaxRequestsPerHost(), 2 * getMaxRequestsPerHost(),
+					new StagedPipeline.Worker() {
+						public Object process(Object inchiVal) throws Exception {
+							return resolveInChI(client, (InChI)inchiVal);
+						}
+					});
+			List<InChI> distinct = new ArrayList<InChI>(unresolved.values());
+			List<StagedPipeline.Result> resolved = runPipeline(resolve, distinct, monitor);
+			if (resolved == null) return null;
+			for (StagedPipeline.Result result : resolved) {
+				String key = getKey(distinct.get(result.getIndex()));
+				if (result.getError() != null)
+					logger.warn("Could not look up " + key + ": " + result.getError().getMessage());
+				else
+					uris.put(key, result.getValue() == null ? NO_URI : (String)result.getValue());
+			}
+			monitor.worked(molecules.size() - distinct.size());
+
+			List<String> results = new ArrayList<String>();
+			for (StagedPipeline.Result result : inchis) {
+				if (result.getError() != null)
+					logger.warn("Could not generate an InChI for molecule " + (result.getIndex() + 1) +
+						": " + result.getError().getMessage());
+				String uri = result.getValue() == null ? null : uris.get(getKey((InChI)result.getValue()));
+				results.add(uri == null || NO_URI.equals(uri) ? null : uri);
+			}
+			return results;
+		} finally {
+			monitor.done();
+		}
+	}
+
+	private static String getKey(InChI inchiVal) {
+		return inchiVal.getKey() != null ? inchiVal.getKey() : inchiVal.getValue();
+	}
+
+	/**
+	 * Returns the compound URI for the InChI, or null if there is none,
+	 * asking Open PHACTS only for InChIs not looked up before.
+	 */
+	private String resolveInChI(LDAClient client, InChI inchiVal) throws Exception {
+		String key = getKey(inchiVal);
+		String uri = uriCache.get(key);
+		if (uri == null) {
+			String turtle = client.inchi2uri(inchiVal.getValue());
+			ResultTable countMatches = extract(turtle, LDAQueries.COMPOUND_URI);
+			uri = countMatches.getRowCount() > 0 ? countMatches.get(1, "compound") : NO_URI;
+			uriCache.put(key, uri);
+		}
+		return NO_URI.equals(uri) ? null : uri;
+	}
+
+	public void findSimilar(IMolecule molecule, IReturner<String> returner,
+            IProgressMonitor monitor)
+	throws BioclipseException {
+		findSimilar(molecule, null, returner, monitor);
+	}
+
+	public void findSimilar(IMolecule molecule, Double treshold, IReturner<String> returner,
+            IProgressMonitor monitor)
+	throws BioclipseException {
+		if (monitor == null) monitor = new NullProgressMonitor();
+
+		Double tresholdUsed = treshold == null ? Double.valueOf(0.8) : treshold;
+
+		ICDKManager cdk = net.bioclipse.cdk.business.Activator.getDefault().getJavaCDKManager();
+		String smiles = cdk.calculateSMILES(molecule);
+
+		try {
+			String turtle = getClient().tanimotoSimilarity(smiles, tresholdUsed.floatValue());
+			
+			ResultTable countMatches = extract(turtle, LDAQueries.COMPOUND_SIMILARITY);
+			if (countMatches.getRowCount() > 0) {
+				for (int hit=1; hit<=countMatches.getRowCount(); hit++) {
 					String uri = countMatches.get(hit, "compound");
 					returner.partialReturn(uri);
 				}
@@ -378,151 +1041,663 @@ public class OpenphactsManager implements IBioclipseManager {
 		}
 	}
 
-	public int getPharmacologyCountForTarget(String targetURI, IProgressMonitor monitor)
+	/**
+	 * Looks for compounds similar to each of the given molecules. SMILES are
+	 * calculated in parallel on all processors, and the similarity searches
+	 * run in parallel as far as the per-host request budget allows. Hits are
+	 * returned as soon as the search they belong to is done, so they are not
+	 * ordered by query. A query that fails is logged and skipped.
+	 *
+	 * @param merge if true, a compound similar to several queries is only
+	 *              returned again when it is more similar than before
+	 */
+	public void findSimilar(List<IMolecule> molecules, Double treshold, boolean merge,
+			final IReturner<SimilarityHit> returner, IProgressMonitor monitor)
 	throws BioclipseException {
 		if (monitor == null) monitor = new NullProgressMonitor();
 
-		IRDFManager rdf = net.bioclipse.rdf.Activator.getDefault().getJavaManager();
-		Targets targets = null;
+		final float tresholdUsed = treshold == null ? 0.8f : treshold.floatValue();
+		final ICDKManager cdk = net.bioclipse.cdk.business.Activator.getDefault().getJavaCDKManager();
+		final LDAClient client = getClient();
+		int cpus = Runtime.getRuntime().availableProcessors();
+		int requests = getMaxRequestsPerHost();
+
+		StagedPipeline pipeline = new StagedPipeline("findSimilar")
+			.stage("smiles", cpus, 2 * cpus, new StagedPipeline.Worker() {
+				public Object process(Object molecule) throws Exception {
+					return cdk.calculateSMILES((IMolecule)molecule);
+				}
+			})
+			.stage("similarity", requests, 2 * requests, new StagedPipeline.Worker() {
+				public Object process(Object smiles) throws Exception {
+					return client.tanimotoSimilarity((String)smiles, tresholdUsed);
+				}
+			})
+			.stage("parse", cpus, 2 * cpus, new StagedPipeline.Worker() {
+				public Object process(Object turtle) throws Exception {
+					return parseSimilarity((String)turtle, 0);
+				}
+			});
+
+		// hit URI -> best relevance returned so far
+		final Map<String, Double> best = merge ? new HashMap<String, Double>() : null;
+		monitor.beginTask("Searching Open PHACTS for similar compounds", molecules.size());
+		try {
+			runPipeline(pipeline, molecules, monitor, new ResultHandler() {
+				@SuppressWarnings("unchecked")
+				public void handle(StagedPipeline.Result result) {
+					if (result.getError() != null) {
+						logger.warn("Similarity search for molecule " + (result.getIndex() + 1) +
+							" failed: " + result.getError().getMessage());
+						return;
+					}
+					for (SimilarityHit hit : (List<SimilarityHit>)result.getValue()) {
+						if (best != null) {
+							Double relevance = best.get(hit.getURI());
+							if (relevance != null && relevance >= hit.getRelevance()) continue;
+							best.put(hit.getURI(), hit.getRelevance());
+						}
+						hit.setQueryIndex(result.getIndex());
+						returner.partialReturn(hit);
+					}
+				}
+			});
+		} finally {
+			monitor.done();
+		}
+	}
+
+	/**
+	 * Returns compounds similar to the given molecule with their relevance,
+	 * most relevant first.
+	 *
+	 * @param limit maximum number of compounds to return, or 0 for all
+	 */
+	public List<SimilarityHit> findSimilarHits(IMolecule molecule, Double treshold, int limit,
+			IProgressMonitor monitor)
+	throws BioclipseException {
+		if (monitor == null) monitor = new NullProgressMonitor();
+		if (limit < 0)
+			throw new BioclipseException("The limit cannot be negative");
+
+		Double tresholdUsed = treshold == null ? Double.valueOf(0.8) : treshold;
+
+		ICDKManager cdk = net.bioclipse.cdk.business.Activator.getDefault().getJavaCDKManager();
+		String smiles = cdk.calculateSMILES(molecule);
+
 		try {
-			targets = Targets.getInstance(getOPSLDAendpoint(), APPID, APPKEY);
-		} catch (MalformedURLException e) {
+			String turtle = getClient().tanimotoSimilarity(smiles, tresholdUsed.floatValue());
+			List<SimilarityHit> hits = parseSimilarity(turtle, limit);
+			for (SimilarityHit hit : hits) hit.setQueryIndex(0);
+			return hits;
+		} catch (Exception e) {
 			throw new BioclipseException("Something went wrong: " + e.getMessage(), e);
 		}
+	}
+
+	/**
+	 * Returns the hits in a similarity search response, most relevant first.
+	 * With a limit, only that many hits are kept while parsing, in a heap
+	 * with the least relevant on top.
+	 *
+	 * @param limit maximum number of hits to return, or 0 for all
+	 */
+	private List<SimilarityHit> parseSimilarity(String turtle, final int limit) throws Exception {
+		final PriorityQueue<SimilarityHit> heap = new PriorityQueue<SimilarityHit>(
+			limit > 0 ? limit + 1 : 11, LEAST_RELEVANT_FIRST
+		);
+		if (isStreamingExtraction()) {
+			// a single pattern, so there is no need to collect the triples
+			new TurtleParser(new StringReader(turtle), new TurtleParser.TripleHandler() {
+				public void triple(String subject, String predicate, String object, boolean literal) {
+					if (LDAQueries.RELEVANCE.equals(predicate))
+						offer(heap, new SimilarityHit(-1, subject, parseRelevance(object)), limit);
+				}
+			}).parse();
+		} else {
+			ResultTable matches = extract(turtle, LDAQueries.COMPOUND_SIMILARITY);
+			for (int hit=1; hit<=matches.getRowCount(); hit++)
+				offer(heap, new SimilarityHit(
+					-1, matches.get(hit, "compound"), parseRelevance(matches.get(hit, "relevance"))
+				), limit);
+		}
+		List<SimilarityHit> hits = new ArrayList<SimilarityHit>(heap);
+		Collections.sort(hits, Collections.reverseOrder(LEAST_RELEVANT_FIRST));
+		return hits;
+	}
+
+	private static final Comparator<SimilarityHit> LEAST_RELEVANT_FIRST = new Comparator<SimilarityHit>() {
+		public int compare(SimilarityHit hit1, SimilarityHit hit2) {
+			return Double.compare(hit1.getRelevance(), hit2.getRelevance());
+		}
+	};
+
+	private static void offer(PriorityQueue<SimilarityHit> heap, SimilarityHit hit, int limit) {
+		if (limit == 0 || heap.size() < limit) {
+			heap.add(hit);
+		} else if (heap.peek().getRelevance() < hit.getRelevance()) {
+			heap.poll();
+			heap.add(hit);
+		}
+	}
+
+	/**
+	 * Parses a relevance, which the SPARQL results give as a typed literal.
+	 */
+	private static double parseRelevance(String relevance) {
+		if (relevance == null) return 0;
+		String value = relevance;
+		int type = value.indexOf("^^");
+		if (type != -1) value = value.substring(0, type);
+		return Double.parseDouble(value.replace("\"", "").trim());
+	}
+
+	public int getPharmacologyCountForTarget(String targetURI, IProgressMonitor monitor)
+	throws BioclipseException {
+		if (monitor == null) monitor = new NullProgressMonitor();
+
+		LDAClient client = getClient();
 
 		monitor.beginTask("Retrieving pharmacology about targets from Open PHACTS", 1);
 		try {
-			String countTurtle = targets.pharmacologyCount(targetURI);
-			System.out.println("countStr: " + countTurtle);
-			IRDFStore countStore = rdf.createInMemoryStore();
-			rdf.importFromString(countStore, countTurtle, "Turtle");
-			IStringMatrix countMatches = rdf.sparql(countStore, TARGET_PHARMA_COUNT);
-			System.out.println("Count matches: " + countMatches);
+			int count = getTargetPharmacologyCount(client, targetURI);
 			monitor.worked(1);
-			if (countMatches.getRowCount() > 0) {
-				int count = Integer.valueOf(countMatches.get(1, "count"));
-				return count;
-			}
-			return 0;
+			return count;
 		} catch (Exception e) {
 			throw new BioclipseException("Error while contacting Open PHACTS: " + e.getMessage(), e);
 		}
 	}
 
-	public List<IMolecule> getPharmacologyListForTarget(String targetURI, int page, int size, IProgressMonitor monitor)
-	throws BioclipseException {
+	private int getTargetPharmacologyCount(LDAClient client, String targetURI) throws Exception {
+		String countTurtle = client.targetPharmacologyCount(targetURI);
+		logPayload("Target pharmacology count", countTurtle);
+		ResultTable countMatches = extract(countTurtle, LDAQueries.TARGET_PHARMA_COUNT);
+		if (countMatches.getRowCount() > 0)
+			return Integer.valueOf(countMatches.get(1, "count"));
+		return 0;
+	}
+
+	private int getCompoundPharmacologyCount(LDAClient client, String compoundURI) throws Exception {
+		String countTurtle = client.compoundPharmacologyCount(compoundURI);
+		logPayload("Compound pharmacology count", countTurtle);
+		ResultTable countMatches = extract(countTurtle, LDAQueries.COMPOUND_PHARMA_COUNT);
+		if (countMatches.getRowCount() > 0)
+			return Integer.valueOf(countMatches.get(1, "count"));
+		logger.debug("No proper pharma count found in Turtle: " + countTurtle);
+		return 0;
+	}
+
+	/**
+	 * Retrieves the number of activities against each of the given targets.
+	 * The counts are retrieved concurrently, as far as the per-host request
+	 * budget allows. A failure for one target is recorded in the errors of
+	 * the returned counts and does not stop the others.
+	 */
+	public PharmacologyCounts getPharmacologyCountsForTargets(List<String> targetURIs,
+			IProgressMonitor monitor) throws BioclipseException {
+		final LDAClient client = getClient();
+		return getPharmacologyCounts("getPharmacologyCountsForTargets", targetURIs, new StagedPipeline.Worker() {
+			public Object process(Object targetURI) throws Exception {
+				return getTargetPharmacologyCount(client, (String)targetURI);
+			}
+		}, monitor);
+	}
+
+	/**
+	 * Retrieves the number of activities for each of the given compounds,
+	 * keyed by compound URI. See {@link #getPharmacologyCountsForTargets(List, IProgressMonitor)}.
+	 */
+	public PharmacologyCounts getPharmacologyCountsForCompounds(List<Resource> compounds,
+			IProgressMonitor monitor) throws BioclipseException {
+		final LDAClient client = getClient();
+		List<String> compoundURIs = new ArrayList<String>();
+		for (Resource compound : compounds)
+			compoundURIs.add(compound.getURI());
+		return getPharmacologyCounts("getPharmacologyCountsForCompounds", compoundURIs, new StagedPipeline.Worker() {
+			public Object process(Object compoundURI) throws Exception {
+				return getCompoundPharmacologyCount(client, (String)compoundURI);
+			}
+		}, monitor);
+	}
+
+	private PharmacologyCounts getPharmacologyCounts(String operation, List<String> uris,
+			StagedPipeline.Worker count, IProgressMonitor monitor) throws BioclipseException {
 		if (monitor == null) monitor = new NullProgressMonitor();
 
-		IRDFManager rdf = net.bioclipse.rdf.Activator.getDefault().getJavaManager();
-		ICDKManager cdk = net.bioclipse.cdk.business.Activator.getDefault().getJavaCDKManager();
+		int threads = getMaxRequestsPerHost();
+		StagedPipeline pipeline = new StagedPipeline(operation)
+			.stage("count", threads, 2 * threads, count);
 
-		List<IMolecule> mols = new ArrayList<IMolecule>();
-		Targets targets = null;
+		monitor.beginTask("Retrieving pharmacology counts from Open PHACTS", uris.size());
 		try {
-			targets = Targets.getInstance(getOPSLDAendpoint(), APPID, APPKEY);
-		} catch (MalformedURLException e) {
-			throw new BioclipseException("Something went wrong: " + e.getMessage(), e);
+			List<StagedPipeline.Result> results = runPipeline(pipeline, uris, monitor);
+			if (results == null) return null;
+
+			PharmacologyCounts counts = new PharmacologyCounts();
+			for (StagedPipeline.Result result : results) {
+				String uri = uris.get(result.getIndex());
+				if (result.getError() != null) {
+					logger.warn("Could not retrieve the pharmacology count for " + uri +
+						": " + result.getError().getMessage());
+					counts.addError(uri, result.getError().getMessage());
+				} else {
+					counts.put(uri, (Integer)result.getValue());
+				}
+			}
+			return counts;
+		} finally {
+			monitor.done();
 		}
+	}
 
-		monitor.beginTask("Retrieving pharmacology about targets from Open PHACTS", 2);
-		try {
-			String listTurtle = targets.pharmacologyList(targetURI, page, size);
-			System.out.println("listTurtle: " + listTurtle);
-			IRDFStore pharmaStore = rdf.createInMemoryStore();
-			rdf.importFromString(pharmaStore, listTurtle, "Turtle");
-			IStringMatrix pharmaInfo = rdf.sparql(pharmaStore, COMPOUND_PHARMA_BY_TARGET);
-			System.out.println("pharmaInfo: " + pharmaInfo);
+	/**
+	 * Retrieves one page of activities against the given target. All
+	 * activities of a compound are set on a single molecule, and the
+	 * molecules are built in parallel.
+	 */
+	public List<IMolecule> getPharmacologyListForTarget(final String targetURI, final int page,
+			final int size, IProgressMonitor monitor)
+	throws BioclipseException {
+		if (monitor == null) monitor = new NullProgressMonitor();
 
-			for (int actCounter=1;actCounter<=pharmaInfo.getRowCount();actCounter++) {
-				Map<String, String> props = new HashMap<String, String>();
-				ICDKMolecule cdkmol=null;
+		final ICDKManager cdk = net.bioclipse.cdk.business.Activator.getDefault().getJavaCDKManager();
+		final LDAClient client = getClient();
+		int cpus = Runtime.getRuntime().availableProcessors();
 
-				String smiles = pharmaInfo.get(actCounter, "smiles");
-				if (smiles != null) {
-					cdkmol = cdk.fromSMILES(smiles);
-					String report = onlyIfNotNull("", pharmaInfo.get(actCounter, "published_type"), " ") +
-						onlyIfNotNull("", pharmaInfo.get(actCounter, "published_relation"), " ") +
-						onlyIfNotNull("", pharmaInfo.get(actCounter, "published_value"), " ") +
-						onlyIfNotNull("", pharmaInfo.get(actCounter, "published_unit"), " ") +
-						onlyIfNotNull("(pChembl=", pharmaInfo.get(actCounter, "pChembl"), ") ") +
-						onlyIfNotNull("Comment: ", pharmaInfo.get(actCounter, "act_comment"), "");
-					String propName = (
-						pharmaInfo.get(actCounter, "assay_description") != null ?
-							pharmaInfo.get(actCounter, "assay_description") :
-							"pharmacology"+actCounter
-						);
-					props.put(propName, report);
-					System.out.println("Added compound pharma: " + report);
-
-					for (String key : props.keySet())
-						cdkmol.setProperty(key, props.get(key));
-
-					mols.add(cdkmol);
+		StagedPipeline pipeline = new StagedPipeline("getPharmacologyListForTarget")
+			.stage("fetch", 1, 1, new StagedPipeline.Worker() {
+				public Object process(Object input) throws Exception {
+					String listTurtle = client.targetPharmacologyList(targetURI, page, size);
+					logPayload("Target pharmacology", listTurtle);
+					return listTurtle;
 				}
-			}
-		} catch (Exception e) {
-			throw new BioclipseException("Error while contacting Open PHACTS: " + e.getMessage(), e);
+			})
+			.splittingStage("parse", 1, 1, new StagedPipeline.Worker() {
+				public Object process(Object listTurtle) throws Exception {
+					ResultTable pharmaInfo = extract((String)listTurtle, LDAQueries.COMPOUND_PHARMA_BY_TARGET);
+					List<Object[]> compounds = new ArrayList<Object[]>();
+					for (List<Integer> rows : groupBySmiles(pharmaInfo.getColumn("smiles"), 1).values())
+						compounds.add(new Object[] { pharmaInfo, rows });
+					return compounds;
+				}
+			})
+			.stage("build", cpus, 4 * cpus, new StagedPipeline.Worker() {
+				@SuppressWarnings("unchecked")
+				public Object process(Object compound) throws Exception {
+					Object[] tableRows = (Object[])compound;
+					ResultTable pharmaInfo = (ResultTable)tableRows[0];
+					List<Integer> rows = (List<Integer>)tableRows[1];
+					PharmacologyCompound group = new PharmacologyCompound(
+						parseSmiles(cdk, pharmaInfo.get(rows.get(0), "smiles")));
+					for (int row : rows) addActivity(group, pharmaInfo, row, 0);
+					return group.molecule;
+				}
+			});
+
+		monitor.beginTask("Retrieving pharmacology about targets from Open PHACTS", IProgressMonitor.UNKNOWN);
+		List<StagedPipeline.Result> results;
+		try {
+			results = runPipeline(pipeline, Collections.singletonList(targetURI), monitor);
+		} finally {
+			monitor.done();
 		}
+		if (results == null) return null;
 
+		List<IMolecule> mols = new ArrayList<IMolecule>();
+		for (StagedPipeline.Result result : results) {
+			if (result.getError() != null)
+				throw new BioclipseException("Error while contacting Open PHACTS: " +
+					result.getError().getMessage(), result.getError());
+			if (result.getValue() != null)
+				mols.add((IMolecule)result.getValue());
+		}
 		return mols;
 	}
 
-	public List<IMolecule> getAllPharmacologyForTarget(String targetURI, IProgressMonitor monitor)
+	public void getAllPharmacologyForTarget(String targetURI, IReturner<IMolecule> returner,
+			IProgressMonitor monitor)
+	throws BioclipseException {
+		getAllPharmacologyForTarget(targetURI, DEFAULT_PAGE_SIZE, returner, monitor);
+	}
+
+	/**
+	 * Retrieves all activities against the given target, one page at a time,
+	 * and returns the molecules of each page before the next is retrieved.
+	 * Within a page, the activities of a compound are grouped on one
+	 * molecule. The structures of the last {@value #MAX_PARSED_STRUCTURES}
+	 * SMILES are kept, so a compound on several pages is parsed once and
+	 * each page gets a copy of its structure: memory use does not grow with
+	 * the number of activities, and a molecule is not changed after it was
+	 * returned. A compound with activities on several pages is returned
+	 * once for each of them. To get every compound once, with all its
+	 * activities, use
+	 * {@link #getPharmacologyMolecules(PharmacologyTable)} on
+	 * {@link #getAllPharmacologyTableForTarget(String, IProgressMonitor)}.
+	 */
+	public void getAllPharmacologyForTarget(String targetURI, int pageSize,
+			IReturner<IMolecule> returner, IProgressMonitor monitor)
 	throws BioclipseException {
 		if (monitor == null) monitor = new NullProgressMonitor();
+		if (pageSize < 1)
+			throw new BioclipseException("The page size must be at least 1");
 
-		IRDFManager rdf = net.bioclipse.rdf.Activator.getDefault().getJavaManager();
 		ICDKManager cdk = net.bioclipse.cdk.business.Activator.getDefault().getJavaCDKManager();
+		LDAClient client = getClient();
+
+		Map<String, IAtomContainer> structures =
+				new LinkedHashMap<String, IAtomContainer>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, IAtomContainer> eldest) {
+				return size() > MAX_PARSED_STRUCTURES;
+			}
+		};
+		try {
+			int count = getTargetPharmacologyCount(client, targetURI);
+			int pages = (count + pageSize - 1) / pageSize;
+			monitor.beginTask("Retrieving pharmacology about targets from Open PHACTS", pages);
+			for (int page=1; page<=pages; page++) {
+				if (monitor.isCanceled()) return;
+				monitor.subTask("Retrieving page " + page + " of " + pages);
+				String listTurtle = client.targetPharmacologyList(targetURI, page, pageSize);
+				ResultTable pharmaInfo = extract(listTurtle, LDAQueries.COMPOUND_PHARMA_BY_TARGET);
+				List<IMolecule> mols =
+					toPharmacologyMolecules(pharmaInfo, (page-1) * pageSize, structures, cdk);
+				for (IMolecule mol : mols) returner.partialReturn(mol);
+				monitor.worked(1);
+			}
+		} catch (Exception e) {
+			throw new BioclipseException("Error while contacting Open PHACTS: " + e.getMessage(), e);
+		} finally {
+			monitor.done();
+		}
+	}
+
+	/**
+	 * The molecule of a compound and the activities set on it so far.
+	 */
+	private static class PharmacologyCompound {
+		final ICDKMolecule molecule;
+		final Map<String, String> activities = new HashMap<String, String>();
+
+		PharmacologyCompound(ICDKMolecule molecule) {
+			this.molecule = molecule;
+		}
 
+		/**
+		 * Sets the activity as property. Activities of the compound in the
+		 * same assay are joined, so none is lost.
+		 */
+		synchronized void add(String propName, String report) {
+			String previous = activities.get(propName);
+			String value = previous == null ? report : previous + "; " + report;
+			activities.put(propName, value);
+			molecule.setProperty(propName, value);
+		}
+	}
+
+	/**
+	 * Turns the rows of a {@link LDAQueries#COMPOUND_PHARMA_BY_TARGET} result
+	 * into a molecule per compound, with the activities as properties.
+	 * Activities without an assay description are named after their
+	 * position, counting from <code>offset</code>.
+	 *
+	 * @param structures structures parsed before, by SMILES, which are
+	 *                   copied, and to which new ones are added
+	 */
+	private List<IMolecule> toPharmacologyMolecules(ResultTable pharmaInfo, int offset,
+			Map<String, IAtomContainer> structures, ICDKManager cdk) throws BioclipseException {
+		Map<String, PharmacologyCompound> compounds = new HashMap<String, PharmacologyCompound>();
 		List<IMolecule> mols = new ArrayList<IMolecule>();
-		Targets targets = null;
+		for (int actCounter=1;actCounter<=pharmaInfo.getRowCount();actCounter++) {
+			String smiles = pharmaInfo.get(actCounter, "smiles");
+			if (smiles == null) continue;
+			PharmacologyCompound compound = compounds.get(smiles);
+			if (compound == null) {
+				compound = new PharmacologyCompound(getStructure(smiles, structures, cdk));
+				compounds.put(smiles, compound);
+				mols.add(compound.molecule);
+			} else {
+				getMetrics().increment("smiles.reused");
+			}
+			addActivity(compound, pharmaInfo, actCounter, offset);
+		}
+		return mols;
+	}
+
+	/**
+	 * Returns a new molecule for the SMILES, with a copy of the structure
+	 * parsed before if there is one. The structures are kept without
+	 * properties, so the copies only get the properties set on them.
+	 */
+	private ICDKMolecule getStructure(String smiles, Map<String, IAtomContainer> structures,
+			ICDKManager cdk) throws BioclipseException {
 		try {
-			targets = Targets.getInstance(getOPSLDAendpoint(), APPID, APPKEY);
-		} catch (MalformedURLException e) {
-			throw new BioclipseException("Something went wrong: " + e.getMessage(), e);
+			IAtomContainer structure = structures.get(smiles);
+			if (structure != null) {
+				getMetrics().increment("smiles.reused");
+				return new CDKMolecule((IAtomContainer)structure.clone());
+			}
+			ICDKMolecule molecule = parseSmiles(cdk, smiles);
+			structures.put(smiles, (IAtomContainer)molecule.getAtomContainer().clone());
+			return molecule;
+		} catch (CloneNotSupportedException e) {
+			throw new BioclipseException("Could not copy the structure of " + smiles, e);
+		}
+	}
+
+	private void addActivity(PharmacologyCompound compound, ResultTable pharmaInfo, int actCounter,
+			int offset) {
+		String report = onlyIfNotNull("", pharmaInfo.get(actCounter, "published_type"), " ") +
+			onlyIfNotNull("", pharmaInfo.get(actCounter, "published_relation"), " ") +
+			onlyIfNotNull("", pharmaInfo.get(actCounter, "published_value"), " ") +
+			onlyIfNotNull("", pharmaInfo.get(actCounter, "published_unit"), " ") +
+			onlyIfNotNull("(pChembl=", pharmaInfo.get(actCounter, "pChembl"), ") ") +
+			onlyIfNotNull("Comment: ", pharmaInfo.get(actCounter, "act_comment"), "");
+		String propName = (
+			pharmaInfo.get(actCounter, "assay_description") != null ?
+				pharmaInfo.get(actCounter, "assay_description") :
+				"pharmacology"+(offset+actCounter)
+			);
+		logger.debug("Added compound pharma: " + report);
+		compound.add(propName, report);
+	}
+
+	/**
+	 * Groups row numbers by SMILES, in order of first appearance. Rows
+	 * without SMILES are left out.
+	 *
+	 * @param smiles the SMILES of each row
+	 * @param first  number of the first row
+	 */
+	private Map<String, List<Integer>> groupBySmiles(List<String> smiles, int first) {
+		Map<String, List<Integer>> groups = new LinkedHashMap<String, List<Integer>>();
+		for (int index=0; index<smiles.size(); index++) {
+			if (smiles.get(index) == null) continue;
+			List<Integer> rows = groups.get(smiles.get(index));
+			if (rows == null) {
+				rows = new ArrayList<Integer>();
+				groups.put(smiles.get(index), rows);
+			} else {
+				getMetrics().increment("smiles.reused");
+			}
+			rows.add(first + index);
 		}
+		return groups;
+	}
 
-		monitor.beginTask("Retrieving pharmacology about targets from Open PHACTS", 2);
+	/**
+	 * Retrieves one page of activities against the given target as a table,
+	 * without parsing any structures.
+	 */
+	public PharmacologyTable getPharmacologyTableForTarget(String targetURI, int page, int size,
+			IProgressMonitor monitor)
+	throws BioclipseException {
+		if (monitor == null) monitor = new NullProgressMonitor();
+
+		LDAClient client = getClient();
+		monitor.beginTask("Retrieving pharmacology about targets from Open PHACTS", 1);
 		try {
-			String listTurtle = targets.allPharmacology(targetURI);
-			System.out.println("listTurtle: " + listTurtle);
-			IRDFStore pharmaStore = rdf.createInMemoryStore();
-			rdf.importFromString(pharmaStore, listTurtle, "Turtle");
-			IStringMatrix pharmaInfo = rdf.sparql(pharmaStore, COMPOUND_PHARMA_BY_TARGET);
-			System.out.println("pharmaInfo: " + pharmaInfo);
+			String listTurtle = client.targetPharmacologyList(targetURI, page, size);
+			logPayload("Target pharmacology", listTurtle);
+			PharmacologyTable table = new PharmacologyTable();
+			addPharmacology(table, extract(listTurtle, LDAQueries.COMPOUND_PHARMA_BY_TARGET));
+			monitor.worked(1);
+			return table;
+		} catch (Exception e) {
+			throw new BioclipseException("Error while contacting Open PHACTS: " + e.getMessage(), e);
+		} finally {
+			monitor.done();
+		}
+	}
 
-			for (int actCounter=1;actCounter<=pharmaInfo.getRowCount();actCounter++) {
-				Map<String, String> props = new HashMap<String, String>();
-				ICDKMolecule cdkmol=null;
+	/**
+	 * Retrieves all activities against the given target as a table. The
+	 * pages are retrieved by the adaptive pager.
+	 */
+	public PharmacologyTable getAllPharmacologyTableForTarget(final String targetURI,
+			IProgressMonitor monitor)
+	throws BioclipseException {
+		if (monitor == null) monitor = new NullProgressMonitor();
 
-				String smiles = pharmaInfo.get(actCounter, "smiles");
-				if (smiles != null) {
-					cdkmol = cdk.fromSMILES(smiles);
-					String report = onlyIfNotNull("", pharmaInfo.get(actCounter, "published_type"), " ") +
-						onlyIfNotNull("", pharmaInfo.get(actCounter, "published_relation"), " ") +
-						onlyIfNotNull("", pharmaInfo.get(actCounter, "published_value"), " ") +
-						onlyIfNotNull("", pharmaInfo.get(actCounter, "published_unit"), " ") +
-						onlyIfNotNull("(pChembl=", pharmaInfo.get(actCounter, "pChembl"), ") ") +
-						onlyIfNotNull("Comment: ", pharmaInfo.get(actCounter, "act_comment"), "");
-					String propName = (
-						pharmaInfo.get(actCounter, "assay_description") != null ?
-							pharmaInfo.get(actCounter, "assay_description") :
-							"pharmacology"+actCounter
-						);
-					props.put(propName, report);
-					System.out.println("Added compound pharma: " + report);
-
-					for (String key : props.keySet())
-						cdkmol.setProperty(key, props.get(key));
-
-					mols.add(cdkmol);
+		final LDAClient client = getClient();
+		monitor.beginTask("Retrieving pharmacology about targets from Open PHACTS", IProgressMonitor.UNKNOWN);
+		try {
+			int count = getTargetPharmacologyCount(client, targetURI);
+			PharmacologyTable table = new PharmacologyTable();
+			if (count == 0) return table;
+			List<String> pages = getPager().fetchAll(new AdaptivePager.PageSource() {
+				public String fetch(int page, int size, LDAClient.NetworkTimer timer) throws IOException {
+					return client.targetPharmacologyList(targetURI, page, size, timer);
 				}
+			}, count);
+			for (String listTurtle : pages) {
+				if (monitor.isCanceled()) return null;
+				logPayload("Target pharmacology", listTurtle);
+				addPharmacology(table, extract(listTurtle, LDAQueries.COMPOUND_PHARMA_BY_TARGET));
 			}
+			return table;
 		} catch (Exception e) {
 			throw new BioclipseException("Error while contacting Open PHACTS: " + e.getMessage(), e);
+		} finally {
+			monitor.done();
 		}
+	}
 
-		return mols;
+	/**
+	 * Retrieves all activities of the given compound as a table. The table
+	 * has no SMILES and no RSC compound URIs.
+	 */
+	public PharmacologyTable getPharmacologyTableForCompound(final String compoundURI,
+			IProgressMonitor monitor)
+	throws BioclipseException {
+		if (monitor == null) monitor = new NullProgressMonitor();
+
+		final LDAClient client = getClient();
+		monitor.beginTask("Retrieving pharmacology about compounds from Open PHACTS", IProgressMonitor.UNKNOWN);
+		try {
+			int count = getCompoundPharmacologyCount(client, compoundURI);
+			PharmacologyTable table = new PharmacologyTable();
+			if (count == 0) return table;
+			List<String> pages = getPager().fetchAll(new AdaptivePager.PageSource() {
+				public String fetch(int page, int size, LDAClient.NetworkTimer timer) throws IOException {
+					return client.compoundPharmacologyList(compoundURI, page, size, timer);
+				}
+			}, count);
+			for (String listTurtle : pages) {
+				if (monitor.isCanceled()) return null;
+				logPayload("Compound pharmacology", listTurtle);
+				addPharmacology(table, extract(listTurtle, LDAQueries.COMPOUND_PHARMA));
+			}
+			return table;
+		} catch (Exception e) {
+			throw new BioclipseException("Error while contacting Open PHACTS: " + e.getMessage(), e);
+		} finally {
+			monitor.done();
+		}
+	}
+
+	/**
+	 * Returns the compounds of the table that have a structure as
+	 * molecules, with their activities as properties, like
+	 * {@link #getPharmacologyListForTarget(String, int, int, IProgressMonitor)}
+	 * does: values are shown as published, and activities without an assay
+	 * description are numbered by their position in the table as it was
+	 * retrieved, before any filtering or sorting. Compounds are in order of
+	 * their first row, so filtering and sorting the table first orders the
+	 * molecules too. A SMILES is only
+	 * parsed when its molecule is first asked for, so looking at the top
+	 * compounds only parses those.
+	 */
+	public List<IMolecule> getPharmacologyMolecules(final PharmacologyTable table) {
+		final ICDKManager cdk = net.bioclipse.cdk.business.Activator.getDefault().getJavaCDKManager();
+		List<String> smiles = new ArrayList<String>(table.size());
+		for (int row=0; row<table.size(); row++) smiles.add(table.getSmiles(row));
+		final List<List<Integer>> compounds =
+			new ArrayList<List<Integer>>(groupBySmiles(smiles, 0).values());
+		return new AbstractList<IMolecule>() {
+			private final IMolecule[] molecules = new IMolecule[compounds.size()];
+
+			@Override
+			public synchronized IMolecule get(int index) {
+				if (molecules[index] == null) {
+					List<Integer> rows = compounds.get(index);
+					try {
+						PharmacologyCompound compound = new PharmacologyCompound(
+							parseSmiles(cdk, table.getSmiles(rows.get(0))));
+						for (int row : rows) addActivity(compound, table, row);
+						molecules[index] = compound.molecule;
+					} catch (BioclipseException e) {
+						throw new IllegalStateException(
+							"Could not parse the SMILES of row " + rows.get(0) + ": " + e.getMessage(), e);
+					}
+				}
+				return molecules[index];
+			}
+
+			@Override
+			public int size() {
+				return molecules.length;
+			}
+		};
+	}
+
+	private void addActivity(PharmacologyCompound compound, PharmacologyTable table, int row) {
+		String report = onlyIfNotNull("", table.getPublishedType(row), " ") +
+			onlyIfNotNull("", table.getPublishedRelation(row), " ") +
+			onlyIfNotNull("", table.getPublishedValueText(row), " ") +
+			onlyIfNotNull("", table.getPublishedUnit(row), " ") +
+			onlyIfNotNull("(pChembl=", table.getPChemblText(row), ") ") +
+			onlyIfNotNull("Comment: ", table.getComment(row), "");
+		String propName = (
+			table.getAssayDescription(row) != null ?
+				table.getAssayDescription(row) :
+				"pharmacology"+(table.getPosition(row)+1)
+			);
+		compound.add(propName, report);
+	}
+
+	/**
+	 * Appends the rows of a {@link LDAQueries#COMPOUND_PHARMA_BY_TARGET} or
+	 * {@link LDAQueries#COMPOUND_PHARMA} result to the table.
+	 */
+	private void addPharmacology(PharmacologyTable table, ResultTable pharmaInfo) {
+		boolean byTarget = pharmaInfo.getColumnNames().contains("smiles");
+		for (int row=1; row<=pharmaInfo.getRowCount(); row++) {
+			table.addRow(
+				pharmaInfo.get(row, "chembl_compound_uri"),
+				byTarget ? pharmaInfo.get(row, "rsc_compound_uri") : null,
+				pharmaInfo.get(row, "assay_uri"),
+				pharmaInfo.get(row, "assay_description"),
+				pharmaInfo.get(row, "published_type"),
+				pharmaInfo.get(row, "published_relation"),
+				pharmaInfo.get(row, "published_value"),
+				pharmaInfo.get(row, "published_unit"),
+				pharmaInfo.get(row, "pChembl"),
+				pharmaInfo.get(row, "act_comment"),
+				byTarget ? pharmaInfo.get(row, "smiles") : null
+			);
+		}
 	}
 
 	/**
@@ -535,138 +1710,383 @@ public class OpenphactsManager implements IBioclipseManager {
 	 */
 	public List<IMolecule> getCompoundsInfo(List<Resource> collection, IProgressMonitor monitor) 
 			throws BioclipseException{
+		return getCompoundsInfo(collection, 1, monitor);
+	}
 
-		IRDFManager rdf = net.bioclipse.rdf.Activator.getDefault().getJavaManager();
-		ICDKManager cdk = net.bioclipse.cdk.business.Activator.getDefault().getJavaCDKManager();
+	/**
+	 * Look up compound information for a set of CWResults by CWID. The
+	 * lookups run in a pipeline of three stages: up to <code>threads</code>
+	 * compounds are fetched from Open PHACTS in parallel, while the responses
+	 * of earlier compounds are parsed and turned into molecules by their own
+	 * worker threads. Requests against a single host are further limited by
+	 * the per-host request budget. The returned molecules are in the same
+	 * order as the input.
+	 *
+	 * @param collection
+	 * @param threads maximum number of compounds fetched at the same time
+	 * @param monitor
+	 * @return List of molecules with properties set, or null when canceled
+	 * @throws BioclipseException
+	 */
+	public List<IMolecule> getCompoundsInfo(final List<Resource> collection, int threads,
+			IProgressMonitor monitor) throws BioclipseException {
+		if (monitor == null) monitor = new NullProgressMonitor();
+		if (threads < 1)
+			throw new BioclipseException("At least one thread must be used");
+
+		final ICDKManager cdk = net.bioclipse.cdk.business.Activator.getDefault().getJavaCDKManager();
+		final LDAClient client = getClient();
+		int cpus = Math.min(threads, Runtime.getRuntime().availableProcessors());
+
+		StagedPipeline pipeline = new StagedPipeline("getCompoundsInfo")
+			.stage("fetch", threads, 2 * threads, new StagedPipeline.Worker() {
+				public Object process(Object compound) throws Exception {
+					return fetchCompound(client, (Resource)compound);
+				}
+			})
+			.stage("parse", cpus, 2 * cpus, new StagedPipeline.Worker() {
+				public Object process(Object responses) throws Exception {
+					return parseCompound((String[])responses);
+				}
+			})
+			.stage("build", cpus, 2 * cpus, new StagedPipeline.Worker() {
+				@SuppressWarnings("unchecked")
+				public Object process(Object props) throws Exception {
+					return buildCompound(cdk, (Map<String, String>)props);
+				}
+			});
+
+		monitor.beginTask("Retrieving information about compounds from Open PHACTS", collection.size());
+		List<StagedPipeline.Result> results = runPipeline(pipeline, collection, monitor);
+		if (results == null) return null;
 
 		List<IMolecule> mols = new ArrayList<IMolecule>();
+		for (StagedPipeline.Result result : results) {
+			if (result.getError() != null) {
+				logger.warn("Could not retrieve info for compound " +
+					collection.get(result.getIndex()) + ": " +
+					result.getError().getMessage(), result.getError());
+			} else {
+				mols.add((IMolecule)result.getValue());
+			}
+		}
+		return mols;
+	}
 
-		Compounds compounds = null;
+	/**
+	 * Runs the inputs through the pipeline, reporting progress for every
+	 * collected result. The results are returned in input order, or null
+	 * if the monitor was canceled.
+	 */
+	private List<StagedPipeline.Result> runPipeline(StagedPipeline pipeline, List<?> inputs,
+			IProgressMonitor monitor) throws BioclipseException {
+		final List<StagedPipeline.Result> results = new ArrayList<StagedPipeline.Result>();
+		boolean completed = runPipeline(pipeline, inputs, monitor, new ResultHandler() {
+			public void handle(StagedPipeline.Result result) {
+				results.add(result);
+			}
+		});
+		if (!completed) return null;
+		Collections.sort(results);
+		return results;
+	}
+
+	/**
+	 * Receives the results of a pipeline in the order they are done, in the
+	 * thread that runs the pipeline.
+	 */
+	private interface ResultHandler {
+		void handle(StagedPipeline.Result result) throws BioclipseException;
+	}
+
+	/**
+	 * Runs the pipeline, passing every result to the handler as soon as it
+	 * is done.
+	 *
+	 * @return false if canceled
+	 */
+	private boolean runPipeline(StagedPipeline pipeline, List<?> inputs,
+			IProgressMonitor monitor, ResultHandler handler) throws BioclipseException {
+		int processed = 0;
+		pipelines.put(pipeline.getName(), pipeline);
+		pipeline.start(inputs);
 		try {
-			compounds = Compounds.getInstance(getOPSLDAendpoint(), APPID, APPKEY);
-		} catch (Exception e) {
-			throw new BioclipseException("Something went wrong: " + e.getMessage(), e);
+			while (!pipeline.isDone()) {
+				if (monitor.isCanceled())
+					return false;
+				StagedPipeline.Result result = pipeline.poll(100, TimeUnit.MILLISECONDS);
+				if (result == null) continue;
+				handler.handle(result);
+				processed++;
+				monitor.subTask("Processed " + processed + " items");
+				monitor.worked(1);
+			}
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw new BioclipseException("Interrupted while contacting Open PHACTS", exception);
+		} finally {
+			pipeline.shutdown();
 		}
+		return true;
+	}
 
-		int i=0;
-		monitor.beginTask("Retrieving information about compounds from Open PHACTS", collection.size()*2);
-		for (Resource compound : collection){
-			i++;
-			//Concatenate into URL and look up in OPS
-			String cwikiCompound = compound.getURI();
-
-			//Look up compound info
-			//======================
-			logger.debug("Looking up info for compound: " + compound);
-			monitor.subTask("Looking up compound info for compound (" + i + "/" + 
-					collection.size() + "): " + compound.getName());
-			monitor.worked(1);
-			if (monitor.isCanceled())
-				return null;
+	/**
+	 * Returns the queue depth and throughput of the stages of the most
+	 * recently started pipeline of every operation.
+	 */
+	public List<StageStatistics> getPipelineStatistics() {
+		List<StagedPipeline> latest;
+		synchronized (pipelines) {
+			latest = new ArrayList<StagedPipeline>(pipelines.values());
+		}
+		List<StageStatistics> statistics = new ArrayList<StageStatistics>();
+		for (StagedPipeline pipeline : latest)
+			statistics.addAll(pipeline.getStatistics());
+		return statistics;
+	}
 
-			try {
-				// List<LDAInfo> compoundInfo=OPSLDAJava.GetCompoundInfo();
-				String turtle = compounds.info(cwikiCompound,getOPSLDAendpoint());
-				System.out.println("Turtle: " + turtle);
+	/**
+	 * Returns the queue depth and throughput of the stages of the most
+	 * recently started pipeline of the given operation, like
+	 * "getCompoundsInfo", or an empty list if it has not run.
+	 */
+	public List<StageStatistics> getPipelineStatistics(String operation) {
+		StagedPipeline pipeline = pipelines.get(operation);
+		if (pipeline == null) return new ArrayList<StageStatistics>();
+		return pipeline.getStatistics();
+	}
 
-				//First we
-				Map<String, String> props = new HashMap<String, String>();
-				ICDKMolecule cdkmol=null;
+	/**
+	 * Fetch stage of {@link #getCompoundsInfo(List, int, IProgressMonitor)}:
+	 * retrieves the info Turtle for a single compound, followed by the pages
+	 * of its pharmacology.
+	 */
+	private String[] fetchCompound(final LDAClient client, Resource compound) throws Exception {
+		//Concatenate into URL and look up in OPS
+		final String cwikiCompound = compound.getURI();
+
+		//Look up compound info
+		//======================
+		logger.debug("Looking up info for compound: " + compound);
+		String turtle = client.compoundInfo(cwikiCompound);
+		logPayload("Compound info", turtle);
+
+//		Look up pharmacology info
+//		======================
+		logger.debug("Looking up pharmacology for compound: " + compound);
+		int count = getCompoundPharmacologyCount(client, cwikiCompound);
+		List<String> responses = new ArrayList<String>();
+		responses.add(turtle);
+		if (count > 0) {
+			responses.addAll(getPager().fetchAll(new AdaptivePager.PageSource() {
+				public String fetch(int page, int size, LDAClient.NetworkTimer timer) throws IOException {
+					return client.compoundPharmacologyList(cwikiCompound, page, size, timer);
+				}
+			}, count));
+		} else {
+			logger.debug("No pharma found for this compound");
+		}
+		return responses.toArray(new String[responses.size()]);
+	}
 
-				IRDFStore store = rdf.createInMemoryStore();
-				rdf.importFromString(store, turtle, "Turtle");
-				// process the results
-				IStringMatrix matches = rdf.sparql(store, COMPOUND_INFO);
-				System.out.println(matches);
-
-				//for (LDAInfo info : compoundInfo){
-				for (int compoundNo=1; compoundNo<=matches.getRowCount(); compoundNo++) {
-
-					//				props.put(info.field, info.value);
-					//				logger.debug("Added compound info:" + info.source +" - " + info.field + " - " + info.value);
-					String[] propNames = { // see SPARQL in COMPOUND_INFO
-						"logp", "hba", "hbd", "ro5Violations", "psa", "rtb", "molweight", "molformula"
-					};
-					for (String propName : propNames) {
-						String propVal = matches.get(compoundNo, propName);
-						props.put(propName, propVal);
-						System.out.println("Added compound info: " + propName + " - " + propVal);
-					}
+	/**
+	 * Parse stage of {@link #getCompoundsInfo(List, int, IProgressMonitor)}:
+	 * turns the Turtle into the molecule properties. The SMILES is stored
+	 * under the "smiles" key.
+	 */
+	private Map<String, String> parseCompound(String[] responses) throws Exception {
+		String turtle = responses[0];
 
-					//Treat the chemspider field SMILES as special
-					String smiles = matches.get(compoundNo, "smiles");
-					cdkmol = cdk.fromSMILES(smiles);
-				}
+		Map<String, String> props = new HashMap<String, String>();
 
-//				Look up pharmacology info
-//				======================
-				logger.debug("Looking up pharmacology for compound: " + compound);
-				monitor.subTask("Looking up compound info for compound (" + i + "/" + 
-						collection.size() + "): " + compound.getName());
-				monitor.worked(1);
-				if (monitor.isCanceled())
-					return null;
-				String countTurtle = compounds.pharmacologyCount(cwikiCompound);
-				System.out.println("Count turtle: " + countTurtle);
-				IRDFStore countStore = rdf.createInMemoryStore();
-				rdf.importFromString(countStore, countTurtle, "Turtle");
-				IStringMatrix countMatches = rdf.sparql(countStore, COMPOUND_PHARMA_COUNT);
-				System.out.println("Count matches: " + countMatches);
-				if (countMatches.getRowCount() > 0) {
-					int count = Integer.valueOf(countMatches.get(1, "count"));
-
-					if (count > 0) {
-						if (count > 100) {
-							logger.warn("Retrieving only the first 100 activities. Total found is: " + count);
-							count = 100;
-						}
-						String pharmaTurtle = compounds.pharmacologyList(cwikiCompound, 1, count);
-						System.out.println("Pharma turtle: " + pharmaTurtle);
-						IRDFStore pharmaStore = rdf.createInMemoryStore();
-						rdf.importFromString(pharmaStore, pharmaTurtle, "Turtle");
-						IStringMatrix pharmaInfo = rdf.sparql(pharmaStore, COMPOUND_PHARMA);
-						System.out.println("pharmaInfo: " + pharmaInfo);
-
-						//			List<Map<String,String>> pharm2 = OPSLDAJava.GetPharmacologyByCompound(cwikiCompound,getOPSLDAendpoint());
-						//			for(Map<String,String> pharmainfo : pharm2)
-						//			{
-						//				for(Entry<String,String> entry: pharmainfo.entrySet()){
-						//					props.put(entry.getKey(), entry.getValue());
-						//					logger.debug("Added Pharmacology Field: "+ entry.getKey() + " Value: "+entry.getValue());
-						for (int actCounter=1;actCounter<=pharmaInfo.getRowCount();actCounter++) {
-							String report = onlyIfNotNull("", pharmaInfo.get(actCounter, "published_type"), " ") +
-									onlyIfNotNull("", pharmaInfo.get(actCounter, "published_relation"), " ") +
-									onlyIfNotNull("", pharmaInfo.get(actCounter, "published_value"), " ") +
-									onlyIfNotNull("", pharmaInfo.get(actCounter, "published_unit"), " ") +
-									onlyIfNotNull("(pChembl=", pharmaInfo.get(actCounter, "pChembl"), ") ") +
-									onlyIfNotNull("Comment: ", pharmaInfo.get(actCounter, "act_comment"), "");
-							String propName = (
-								pharmaInfo.get(actCounter, "assay_description") != null ?
-									pharmaInfo.get(actCounter, "assay_description") :
-									"pharmacology"+actCounter
-							);
-							props.put(propName, report);
-							System.out.println("Added compound pharma: " + report);
-						}
-					} else {
-						logger.debug("No pharma found for this compound");
-					}
-				} else {
-					logger.debug("No proper pharma count found in Turtle: " + countTurtle);
-				}
+		ResultTable matches = extract(turtle, LDAQueries.COMPOUND_INFO);
 
-				for (String key : props.keySet())
-					cdkmol.setProperty(key, props.get(key));
+		for (int compoundNo=1; compoundNo<=matches.getRowCount(); compoundNo++) {
+			String[] propNames = { // see SPARQL in COMPOUND_INFO
+				"logp", "hba", "hbd", "ro5Violations", "psa", "rtb", "molweight", "molformula"
+			};
+			for (String propName : propNames) {
+				String propVal = matches.get(compoundNo, propName);
+				props.put(propName, propVal);
+				logger.debug("Added compound info: " + propName + " - " + propVal);
+			}
+
+			//Treat the chemspider field SMILES as special
+			props.put("smiles", matches.get(compoundNo, "smiles"));
+		}
+
+		int offset = 0;
+		for (int page=1; page<responses.length; page++) {
+			ResultTable pharmaInfo = extract(responses[page], LDAQueries.COMPOUND_PHARMA);
+
+			for (int actCounter=1;actCounter<=pharmaInfo.getRowCount();actCounter++) {
+				String report = onlyIfNotNull("", pharmaInfo.get(actCounter, "published_type"), " ") +
+						onlyIfNotNull("", pharmaInfo.get(actCounter, "published_relation"), " ") +
+						onlyIfNotNull("", pharmaInfo.get(actCounter, "published_value"), " ") +
+						onlyIfNotNull("", pharmaInfo.get(actCounter, "published_unit"), " ") +
+						onlyIfNotNull("(pChembl=", pharmaInfo.get(actCounter, "pChembl"), ") ") +
+						onlyIfNotNull("Comment: ", pharmaInfo.get(actCounter, "act_comment"), "");
+				String propName = (
+					pharmaInfo.get(actCounter, "assay_description") != null ?
+						pharmaInfo.get(actCounter, "assay_description") :
+						"pharmacology"+(offset+actCounter)
+				);
+				props.put(propName, report);
+				logger.debug("Added compound pharma: " + report);
+			}
+			offset += pharmaInfo.getRowCount();
+		}
+		return props;
+	}
 
-				mols.add(cdkmol);
-			} catch (Exception exception) {
-				exception.printStackTrace();
+	/**
+	 * Build stage of {@link #getCompoundsInfo(List, int, IProgressMonitor)}:
+	 * parses the SMILES and sets the properties on the molecule.
+	 */
+	private ICDKMolecule buildCompound(ICDKManager cdk, Map<String, String> props)
+	throws BioclipseException {
+		String smiles = props.remove("smiles");
+		if (smiles == null)
+			throw new BioclipseException("No structure found for the compound");
+		ICDKMolecule cdkmol = parseSmiles(cdk, smiles);
+		for (String key : props.keySet())
+			cdkmol.setProperty(key, props.get(key));
+		return cdkmol;
+	}
+
+	/**
+	 * Asynchronous variant of {@link #lookUpCompounds(String, IProgressMonitor)}.
+	 */
+	public CallbackFuture<List<Resource>> lookUpCompoundsAsync(final String query,
+			IProgressMonitor monitor) {
+		return submit(monitor, new MonitoredCall<List<Resource>>() {
+			public List<Resource> call(IProgressMonitor monitor) throws BioclipseException {
+				return lookUpCompounds(query, monitor);
 			}
+		});
+	}
 
+	/**
+	 * Asynchronous variant of {@link #lookUpProteins(String, IProgressMonitor)}.
+	 */
+	public CallbackFuture<List<Resource>> lookUpProteinsAsync(final String query,
+			IProgressMonitor monitor) {
+		return submit(monitor, new MonitoredCall<List<Resource>>() {
+			public List<Resource> call(IProgressMonitor monitor) throws BioclipseException {
+				return lookUpProteins(query, monitor);
+			}
+		});
+	}
+
+	/**
+	 * Asynchronous variant of {@link #getCompoundsInfo(List, IProgressMonitor)}.
+	 */
+	public CallbackFuture<List<IMolecule>> getCompoundsInfoAsync(final List<Resource> collection,
+			IProgressMonitor monitor) {
+		return submit(monitor, new MonitoredCall<List<IMolecule>>() {
+			public List<IMolecule> call(IProgressMonitor monitor) throws BioclipseException {
+				return getCompoundsInfo(collection, monitor);
+			}
+		});
+	}
+
+	/**
+	 * Asynchronous variant of {@link #getProteinsInfo(List, IProgressMonitor)}.
+	 */
+	public CallbackFuture<List<String>> getProteinsInfoAsync(final List<Resource> collection,
+			IProgressMonitor monitor) {
+		return submit(monitor, new MonitoredCall<List<String>>() {
+			public List<String> call(IProgressMonitor monitor) throws BioclipseException {
+				return getProteinsInfo(collection, monitor);
+			}
+		});
+	}
+
+	/**
+	 * Asynchronous variant of {@link #mapURI(String, IProgressMonitor)}.
+	 */
+	public CallbackFuture<List<String>> mapURIAsync(final String URI, IProgressMonitor monitor) {
+		return submit(monitor, new MonitoredCall<List<String>>() {
+			public List<String> call(IProgressMonitor monitor) throws BioclipseException {
+				return mapURI(URI, monitor);
+			}
+		});
+	}
+
+	/**
+	 * Asynchronous variant of {@link #getURI(IMolecule, IProgressMonitor)}.
+	 */
+	public CallbackFuture<String> getURIAsync(final IMolecule molecule, IProgressMonitor monitor) {
+		return submit(monitor, new MonitoredCall<String>() {
+			public String call(IProgressMonitor monitor) throws BioclipseException {
+				return getURI(molecule, monitor);
+			}
+		});
+	}
+
+	/**
+	 * A call that reports to, and checks for cancellation with, the given
+	 * monitor.
+	 */
+	private interface MonitoredCall<T> {
+		T call(IProgressMonitor monitor) throws BioclipseException;
+	}
+
+	/**
+	 * Runs the call on the asynchronous executor, reporting its progress to
+	 * the given monitor. Canceling the returned future, or the given
+	 * monitor, cancels the monitor the call sees.
+	 */
+	private <T> CallbackFuture<T> submit(IProgressMonitor parent, final MonitoredCall<T> call) {
+		final TaskMonitor monitor = new TaskMonitor(parent);
+		CallbackFuture<T> future = new CallbackFuture<T>(new Callable<T>() {
+			public T call() throws BioclipseException {
+				return call.call(monitor);
+			}
+		});
+		monitor.future = future;
+		getAsyncExecutor().execute(future);
+		return future;
+	}
+
+	private synchronized ExecutorService getAsyncExecutor() {
+		if (asyncExecutor == null)
+			asyncExecutor = Executors.newFixedThreadPool(ASYNC_THREADS, new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "Open PHACTS async " + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		return asyncExecutor;
+	}
+
+	/**
+	 * The monitor of an asynchronous call, which reports progress to the
+	 * monitor of the caller, and is canceled along with its future or with
+	 * the monitor of the caller. Canceling it does not cancel the monitor of
+	 * the caller.
+	 */
+	private static class TaskMonitor extends ProgressMonitorWrapper {
+
+		private volatile boolean canceled;
+		private volatile Future<?> future;
+
+		TaskMonitor(IProgressMonitor parent) {
+			super(parent == null ? new NullProgressMonitor() : parent);
 		}
 
-		return mols;
+		@Override
+		public boolean isCanceled() {
+			return canceled || super.isCanceled() ||
+				(future != null && future.isCancelled());
+		}
 
+		@Override
+		public void setCanceled(boolean canceled) {
+			this.canceled = canceled;
+		}
 	}
 
 	private String onlyIfNotNull(String prefix, String string, String suffix) {
@@ -0,0 +1,201 @@
+/*******************************************************************************
+ * Copyright (c) 2012  Ola Spjuth <ola.spjuth@gmail.com>
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contact: http://www.bioclipse.net/
+ ******************************************************************************/
+package net.bioclipse.openphacts.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Retrieves all pages of a paged LDA call, several pages at a time. The page
+ * size adapts to the responses seen so far: it doubles while pages come back
+ * fast and small, and halves when they are slow or large, or when a page
+ * times out. Page sizes are powers of two, and a new size is only used from
+ * an offset it divides, so pages of different sizes never overlap.
+ *
+ * <p>The latency of a page is the time it took on the network, as reported
+ * to the {@link LDAClient.NetworkTimer} the source gets. Waiting for a turn
+ * at the server, or for a retry, tells nothing about the page size the
+ * server copes with. Pages the source answers without a network call only
+ * count with their length.
+ *
+ * @author ola
+ */
+public class AdaptivePager {
+
+	private static final Logger logger = Logger.getLogger(AdaptivePager.class);
+
+	/**
+	 * A paged call; pages are numbered from 1.
+	 */
+	public interface PageSource {
+		/**
+		 * @param timer to pass on to the {@link LDAClient} call
+		 */
+		String fetch(int page, int size, LDAClient.NetworkTimer timer) throws IOException;
+	}
+
+	private final int minSize;
+	private final int maxSize;
+	private final long targetLatency;
+	private final int targetLength;
+	private final ExecutorService executor;
+	private volatile int concurrency;
+	private int pageSize;
+
+	/**
+	 * @param minSize       smallest page size, a power of two
+	 * @param maxSize       largest page size, a power of two
+	 * @param targetLatency time a page should take, in milliseconds
+	 * @param targetLength  number of characters a page should have at most
+	 * @param concurrency   number of pages retrieved at the same time
+	 */
+	public AdaptivePager(int minSize, int maxSize, long targetLatency, int targetLength,
+			int concurrency) {
+		if (Integer.bitCount(minSize) != 1 || Integer.bitCount(maxSize) != 1 || minSize > maxSize)
+			throw new IllegalArgumentException("Page sizes must be powers of two");
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.targetLatency = targetLatency;
+		this.targetLength = targetLength;
+		this.pageSize = minSize;
+		setConcurrency(concurrency);
+		this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "Open PHACTS page fetcher");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	public void setConcurrency(int concurrency) {
+		if (concurrency < 1)
+			throw new IllegalArgumentException("At least one page must be retrieved at a time");
+		this.concurrency = concurrency;
+	}
+
+	public synchronized int getPageSize() {
+		return pageSize;
+	}
+
+	/**
+	 * Retrieves the pages holding the first <code>count</code> items, in
+	 * order.
+	 */
+	public List<String> fetchAll(final PageSource source, int count) throws IOException {
+		List<String> pages = new ArrayList<String>();
+		int offset = 0;
+		while (offset < count) {
+			int size = getPageSize(offset);
+			int pageCount = Math.min(concurrency, (count - offset + size - 1) / size);
+			// pages up to the next offset the current size divides, or the
+			// offset could keep missing it
+			int current = getPageSize();
+			if (size < current) pageCount = Math.min(pageCount, (current - offset % current) / size);
+			List<Future<String>> futures = new ArrayList<Future<String>>();
+			for (int i=0; i<pageCount; i++) {
+				final int page = offset / size + 1 + i;
+				final int pageSize = size;
+				futures.add(executor.submit(new Callable<String>() {
+					public String call() throws IOException {
+						final AtomicLong latency = new AtomicLong(-1);
+						String response = source.fetch(page, pageSize, new LDAClient.NetworkTimer() {
+							public void record(long nanos) {
+								// a hedged page may be answered twice
+								latency.compareAndSet(-1, TimeUnit.NANOSECONDS.toMillis(nanos));
+							}
+						});
+						observe(pageSize, latency.get(), response.length());
+						return response;
+					}
+				}));
+			}
+			try {
+				// pages before the one that timed out are kept, in order
+				for (Future<String> future : futures) {
+					pages.add(get(future));
+					offset += size;
+				}
+			} catch (SocketTimeoutException exception) {
+				if (size == minSize) throw exception;
+				logger.debug("Page of " + size + " timed out, retrying the rest with smaller pages");
+				shrink(size);
+			} finally {
+				for (Future<String> future : futures)
+					future.cancel(true);
+			}
+		}
+		return pages;
+	}
+
+	/**
+	 * Stops the threads retrieving pages.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	private String get(Future<String> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while retrieving pages");
+		} catch (ExecutionException exception) {
+			Throwable cause = exception.getCause();
+			if (cause instanceof IOException) throw (IOException)cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+			throw new IOException(cause.getMessage(), cause);
+		}
+	}
+
+	/**
+	 * Returns the current page size, or the largest smaller one that divides
+	 * the offset.
+	 */
+	private synchronized int getPageSize(int offset) {
+		int size = pageSize;
+		while (offset % size != 0) size /= 2;
+		return size;
+	}
+
+	/**
+	 * @param latency the time the page took on the network in milliseconds,
+	 *                or -1 if it did not go over the network
+	 */
+	private synchronized void observe(int size, long latency, int length) {
+		if (size != pageSize) return; // measured with an outdated size
+		if (latency > targetLatency || length > targetLength) {
+			shrink(size);
+		} else if (latency >= 0 && latency < targetLatency / 2 && length < targetLength / 2 &&
+				pageSize < maxSize) {
+			pageSize *= 2;
+		}
+	}
+
+	private synchronized void shrink(int size) {
+		if (size <= pageSize && pageSize > minSize) pageSize = Math.max(minSize, size / 2);
+	}
+
+}
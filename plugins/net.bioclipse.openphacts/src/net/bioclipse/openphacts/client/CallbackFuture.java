@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright (c) 2012  Ola Spjuth <ola.spjuth@gmail.com>
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contact: http://www.bioclipse.net/
+ ******************************************************************************/
+package net.bioclipse.openphacts.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A {@link FutureTask} that also tells callbacks when it is done, so that
+ * callers do not need to keep a thread blocked in {@link #get()} for every
+ * outstanding call.
+ *
+ * @author ola
+ */
+public class CallbackFuture<T> extends FutureTask<T> {
+
+	private static final Logger logger = Logger.getLogger(CallbackFuture.class);
+
+	/**
+	 * Receives the outcome of a call. Runs in the thread that completed the
+	 * call, or in the thread adding the callback if it was already done.
+	 */
+	public interface Callback<T> {
+		void onSuccess(T result);
+		/**
+		 * @param error the exception thrown by the call, or a
+		 *              {@link CancellationException} if it was canceled
+		 */
+		void onFailure(Throwable error);
+	}
+
+	private final List<Callback<? super T>> callbacks = new ArrayList<Callback<? super T>>();
+	private boolean done;
+
+	public CallbackFuture(Callable<T> callable) {
+		super(callable);
+	}
+
+	/**
+	 * Adds a callback, which is called right away if the call is done.
+	 *
+	 * @return this future
+	 */
+	public CallbackFuture<T> addCallback(Callback<? super T> callback) {
+		synchronized (callbacks) {
+			if (!done) {
+				callbacks.add(callback);
+				return this;
+			}
+		}
+		notify(callback);
+		return this;
+	}
+
+	@Override
+	protected void done() {
+		List<Callback<? super T>> pending;
+		synchronized (callbacks) {
+			done = true;
+			pending = new ArrayList<Callback<? super T>>(callbacks);
+			callbacks.clear();
+		}
+		for (Callback<? super T> callback : pending)
+			notify(callback);
+	}
+
+	private void notify(Callback<? super T> callback) {
+		T result;
+		try {
+			result = get();
+		} catch (CancellationException exception) {
+			failed(callback, exception);
+			return;
+		} catch (ExecutionException exception) {
+			failed(callback, exception.getCause());
+			return;
+		} catch (InterruptedException exception) {
+			// cannot happen, the call is done
+			Thread.currentThread().interrupt();
+			return;
+		}
+		try {
+			callback.onSuccess(result);
+		} catch (RuntimeException exception) {
+			logger.warn("Callback failed: " + exception.getMessage(), exception);
+		}
+	}
+
+	private void failed(Callback<? super T> callback, Throwable error) {
+		try {
+			callback.onFailure(error);
+		} catch (RuntimeException exception) {
+			logger.warn("Callback failed: " + exception.getMessage(), exception);
+		}
+	}
+
+}
@@ -0,0 +1,396 @@
+/*******************************************************************************
+ * Copyright (c) 2012  Ola Spjuth <ola.spjuth@gmail.com>
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contact: http://www.bioclipse.net/
+ ******************************************************************************/
+package net.bioclipse.openphacts.client;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+
+import net.bioclipse.openphacts.model.Resource;
+
+/**
+ * A local index of ConceptWiki concept names, so that names looked up
+ * before can be resolved without a round trip. Names are split into words,
+ * and a concept matches a query if every word of the query starts a word of
+ * its name. Query words of {@value #MIN_FUZZY_LENGTH} or more characters
+ * that start no word are also allowed to start a word with one typo.
+ * <p>
+ * The index also remembers the queries searched in ConceptWiki and the
+ * concepts ConceptWiki found for them, in its order, so that it can answer
+ * those queries as ConceptWiki did. For other queries it only knows part
+ * of the answer.
+ * <p>
+ * Concepts are kept in a tab separated file of type, UUID and name, one
+ * per line, which new concepts are appended to. Searched queries are kept
+ * in the same file, as lines of {@value #SEARCHED}, type, query and the
+ * number of concepts found, followed by the UUID and name of each.
+ *
+ * @author ola
+ */
+public class ConceptIndex {
+
+	private static final Logger logger = Logger.getLogger(ConceptIndex.class);
+	private static final int MIN_FUZZY_LENGTH = 4;
+	private static final String SEARCHED = "searched";
+
+	private static class Concept {
+		final String type;
+		final String uuid;
+		final String name;
+		final String normalized;
+		Concept(String type, String uuid, String name) {
+			this.type = type;
+			this.uuid = uuid;
+			this.name = name;
+			this.normalized = normalize(name);
+		}
+	}
+
+	private final File file;
+	// type + tab + UUID + tab + name -> concept
+	private final Map<String, Concept> concepts = new HashMap<String, Concept>();
+	// word -> concepts with that word in their name
+	private final TreeMap<String, Set<Concept>> words = new TreeMap<String, Set<Concept>>();
+	// type + tab + normalized query -> concepts ConceptWiki found for it
+	private final Map<String, List<Resource>> searched = new HashMap<String, List<Resource>>();
+
+	/**
+	 * @param file file the concepts are stored in, read if it exists
+	 */
+	public ConceptIndex(File file) {
+		this.file = file;
+		if (file.exists()) load();
+	}
+
+	private void load() {
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(
+				new InputStreamReader(new FileInputStream(file), "UTF-8")
+			);
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith(SEARCHED + "\t")) {
+					loadSearch(line.split("\t", -1));
+					continue;
+				}
+				String[] fields = line.split("\t", 3);
+				if (fields.length != 3) continue;
+				index(new Concept(fields[0], fields[1], fields[2]));
+			}
+		} catch (IOException exception) {
+			logger.warn("Could not read the concept index: " + exception.getMessage());
+		} finally {
+			IOUtils.closeQuietly(reader);
+		}
+	}
+
+	/**
+	 * Reads a searched query with its concepts. Lines without concepts,
+	 * written before the concepts were stored, are skipped: the index cannot
+	 * answer those queries as ConceptWiki did.
+	 */
+	private void loadSearch(String[] fields) {
+		if (fields.length < 4) return;
+		int count;
+		try {
+			count = Integer.parseInt(fields[3]);
+		} catch (NumberFormatException exception) {
+			return;
+		}
+		if (fields.length != 4 + 2 * count) return;
+		List<Resource> found = new ArrayList<Resource>();
+		for (int i=4; i<fields.length; i+=2) found.add(new Resource(fields[i+1], fields[i]));
+		searched.put(fields[1] + "\t" + fields[2], found);
+	}
+
+	/**
+	 * Adds concepts of the given type, storing those not in the index yet.
+	 *
+	 * @return the number of concepts added
+	 */
+	public synchronized int addAll(String type, Collection<Resource> resources) {
+		List<Concept> added = new ArrayList<Concept>();
+		for (Resource resource : resources) {
+			String name = clean(resource.getName());
+			String uuid = clean(uuid(resource));
+			if (name.length() == 0 || uuid.length() == 0) continue;
+			Concept concept = new Concept(type, uuid, name);
+			if (index(concept)) added.add(concept);
+		}
+		if (!added.isEmpty()) {
+			List<String> lines = new ArrayList<String>();
+			for (Concept concept : added)
+				lines.add(concept.type + "\t" + concept.uuid + "\t" + concept.name);
+			append(lines);
+		}
+		return added.size();
+	}
+
+	/**
+	 * Adds the concepts ConceptWiki found for the query, and remembers them
+	 * as the answer to the query.
+	 */
+	public synchronized void addSearch(String type, String query, Collection<Resource> resources) {
+		addAll(type, resources);
+		String normalized = clean(normalize(query));
+		if (normalized.length() == 0) return;
+		List<Resource> found = new ArrayList<Resource>();
+		StringBuilder concepts = new StringBuilder();
+		for (Resource resource : resources) {
+			String name = clean(resource.getName());
+			String uuid = clean(uuid(resource));
+			if (uuid.length() == 0) continue;
+			found.add(new Resource(name, uuid));
+			concepts.append('\t').append(uuid).append('\t').append(name);
+		}
+		searched.put(type + "\t" + normalized, found);
+		append(Collections.singletonList(
+			SEARCHED + "\t" + type + "\t" + normalized + "\t" + found.size() + concepts
+		));
+	}
+
+	/**
+	 * Returns the concepts ConceptWiki found when the query was searched,
+	 * in its order, or <code>null</code> if the query was not searched.
+	 */
+	public synchronized List<Resource> getSearch(String type, String query) {
+		List<Resource> found = searched.get(type + "\t" + clean(normalize(query)));
+		if (found == null) return null;
+		List<Resource> copy = new ArrayList<Resource>();
+		for (Resource resource : found) copy.add(new Resource(resource.getName(), uuid(resource)));
+		return copy;
+	}
+
+	/**
+	 * Adds the concepts in a tab separated file with a name and a UUID, or
+	 * a ConceptWiki URI, on every line.
+	 *
+	 * @return the number of concepts added
+	 */
+	public int importFile(String type, File concepts) throws IOException {
+		List<Resource> resources = new ArrayList<Resource>();
+		BufferedReader reader = new BufferedReader(
+			new InputStreamReader(new FileInputStream(concepts), "UTF-8")
+		);
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split("\t");
+				if (fields.length < 2) continue;
+				String uuid = fields[1].trim();
+				resources.add(new Resource(fields[0], uuid.substring(uuid.lastIndexOf('/') + 1)));
+			}
+		} finally {
+			IOUtils.closeQuietly(reader);
+		}
+		return addAll(type, resources);
+	}
+
+	/**
+	 * Returns the concepts of the given type matching the query, best
+	 * matches first: names equal to the query, then names starting with it,
+	 * then shorter names.
+	 *
+	 * @param limit maximum number of concepts to return
+	 */
+	public synchronized List<Resource> search(String type, String query, int limit) {
+		final String normalized = normalize(query);
+		Set<String> queryWords = split(normalized);
+		if (queryWords.isEmpty()) return Collections.emptyList();
+
+		// collect the concepts of the rarest query word, then check the others
+		Map<String, Boolean> fuzzy = new HashMap<String, Boolean>();
+		Collection<Set<Concept>> rarest = null;
+		int rarestCount = Integer.MAX_VALUE;
+		for (String word : queryWords) {
+			Collection<Set<Concept>> named = startingWith(word).values();
+			fuzzy.put(word, Boolean.FALSE);
+			if (named.isEmpty() && word.length() >= MIN_FUZZY_LENGTH) {
+				named = startingWithTypo(word);
+				fuzzy.put(word, Boolean.TRUE);
+			}
+			int count = 0;
+			for (Set<Concept> concepts : named) count += concepts.size();
+			if (count == 0) return Collections.emptyList();
+			if (count < rarestCount) {
+				rarest = named;
+				rarestCount = count;
+			}
+		}
+
+		Set<Concept> candidates = new HashSet<Concept>();
+		for (Set<Concept> named : rarest) candidates.addAll(named);
+		List<Concept> sorted = new ArrayList<Concept>();
+		for (Concept concept : candidates)
+			if (concept.type.equals(type) && matches(concept, fuzzy)) sorted.add(concept);
+		Collections.sort(sorted, new Comparator<Concept>() {
+			public int compare(Concept concept1, Concept concept2) {
+				int rank = rank(concept1) - rank(concept2);
+				if (rank != 0) return rank;
+				int length = concept1.name.length() - concept2.name.length();
+				return length != 0 ? length : concept1.name.compareTo(concept2.name);
+			}
+			private int rank(Concept concept) {
+				if (concept.normalized.equals(normalized)) return 0;
+				return concept.normalized.startsWith(normalized) ? 1 : 2;
+			}
+		});
+		List<Resource> results = new ArrayList<Resource>();
+		for (Concept concept : sorted.subList(0, Math.min(limit, sorted.size())))
+			results.add(new Resource(concept.name, concept.uuid));
+		return results;
+	}
+
+	public synchronized int size() {
+		return concepts.size();
+	}
+
+	/**
+	 * Removes all concepts, and the file they are stored in.
+	 */
+	public synchronized void clear() {
+		concepts.clear();
+		words.clear();
+		searched.clear();
+		if (file.exists() && !file.delete())
+			logger.warn("Could not delete the concept index: " + file);
+	}
+
+	private boolean index(Concept concept) {
+		String key = concept.type + "\t" + concept.uuid + "\t" + concept.name;
+		if (concepts.containsKey(key)) return false;
+		concepts.put(key, concept);
+		for (String word : split(concept.normalized)) {
+			Set<Concept> named = words.get(word);
+			if (named == null) {
+				named = new HashSet<Concept>();
+				words.put(word, named);
+			}
+			named.add(concept);
+		}
+		return true;
+	}
+
+	private void append(List<String> lines) {
+		File directory = file.getParentFile();
+		if (directory != null && !directory.exists()) directory.mkdirs();
+		Writer writer = null;
+		try {
+			writer = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8");
+			for (String line : lines) writer.write(line + "\n");
+		} catch (IOException exception) {
+			logger.warn("Could not store the concept index: " + exception.getMessage());
+		} finally {
+			IOUtils.closeQuietly(writer);
+		}
+	}
+
+	/**
+	 * Returns whether every query word starts a word of the concept name,
+	 * after one typo for the fuzzy ones.
+	 */
+	private static boolean matches(Concept concept, Map<String, Boolean> queryWords) {
+		Set<String> nameWords = split(concept.normalized);
+		for (Map.Entry<String, Boolean> queryWord : queryWords.entrySet()) {
+			boolean found = false;
+			for (String nameWord : nameWords) {
+				found = queryWord.getValue()
+					? nameWord.charAt(0) == queryWord.getKey().charAt(0)
+						&& prefixDistance(queryWord.getKey(), nameWord) <= 1
+					: nameWord.startsWith(queryWord.getKey());
+				if (found) break;
+			}
+			if (!found) return false;
+		}
+		return true;
+	}
+
+	private SortedMap<String, Set<Concept>> startingWith(String prefix) {
+		return words.subMap(prefix, prefix + Character.MAX_VALUE);
+	}
+
+	/**
+	 * Returns the concepts with a word that starts with the prefix after at
+	 * most one character is inserted, deleted or replaced. Only words with
+	 * the same first character are tried.
+	 */
+	private List<Set<Concept>> startingWithTypo(String prefix) {
+		List<Set<Concept>> matches = new ArrayList<Set<Concept>>();
+		for (Map.Entry<String, Set<Concept>> word : startingWith(prefix.substring(0, 1)).entrySet())
+			if (prefixDistance(prefix, word.getKey()) <= 1) matches.add(word.getValue());
+		return matches;
+	}
+
+	/**
+	 * Returns the smallest edit distance between the prefix and a start of
+	 * the word.
+	 */
+	private static int prefixDistance(String prefix, String word) {
+		int[] previous = new int[word.length() + 1];
+		int[] current = new int[word.length() + 1];
+		for (int j=0; j<=word.length(); j++) previous[j] = j;
+		for (int i=1; i<=prefix.length(); i++) {
+			current[0] = i;
+			for (int j=1; j<=word.length(); j++) {
+				int cost = prefix.charAt(i-1) == word.charAt(j-1) ? 0 : 1;
+				current[j] = Math.min(
+					Math.min(current[j-1] + 1, previous[j] + 1), previous[j-1] + cost
+				);
+			}
+			int[] swap = previous; previous = current; current = swap;
+		}
+		int distance = Integer.MAX_VALUE;
+		for (int j=0; j<=word.length(); j++) distance = Math.min(distance, previous[j]);
+		return distance;
+	}
+
+	private static Set<String> split(String text) {
+		Set<String> split = new LinkedHashSet<String>();
+		for (String word : text.split("[^\\p{L}\\p{N}]+"))
+			if (word.length() > 0) split.add(word);
+		return split;
+	}
+
+	private static String uuid(Resource resource) {
+		return resource.getURI().substring(resource.getURI().lastIndexOf('/') + 1);
+	}
+
+	private static String normalize(String text) {
+		return text.trim().toLowerCase(Locale.ENGLISH);
+	}
+
+	private static String clean(String text) {
+		return text == null ? "" : text.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ').trim();
+	}
+
+}
@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * Copyright (c) 2012  Ola Spjuth <ola.spjuth@gmail.com>
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contact: http://www.bioclipse.net/
+ ******************************************************************************/
+package net.bioclipse.openphacts.client;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.client.HttpClient;
+import org.apache.http.entity.BufferedHttpEntity;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+
+import com.github.egonw.ops4j.AbstractOPS4JClient;
+
+import net.bioclipse.openphacts.model.ConnectionPoolStatistics;
+
+/**
+ * One pooled, keep-alive HTTP client shared by all ops4j clients. Without
+ * it, every ops4j client creates its own single connection HttpClient, so
+ * every call pays for a new connection and TLS handshake.
+ *
+ * <p>ops4j only accepts an HttpClient for {@link com.github.egonw.ops4j.Concepts};
+ * the other clients get it through {@link #attach(AbstractOPS4JClient)}.
+ *
+ * @author ola
+ */
+public class ConnectionPool {
+
+	private static final long IDLE_CHECK_INTERVAL = 30 * 1000;
+
+	private final PoolingClientConnectionManager connections;
+	private final DefaultHttpClient httpClient;
+	private long lastIdleCheck = System.currentTimeMillis();
+	private volatile long keepAlive;
+	private volatile Metrics metrics;
+
+	/**
+	 * @param maxPerRoute    maximum number of connections to a single host
+	 * @param maxTotal       maximum number of connections overall
+	 * @param keepAlive      time an idle connection is kept open when the
+	 *                       server does not say, in milliseconds
+	 * @param connectTimeout in milliseconds, 0 for none
+	 * @param readTimeout    in milliseconds, 0 for none
+	 */
+	public ConnectionPool(int maxPerRoute, int maxTotal, long keepAlive,
+			int connectTimeout, int readTimeout) {
+		connections = new PoolingClientConnectionManager(SchemeRegistryFactory.createDefault());
+		connections.setDefaultMaxPerRoute(maxPerRoute);
+		connections.setMaxTotal(maxTotal);
+		this.keepAlive = keepAlive;
+
+		httpClient = new DefaultHttpClient(connections);
+		setTimeouts(connectTimeout, readTimeout);
+		httpClient.setKeepAliveStrategy(new DefaultConnectionKeepAliveStrategy() {
+			@Override
+			public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+				long duration = super.getKeepAliveDuration(response, context);
+				return duration < 0 ? ConnectionPool.this.keepAlive : duration;
+			}
+		});
+		httpClient.addResponseInterceptor(new HttpResponseInterceptor() {
+			public void process(HttpResponse response, HttpContext context)
+			throws HttpException, IOException {
+				// ops4j does not read the body of failed calls, which would
+				// keep their connections leased forever
+				int status = response.getStatusLine().getStatusCode();
+				Metrics metrics = ConnectionPool.this.metrics;
+				if (metrics != null) metrics.increment("http.status." + status);
+				HttpEntity entity = response.getEntity();
+				if (entity != null && status != 200)
+					response.setEntity(new BufferedHttpEntity(entity));
+			}
+		});
+	}
+
+	public HttpClient getHttpClient() {
+		closeIdleConnections();
+		return httpClient;
+	}
+
+	/**
+	 * Makes the given ops4j client use the pooled HttpClient.
+	 */
+	public <T extends AbstractOPS4JClient> T attach(T client) {
+		try {
+			HTTP_CLIENT_FIELD.set(client, getHttpClient());
+		} catch (IllegalAccessException exception) {
+			throw new IllegalStateException(exception);
+		}
+		return client;
+	}
+
+	public void setMaxPerRoute(int maxPerRoute) {
+		connections.setDefaultMaxPerRoute(maxPerRoute);
+	}
+
+	public void setMaxTotal(int maxTotal) {
+		connections.setMaxTotal(maxTotal);
+	}
+
+	public void setKeepAlive(long keepAlive) {
+		this.keepAlive = keepAlive;
+	}
+
+	/**
+	 * Counts the HTTP status codes of all responses in the given metrics.
+	 */
+	public void setMetrics(Metrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public void setTimeouts(int connectTimeout, int readTimeout) {
+		HttpParams params = httpClient.getParams();
+		HttpConnectionParams.setConnectionTimeout(params, connectTimeout);
+		HttpConnectionParams.setSoTimeout(params, readTimeout);
+	}
+
+	public ConnectionPoolStatistics getStatistics() {
+		PoolStats stats = connections.getTotalStats();
+		return new ConnectionPoolStatistics(
+			stats.getLeased(), stats.getPending(), stats.getAvailable(),
+			stats.getMax(), connections.getDefaultMaxPerRoute()
+		);
+	}
+
+	/**
+	 * Closes all connections.
+	 */
+	public void shutdown() {
+		connections.shutdown();
+	}
+
+	private void closeIdleConnections() {
+		synchronized (this) {
+			long now = System.currentTimeMillis();
+			if (now - lastIdleCheck < IDLE_CHECK_INTERVAL) return;
+			lastIdleCheck = now;
+		}
+		connections.closeExpiredConnections();
+		connections.closeIdleConnections(keepAlive, TimeUnit.MILLISECONDS);
+	}
+
+	private static final Field HTTP_CLIENT_FIELD;
+	static {
+		try {
+			HTTP_CLIENT_FIELD = AbstractOPS4JClient.class.getDeclaredField("httpClient");
+			HTTP_CLIENT_FIELD.setAccessible(true);
+		} catch (NoSuchFieldException exception) {
+			throw new ExceptionInInitializerError(exception);
+		}
+	}
+
+}
@@ -0,0 +1,265 @@
+/*******************************************************************************
+ * Copyright (c) 2012  Ola Spjuth <ola.spjuth@gmail.com>
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contact: http://www.bioclipse.net/
+ ******************************************************************************/
+package net.bioclipse.openphacts.client;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import net.bioclipse.openphacts.model.EndpointStatistics;
+
+/**
+ * Spreads requests over equivalent LDA endpoints, like the public instance
+ * and a mirror. Every request goes to the healthy endpoint with the lowest
+ * moving average latency, weighted by the number of requests it is already
+ * handling, so that a slow mirror gets less work instead of holding up a
+ * batch.
+ *
+ * <p>After a number of failures in a row an endpoint is taken out, and only
+ * used when no other endpoint is left. Health probes, plain HTTP requests
+ * against the endpoint, bring it back as soon as it answers again. The
+ * probes also let the latency of idle endpoints drift back towards that of
+ * the fastest one, so that an endpoint that was slow for a while gets
+ * another chance.
+ *
+ * <p>The first endpoint is the primary one: responses are cached under its
+ * name, whichever endpoint served them.
+ *
+ * @author ola
+ */
+public class EndpointRouter {
+
+	private static final Logger logger = Logger.getLogger(EndpointRouter.class);
+
+	private static final int MAX_FAILURES = 3;
+	// weight of the latest request in the moving average
+	private static final double LATENCY_WEIGHT = 0.2;
+	private static final int PROBE_TIMEOUT = 10000; // ms
+
+	private static class Endpoint {
+		final String url;
+		long requests;
+		long failures;
+		int failuresInARow;
+		int inFlight;
+		double latency; // ms, 0 until known
+		long lastUsed = System.nanoTime();
+
+		Endpoint(String url) {
+			this.url = url;
+		}
+
+		boolean isHealthy() {
+			return failuresInARow < MAX_FAILURES;
+		}
+
+		double getScore() {
+			return latency * (inFlight + 1);
+		}
+	}
+
+	private final List<Endpoint> endpoints = new ArrayList<Endpoint>();
+	private final List<String> urls;
+	private ScheduledExecutorService prober;
+
+	public EndpointRouter(List<String> urls) {
+		if (urls.isEmpty())
+			throw new IllegalArgumentException("At least one endpoint is needed");
+		for (String url : urls) endpoints.add(new Endpoint(url));
+		this.urls = Collections.unmodifiableList(new ArrayList<String>(urls));
+	}
+
+	public List<String> getEndpoints() {
+		return urls;
+	}
+
+	/**
+	 * Returns the endpoint responses are cached under.
+	 */
+	public String getPrimary() {
+		return urls.get(0);
+	}
+
+	/**
+	 * Picks the endpoint for the next request and counts it as in flight,
+	 * until {@link #succeeded(String, long)} or {@link #failed(String)} is
+	 * called for it.
+	 *
+	 * @param tried endpoints that already failed for this request; they are
+	 *              only picked again if nothing else is left
+	 */
+	public synchronized String choose(Collection<String> tried) {
+		Endpoint best = null;
+		for (Endpoint endpoint : endpoints) {
+			if (best == null || isBetter(endpoint, best, tried)) best = endpoint;
+		}
+		best.inFlight++;
+		best.lastUsed = System.nanoTime();
+		return best.url;
+	}
+
+	private static boolean isBetter(Endpoint endpoint, Endpoint best, Collection<String> tried) {
+		boolean fresh = !tried.contains(endpoint.url), bestFresh = !tried.contains(best.url);
+		if (fresh != bestFresh) return fresh;
+		if (endpoint.isHealthy() != best.isHealthy()) return endpoint.isHealthy();
+		if (!endpoint.isHealthy()) return endpoint.failuresInARow < best.failuresInARow;
+		return endpoint.getScore() < best.getScore();
+	}
+
+	/**
+	 * Returns whether another endpoint than the ones tried could take the
+	 * request.
+	 */
+	public synchronized boolean hasAlternative(Collection<String> tried) {
+		for (Endpoint endpoint : endpoints)
+			if (endpoint.isHealthy() && !tried.contains(endpoint.url)) return true;
+		return false;
+	}
+
+	/**
+	 * Records a request that was answered after the given time.
+	 */
+	public synchronized void succeeded(String url, long nanos) {
+		Endpoint endpoint = get(url);
+		if (endpoint == null) return;
+		endpoint.inFlight--;
+		endpoint.requests++;
+		endpoint.failuresInARow = 0;
+		double millis = nanos / 1000000.0;
+		endpoint.latency = endpoint.latency == 0 ? millis :
+			(1 - LATENCY_WEIGHT) * endpoint.latency + LATENCY_WEIGHT * millis;
+	}
+
+	/**
+	 * Records a request the endpoint could not answer, because it failed or
+	 * did not respond in time.
+	 */
+	public synchronized void failed(String url) {
+		Endpoint endpoint = get(url);
+		if (endpoint == null) return;
+		endpoint.inFlight--;
+		endpoint.requests++;
+		endpoint.failures++;
+		endpoint.failuresInARow++;
+		if (endpoint.failuresInARow == MAX_FAILURES && endpoints.size() > 1)
+			logger.warn("Not using " + url + " after " + MAX_FAILURES + " failures in a row");
+	}
+
+	/**
+	 * Records a request that ended without telling anything about the
+	 * endpoint, like one that was canceled or asked for something unknown.
+	 */
+	public synchronized void released(String url) {
+		Endpoint endpoint = get(url);
+		if (endpoint != null) endpoint.inFlight--;
+	}
+
+	public synchronized List<EndpointStatistics> getStatistics() {
+		List<EndpointStatistics> statistics = new ArrayList<EndpointStatistics>();
+		for (Endpoint endpoint : endpoints)
+			statistics.add(new EndpointStatistics(
+				endpoint.url, endpoint.isHealthy(), endpoint.requests, endpoint.failures,
+				endpoint.inFlight, endpoint.latency
+			));
+		return statistics;
+	}
+
+	/**
+	 * Starts probing the endpoints in the background, every given number of
+	 * milliseconds. Nothing is probed if there is only one endpoint.
+	 */
+	public synchronized void startProbes(final long interval) {
+		if (prober != null || endpoints.size() < 2) return;
+		prober = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "Open PHACTS endpoint probe");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		prober.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				probe(TimeUnit.MILLISECONDS.toNanos(interval));
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	public synchronized void shutdown() {
+		if (prober != null) prober.shutdownNow();
+		prober = null;
+	}
+
+	/**
+	 * Probes the endpoints that were taken out, and moves the latency of
+	 * endpoints that were idle for the interval halfway to that of the
+	 * fastest healthy one.
+	 */
+	void probe(long interval) {
+		List<String> unhealthy = new ArrayList<String>();
+		synchronized (this) {
+			double fastest = Double.MAX_VALUE;
+			for (Endpoint endpoint : endpoints)
+				if (endpoint.isHealthy() && endpoint.latency > 0)
+					fastest = Math.min(fastest, endpoint.latency);
+			long now = System.nanoTime();
+			for (Endpoint endpoint : endpoints) {
+				if (!endpoint.isHealthy()) unhealthy.add(endpoint.url);
+				else if (fastest != Double.MAX_VALUE && now - endpoint.lastUsed > interval)
+					endpoint.latency = (endpoint.latency + fastest) / 2;
+			}
+		}
+		for (String url : unhealthy) {
+			if (isAlive(url)) {
+				synchronized (this) {
+					get(url).failuresInARow = 0;
+				}
+				logger.info("Using " + url + " again");
+			}
+		}
+	}
+
+	/**
+	 * Returns whether the endpoint answers HTTP requests without a server
+	 * error.
+	 */
+	private static boolean isAlive(String url) {
+		HttpURLConnection connection = null;
+		try {
+			connection = (HttpURLConnection)new URL(url).openConnection();
+			connection.setConnectTimeout(PROBE_TIMEOUT);
+			connection.setReadTimeout(PROBE_TIMEOUT);
+			connection.setRequestMethod("HEAD");
+			return connection.getResponseCode() < 500;
+		} catch (IOException exception) {
+			logger.debug("Probe of " + url + " failed: " + exception.getMessage());
+			return false;
+		} finally {
+			if (connection != null) connection.disconnect();
+		}
+	}
+
+	private Endpoint get(String url) {
+		for (Endpoint endpoint : endpoints)
+			if (endpoint.url.equals(url)) return endpoint;
+		return null;
+	}
+
+}
@@ -0,0 +1,238 @@
+/*******************************************************************************
+ * Copyright (c) 2012  Ola Spjuth <ola.spjuth@gmail.com>
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contact: http://www.bioclipse.net/
+ ******************************************************************************/
+package net.bioclipse.openphacts.client;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the number of requests that can be outstanding against a single
+ * host at the same time, and optionally the number of requests started per
+ * second, so that parallel batch calls do not flood the Open PHACTS servers.
+ *
+ * <p>The rate is a token bucket per host, which allows a burst of up to one
+ * second worth of requests. When the host says it gets too many requests,
+ * see {@link #throttled(String)}, the rate for that host is halved, and it
+ * then grows back with every successful request.
+ *
+ * @author ola
+ */
+public class HostRequestBudget {
+
+	// lowest rate after repeated throttling, as a fraction of the maximum
+	private static final double MIN_RATE_FRACTION = 1.0 / 64;
+	// rate regained per successful request, as a fraction of the maximum
+	private static final double RATE_STEP_FRACTION = 1.0 / 50;
+
+	private static class TokenBucket {
+		final double maxRate;
+		double rate;
+		double tokens;
+		long last = System.nanoTime();
+
+		TokenBucket(double maxRate) {
+			this.maxRate = maxRate;
+			this.rate = maxRate;
+			this.tokens = maxRate;
+		}
+
+		/**
+		 * Takes a token, and returns how long to wait for it in nanoseconds.
+		 */
+		synchronized long reserve() {
+			long now = System.nanoTime();
+			tokens = Math.min(Math.max(rate, 1), tokens + (now - last) * rate / 1e9);
+			last = now;
+			tokens -= 1;
+			return tokens >= 0 ? 0 : (long)(-tokens / rate * 1e9);
+		}
+
+		/**
+		 * Takes a token if one is there without waiting.
+		 */
+		synchronized boolean tryReserve() {
+			long now = System.nanoTime();
+			tokens = Math.min(Math.max(rate, 1), tokens + (now - last) * rate / 1e9);
+			last = now;
+			if (tokens < 1) return false;
+			tokens -= 1;
+			return true;
+		}
+
+		synchronized void throttled() {
+			rate = Math.max(maxRate * MIN_RATE_FRACTION, rate / 2);
+		}
+
+		synchronized void succeeded() {
+			if (rate < maxRate)
+				rate = Math.min(maxRate, rate + maxRate * RATE_STEP_FRACTION);
+		}
+	}
+
+	/**
+	 * The permits of a host, which can be taken away while they are held.
+	 */
+	private static class HostPermits extends Semaphore {
+		private static final long serialVersionUID = 1L;
+
+		HostPermits(int permits) {
+			super(permits, true);
+		}
+
+		@Override
+		protected void reducePermits(int reduction) {
+			super.reducePermits(reduction);
+		}
+	}
+
+	private final Map<String, HostPermits> permits = new HashMap<String, HostPermits>();
+	private final Map<String, TokenBucket> buckets = new HashMap<String, TokenBucket>();
+	private int maxPerHost;
+	private double maxPerSecond;
+
+	/**
+	 * Creates a budget without a rate limit.
+	 */
+	public HostRequestBudget(int maxPerHost) {
+		this(maxPerHost, 0);
+	}
+
+	/**
+	 * @param maxPerSecond maximum number of requests started per second
+	 *                     against a single host, or 0 for no limit
+	 */
+	public HostRequestBudget(int maxPerHost, double maxPerSecond) {
+		setMaxPerHost(maxPerHost);
+		setMaxPerSecond(maxPerSecond);
+	}
+
+	/**
+	 * Changes the number of simultaneous requests allowed per host. Requests
+	 * that already hold a permit are not affected; when the number is
+	 * lowered, new requests wait until enough of them are done.
+	 */
+	public synchronized void setMaxPerHost(int maxPerHost) {
+		if (maxPerHost < 1)
+			throw new IllegalArgumentException("At least one request per host must be allowed");
+		int change = maxPerHost - this.maxPerHost;
+		this.maxPerHost = maxPerHost;
+		for (HostPermits permit : permits.values()) {
+			if (change > 0) permit.release(change);
+			else if (change < 0) permit.reducePermits(-change);
+		}
+	}
+
+	public synchronized int getMaxPerHost() {
+		return maxPerHost;
+	}
+
+	/**
+	 * Changes the number of requests per second allowed per host, or
+	 * removes the limit if 0. This also forgets any throttling so far.
+	 */
+	public synchronized void setMaxPerSecond(double maxPerSecond) {
+		if (maxPerSecond < 0)
+			throw new IllegalArgumentException("The rate cannot be negative");
+		this.maxPerSecond = maxPerSecond;
+		buckets.clear();
+	}
+
+	public synchronized double getMaxPerSecond() {
+		return maxPerSecond;
+	}
+
+	/**
+	 * Blocks until a request against the host of the given URL is allowed.
+	 *
+	 * @return the permit, which must be released when the request is done
+	 */
+	public Semaphore acquire(String url) throws InterruptedException {
+		String host = getHost(url);
+		Semaphore permit = getPermits(host);
+		permit.acquire();
+		TokenBucket bucket = getBucket(host);
+		if (bucket != null) {
+			try {
+				TimeUnit.NANOSECONDS.sleep(bucket.reserve());
+			} catch (InterruptedException exception) {
+				permit.release();
+				throw exception;
+			}
+		}
+		return permit;
+	}
+
+	/**
+	 * Like {@link #acquire(String)}, but returns null instead of waiting
+	 * when the host has no permit or, with a rate limit, no token left.
+	 */
+	public Semaphore tryAcquire(String url) {
+		String host = getHost(url);
+		Semaphore permit = getPermits(host);
+		if (!permit.tryAcquire()) return null;
+		TokenBucket bucket = getBucket(host);
+		if (bucket != null && !bucket.tryReserve()) {
+			permit.release();
+			return null;
+		}
+		return permit;
+	}
+
+	/**
+	 * Tells that the host of the given URL refused a request because it got
+	 * too many, which slows down the requests against it.
+	 */
+	public void throttled(String url) {
+		TokenBucket bucket = getBucket(getHost(url));
+		if (bucket != null) bucket.throttled();
+	}
+
+	/**
+	 * Tells that a request against the host of the given URL succeeded,
+	 * which speeds up the requests against it again after throttling.
+	 */
+	public void succeeded(String url) {
+		TokenBucket bucket = getBucket(getHost(url));
+		if (bucket != null) bucket.succeeded();
+	}
+
+	private synchronized TokenBucket getBucket(String host) {
+		if (maxPerSecond == 0) return null;
+		TokenBucket bucket = buckets.get(host);
+		if (bucket == null) {
+			bucket = new TokenBucket(maxPerSecond);
+			buckets.put(host, bucket);
+		}
+		return bucket;
+	}
+
+	private synchronized Semaphore getPermits(String host) {
+		HostPermits permit = permits.get(host);
+		if (permit == null) {
+			permit = new HostPermits(maxPerHost);
+			permits.put(host, permit);
+		}
+		return permit;
+	}
+
+	static String getHost(String url) {
+		try {
+			return new URL(url).getHost();
+		} catch (MalformedURLException e) {
+			return url;
+		}
+	}
+
+}
@@ -0,0 +1,468 @@
+/*******************************************************************************
+ * Copyright (c) 2012  Ola Spjuth <ola.spjuth@gmail.com>
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contact: http://www.bioclipse.net/
+ ******************************************************************************/
+package net.bioclipse.openphacts.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+
+import org.apache.http.HttpException;
+import org.apache.log4j.Logger;
+
+import com.github.egonw.ops4j.AbstractOPS4JClient;
+import com.github.egonw.ops4j.Compounds;
+import com.github.egonw.ops4j.ConceptType;
+import com.github.egonw.ops4j.Concepts;
+import com.github.egonw.ops4j.Mapping;
+import com.github.egonw.ops4j.ResponseFormat;
+import com.github.egonw.ops4j.Server;
+import com.github.egonw.ops4j.Structures;
+import com.github.egonw.ops4j.Targets;
+
+/**
+ * Single entry point for all calls against an Open PHACTS LDA endpoint. Every
+ * call goes through {@link #execute(Request)}, which answers from the
+ * {@link ResponseCache} when possible and otherwise runs the ops4j call
+ * within the {@link HostRequestBudget} of the endpoint, trying again after
+ * transient failures as the {@link RetryPolicy} allows. Identical requests
+ * that are made at the same time share a single call, see
+ * {@link RequestCoalescer}.
+ *
+ * <p>When mirrors of the endpoint are known, the {@link EndpointRouter}
+ * decides which endpoint runs each request, and a request that fails at one
+ * endpoint is tried at another one straight away. A {@link RequestHedger}
+ * can send a duplicate of a request that takes unusually long, to whichever
+ * endpoint the router picks for it.
+ *
+ * <p>Instances are cheap and thread safe: a new ops4j client is created for
+ * every request, because those are not safe to share between threads. The
+ * ops4j clients do share the HTTP connections of the {@link ConnectionPool}.
+ *
+ * @author ola
+ */
+public class LDAClient {
+
+	private static final Logger logger = Logger.getLogger(LDAClient.class);
+
+	/**
+	 * Receives the time a request took on the network, without the wait for
+	 * a turn at the server and without retries. Nothing is received when the
+	 * response came from the cache, or from an identical request that was
+	 * already running.
+	 */
+	public interface NetworkTimer {
+		void record(long nanos);
+	}
+
+	private final EndpointRouter router;
+	private final String appID;
+	private final String appKey;
+	private final HostRequestBudget budget;
+	private final ResponseCache cache;
+	private final RequestCoalescer coalescer;
+	private final ConnectionPool connections;
+	private final Metrics metrics;
+	private final RetryPolicy retries;
+	private final ResponseFormat format;
+	private final RequestHedger hedger;
+
+	/**
+	 * @param cache     the cache to use, or null to always contact the endpoint
+	 * @param coalescer shared between clients, so that their identical
+	 *                  requests are coalesced too
+	 * @param connections the connections to use, or null to let ops4j open
+	 *                  its own for every request
+	 * @param metrics   where to record latencies and counts, or null
+	 * @param retries   when to try failed requests again, or null to never
+	 * @param format    the format to ask responses in, Turtle or JSON; null
+	 *                  for Turtle
+	 * @param hedger    hedges slow requests, or null to never do so
+	 */
+	public LDAClient(String endpoint, String appID, String appKey,
+			HostRequestBudget budget, ResponseCache cache, RequestCoalescer coalescer,
+			ConnectionPool connections, Metrics metrics, RetryPolicy retries,
+			ResponseFormat format, RequestHedger hedger) {
+		this(new EndpointRouter(Collections.singletonList(endpoint)), appID, appKey,
+			budget, cache, coalescer, connections, metrics, retries, format, hedger);
+	}
+
+	/**
+	 * @param router    the endpoints to spread the requests over
+	 */
+	public LDAClient(EndpointRouter router, String appID, String appKey,
+			HostRequestBudget budget, ResponseCache cache, RequestCoalescer coalescer,
+			ConnectionPool connections, Metrics metrics, RetryPolicy retries,
+			ResponseFormat format, RequestHedger hedger) {
+		this.router = router;
+		this.appID = appID;
+		this.appKey = appKey;
+		this.budget = budget;
+		this.cache = cache;
+		this.coalescer = coalescer;
+		this.connections = connections;
+		this.metrics = metrics == null ? new Metrics() : metrics;
+		this.retries = retries;
+		this.format = format == null ? ResponseFormat.TURTLE : format;
+		this.hedger = hedger;
+	}
+
+	/**
+	 * Returns the primary endpoint.
+	 */
+	public String getEndpoint() {
+		return router.getPrimary();
+	}
+
+	public String freetextByTag(final String query, final ConceptType type) throws IOException {
+		return execute(new Request("concepts.freetextByTag", query, type) {
+			String run(Server server) throws IOException, HttpException {
+				return pooled(Concepts.getInstance(server)).freetextByTag(query, type, format);
+			}
+		});
+	}
+
+	public String mapUri(final String uri) throws IOException {
+		return execute(new Request("mapping.mapUri", uri) {
+			String run(Server server) throws IOException, HttpException {
+				return pooled(Mapping.getInstance(server)).mapUri(uri, format);
+			}
+		});
+	}
+
+	public String compoundInfo(final String uri) throws IOException {
+		return execute(new Request("compounds.info", uri) {
+			String run(Server server) throws IOException, HttpException {
+				return pooled(Compounds.getInstance(server)).info(uri, format);
+			}
+		});
+	}
+
+	public String compoundPharmacologyCount(final String uri) throws IOException {
+		return execute(new Request("compounds.pharmacologyCount", uri) {
+			String run(Server server) throws IOException, HttpException {
+				return pooled(Compounds.getInstance(server)).pharmacologyCount(uri, format);
+			}
+		});
+	}
+
+	public String compoundPharmacologyList(final String uri, final int page, final int size)
+	throws IOException {
+		return compoundPharmacologyList(uri, page, size, null);
+	}
+
+	/**
+	 * @param timer receives the time the page took on the network, or null
+	 */
+	public String compoundPharmacologyList(final String uri, final int page, final int size,
+			NetworkTimer timer)
+	throws IOException {
+		return execute(new Request("compounds.pharmacologyList", timer, uri, page, size) {
+			String run(Server server) throws IOException, HttpException {
+				return pooled(Compounds.getInstance(server)).pharmacologyList(uri, page, size, format);
+			}
+			boolean isPage() {
+				return true;
+			}
+		});
+	}
+
+	public String targetInfo(final String uri) throws IOException {
+		return execute(new Request("targets.info", uri) {
+			String run(Server server) throws IOException, HttpException {
+				return pooled(Targets.getInstance(server)).info(uri, format);
+			}
+		});
+	}
+
+	public String targetPharmacologyCount(final String uri) throws IOException {
+		return execute(new Request("targets.pharmacologyCount", uri) {
+			String run(Server server) throws IOException, HttpException {
+				return pooled(Targets.getInstance(server)).pharmacologyCount(uri, format);
+			}
+		});
+	}
+
+	public String targetPharmacologyList(final String uri, final int page, final int size)
+	throws IOException {
+		return targetPharmacologyList(uri, page, size, null);
+	}
+
+	/**
+	 * @param timer receives the time the page took on the network, or null
+	 */
+	public String targetPharmacologyList(final String uri, final int page, final int size,
+			NetworkTimer timer)
+	throws IOException {
+		return execute(new Request("targets.pharmacologyList", timer, uri, page, size) {
+			String run(Server server) throws IOException, HttpException {
+				return pooled(Targets.getInstance(server)).pharmacologyList(uri, page, size, format);
+			}
+			boolean isPage() {
+				return true;
+			}
+		});
+	}
+
+	public String inchi2uri(final String inchi) throws IOException {
+		return execute(new Request("structures.inchi2uri", inchi) {
+			String run(Server server) throws IOException, HttpException {
+				return pooled(Structures.getInstance(server)).inchi2uri(inchi, format);
+			}
+		});
+	}
+
+	public String tanimotoSimilarity(final String smiles, final float threshold)
+	throws IOException {
+		return execute(new Request("structures.tanimotoSimilarity", smiles, threshold) {
+			String run(Server server) throws IOException, HttpException {
+				return pooled(Structures.getInstance(server)).tanimotoSimilarity(smiles, threshold, format);
+			}
+			boolean allowsJSON() {
+				// the manager reads similarity hits straight from the Turtle
+				return false;
+			}
+		});
+	}
+
+	private <T extends AbstractOPS4JClient> T pooled(T client) {
+		return connections == null ? client : connections.attach(client);
+	}
+
+	private String execute(final Request request) throws IOException {
+		request.format = request.allowsJSON() ? format : ResponseFormat.TURTLE;
+		final String key = request.getKey(router.getPrimary());
+		if (cache != null) {
+			String response = cache.get(key);
+			if (response != null) {
+				metrics.increment("cache.hits");
+				return response;
+			}
+			metrics.increment("cache.misses");
+		}
+
+		return coalescer.run(key, new Callable<String>() {
+			public String call() throws IOException {
+				return fetch(key, request);
+			}
+		});
+	}
+
+	/**
+	 * Runs the request within the budget of an endpoint, trying again after
+	 * transient failures as the retry policy allows. Another endpoint that
+	 * was not tried yet, by the request or its hedge, is tried without
+	 * waiting.
+	 */
+	private String fetch(String key, Request request) throws IOException {
+		String response;
+		List<String> tried = new ArrayList<String>(1);
+		for (int retry=0; ; retry++) {
+			String endpoint = router.choose(tried);
+			try {
+				response = fetchHedged(request, endpoint, tried);
+				break;
+			} catch (IOException exception) {
+				if (!tried.contains(endpoint)) tried.add(endpoint);
+				// the pager answers timeouts with smaller pages instead
+				if (retries == null || retry >= retries.getMaxRetries() ||
+						!retries.isTransient(exception) ||
+						(request.isPage() && exception instanceof SocketTimeoutException))
+					throw exception;
+				if (router.hasAlternative(tried)) {
+					logger.debug("Trying " + request.operation + " at another endpoint after: " +
+						exception.getMessage());
+					metrics.increment("failovers");
+					continue;
+				}
+				long delay = retries.getDelay(retry);
+				logger.debug("Retrying " + request.operation + " in " + delay + " ms after: " +
+					exception.getMessage());
+				metrics.increment("retries");
+				try {
+					Thread.sleep(delay);
+				} catch (InterruptedException interrupted) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting to retry " + endpoint);
+				}
+			}
+		}
+
+		if (cache != null) cache.put(key, response);
+		return response;
+	}
+
+	/**
+	 * Runs the request once at the given endpoint, and a hedge at whichever
+	 * endpoint the router prefers after that one if the hedger asks for it.
+	 * The hedger only starts timing once the request has its permit, and the
+	 * hedge is only sent if its endpoint has a permit free right away.
+	 *
+	 * @param tried the endpoints tried so far, to which the endpoint of a
+	 *              hedge that is sent is added
+	 */
+	private String fetchHedged(final Request request, final String endpoint,
+			final List<String> tried) throws IOException {
+		final Semaphore permit = acquire(endpoint);
+		if (hedger == null) return send(request, endpoint, permit);
+		return hedger.run(request.operation,
+			new Callable<String>() {
+				public String call() throws IOException {
+					return send(request, endpoint, permit);
+				}
+			},
+			new RequestHedger.Hedge<String>() {
+				public Callable<String> prepare() {
+					final String other = router.choose(Collections.singleton(endpoint));
+					final Semaphore otherPermit = budget.tryAcquire(other);
+					if (otherPermit == null) {
+						router.released(other);
+						return null;
+					}
+					// prepared in the calling thread, which only gets a
+					// failure once the hedge has failed too
+					if (!tried.contains(other)) tried.add(other);
+					return new Callable<String>() {
+						public String call() throws IOException {
+							return send(request, other, otherPermit);
+						}
+					};
+				}
+			}
+		);
+	}
+
+	/**
+	 * Waits for a permit of the budget for the endpoint, which was chosen by
+	 * the router.
+	 */
+	private Semaphore acquire(String endpoint) throws IOException {
+		long start = metrics.start();
+		try {
+			Semaphore permit = budget.acquire(endpoint);
+			metrics.stop("budget.wait", start);
+			return permit;
+		} catch (InterruptedException exception) {
+			router.released(endpoint);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for " + endpoint);
+		}
+	}
+
+	/**
+	 * Runs the request once at the given endpoint with a permit of the
+	 * budget, which it releases, and tells the router, the budget and the
+	 * hedger how that went.
+	 */
+	private String send(Request request, String endpoint, Semaphore permit) throws IOException {
+		String response;
+		String timer = "network." + request.operation;
+		long start = metrics.start();
+		long sent = System.nanoTime();
+		try {
+			response = request.run(new Server(endpoint, appID, appKey));
+			metrics.stop(timer, start);
+			long nanos = System.nanoTime() - sent;
+			router.succeeded(endpoint, nanos);
+			budget.succeeded(endpoint);
+			if (hedger != null) hedger.record(request.operation, nanos);
+			if (request.timer != null) request.timer.record(nanos);
+		} catch (HttpException exception) {
+			metrics.failed(timer, start);
+			IOException failure = new IOException(exception.getMessage(), exception);
+			report(endpoint, failure);
+			throw failure;
+		} catch (IOException exception) {
+			metrics.failed(timer, start);
+			report(endpoint, exception);
+			throw exception;
+		} catch (RuntimeException exception) {
+			router.released(endpoint);
+			throw exception;
+		} finally {
+			permit.release();
+		}
+		if (response != null) metrics.add("payload.characters", response.length());
+		return response;
+	}
+
+	/**
+	 * Tells the router about a failed request. Only server errors and
+	 * failures to get an answer at all count against the endpoint: other
+	 * errors are about the request, and other interruptions are
+	 * cancellations.
+	 */
+	private void report(String endpoint, IOException failure) {
+		int status = RetryPolicy.getStatus(failure);
+		if (status == 429) {
+			metrics.increment("throttled");
+			budget.throttled(endpoint);
+		}
+		boolean canceled = failure instanceof InterruptedIOException &&
+			!(failure instanceof SocketTimeoutException);
+		if (canceled || (status >= 400 && status < 500 && status != 429))
+			router.released(endpoint);
+		else
+			router.failed(endpoint);
+	}
+
+	/**
+	 * A single ops4j call, identified by its operation name and arguments.
+	 */
+	private abstract static class Request {
+
+		private final String operation;
+		private final Object[] arguments;
+		private final NetworkTimer timer;
+		// set by execute(), before the request is run
+		ResponseFormat format = ResponseFormat.TURTLE;
+
+		Request(String operation, Object... arguments) {
+			this(operation, null, arguments);
+		}
+
+		Request(String operation, NetworkTimer timer, Object... arguments) {
+			this.operation = operation;
+			this.timer = timer;
+			this.arguments = arguments;
+		}
+
+		String getKey(String endpoint) {
+			StringBuilder key = new StringBuilder(endpoint).append(' ').append(operation);
+			for (Object argument : arguments)
+				key.append(' ').append(argument);
+			// keys of Turtle responses are the same as before JSON was supported
+			if (format != ResponseFormat.TURTLE) key.append(" _format=").append(format.getOPSCode());
+			return key.toString();
+		}
+
+		abstract String run(Server server) throws IOException, HttpException;
+
+		/**
+		 * Returns whether this request is for one page of a list.
+		 */
+		boolean isPage() {
+			return false;
+		}
+
+		/**
+		 * Returns whether the response of this request may be in JSON.
+		 */
+		boolean allowsJSON() {
+			return true;
+		}
+	}
+
+}
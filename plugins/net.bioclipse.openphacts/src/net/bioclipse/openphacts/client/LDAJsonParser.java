@@ -0,0 +1,292 @@
+/*******************************************************************************
+ * Copyright (c) 2012  Ola Spjuth <ola.spjuth@gmail.com>
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contact: http://www.bioclipse.net/
+ ******************************************************************************/
+package net.bioclipse.openphacts.client;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A small streaming parser for the JSON format of the LDA API, handing the
+ * triples it stands for to a {@link TurtleParser.TripleHandler}, so that
+ * JSON responses can be read by the same code as Turtle ones.
+ *
+ * <p>In this format every resource is an object with its IRI in
+ * <code>_about</code>, and its properties are named after the local name of
+ * their predicate: <code>"publishedType": "IC50"</code> stands for a
+ * <code>chembl:publishedType</code> triple. Objects of a property are
+ * nested objects, arrays of them, or plain values, which are literals;
+ * <code>{"_value": ...}</code> is a literal too. The parser only knows the
+ * predicates it is given, and reports no triples for other properties,
+ * although it does look inside their values. Objects without
+ * <code>_about</code> become blank nodes.
+ *
+ * @author ola
+ */
+public class LDAJsonParser {
+
+	private final Reader reader;
+	private final TurtleParser.TripleHandler handler;
+	// local name -> predicates
+	private final Map<String, List<String>> properties = new HashMap<String, List<String>>();
+	private int blankNodes = 0;
+	private int line = 1;
+
+	private final char[] buffer = new char[8192];
+	private int position = 0;
+	private int limit = 0;
+
+	/**
+	 * @param predicates the predicates to report triples for
+	 */
+	public LDAJsonParser(Reader reader, Collection<String> predicates,
+			TurtleParser.TripleHandler handler) {
+		this.reader = reader;
+		this.handler = handler;
+		for (String predicate : predicates) {
+			String name = getLocalName(predicate);
+			List<String> named = properties.get(name);
+			if (named == null) {
+				named = new ArrayList<String>(1);
+				properties.put(name, named);
+			}
+			named.add(predicate);
+		}
+	}
+
+	/**
+	 * Returns whether the response is in JSON rather than Turtle.
+	 */
+	public static boolean isJSON(String response) {
+		for (int i=0; i<response.length(); i++) {
+			char c = response.charAt(i);
+			if (!Character.isWhitespace(c)) return c == '{' || c == '[';
+		}
+		return false;
+	}
+
+	/**
+	 * Parses the whole document.
+	 */
+	public void parse() throws IOException {
+		skipWhitespace();
+		readValue(new ArrayList<Term>());
+		skipWhitespace();
+		if (peek() != -1) throw error("Unexpected content after the end of the document");
+	}
+
+	/**
+	 * An object of a triple.
+	 */
+	private static class Term {
+		final String value;
+		final boolean literal;
+
+		Term(String value, boolean literal) {
+			this.value = value;
+			this.literal = literal;
+		}
+	}
+
+	/**
+	 * Reads a value and adds the objects it stands for: none for null, all
+	 * elements for an array, and one otherwise.
+	 */
+	private void readValue(List<Term> terms) throws IOException {
+		int c = peek();
+		if (c == '{') {
+			Term term = readObject();
+			if (term != null) terms.add(term);
+		} else if (c == '[') {
+			read();
+			skipWhitespace();
+			if (peek() == ']') {
+				read();
+				return;
+			}
+			while (true) {
+				skipWhitespace();
+				readValue(terms);
+				skipWhitespace();
+				int next = read();
+				if (next == ']') return;
+				if (next != ',') throw error("Expected ',' or ']' in array");
+			}
+		} else if (c == '"') {
+			terms.add(new Term(readString(), true));
+		} else {
+			String word = readWord();
+			if ("null".equals(word)) return;
+			if (word.length() == 0) throw error("Unexpected character '" + (char)c + "'");
+			terms.add(new Term(word, true));
+		}
+	}
+
+	/**
+	 * Reads an object and reports the triples of its properties. Triples
+	 * found before <code>_about</code> are held back until the subject is
+	 * known.
+	 *
+	 * @return the resource, or the literal for a <code>_value</code> object
+	 */
+	private Term readObject() throws IOException {
+		expect('{');
+		String subject = null;
+		String value = null;
+		List<Object[]> pending = new ArrayList<Object[]>();
+		skipWhitespace();
+		if (peek() == '}') read();
+		else while (true) {
+			skipWhitespace();
+			String key = readString();
+			skipWhitespace();
+			expect(':');
+			skipWhitespace();
+			List<Term> terms = new ArrayList<Term>(1);
+			readValue(terms);
+			if ("_about".equals(key)) {
+				if (!terms.isEmpty()) {
+					subject = terms.get(0).value;
+					for (Object[] triple : pending)
+						report(subject, (String)triple[0], (Term)triple[1]);
+					pending.clear();
+				}
+			} else if ("_value".equals(key)) {
+				if (!terms.isEmpty()) value = terms.get(0).value;
+			} else {
+				List<String> predicates = properties.get(key);
+				if (predicates != null) {
+					for (String predicate : predicates) {
+						for (Term term : terms) {
+							if (subject != null) report(subject, predicate, term);
+							else pending.add(new Object[] { predicate, term });
+						}
+					}
+				}
+			}
+			skipWhitespace();
+			int next = read();
+			if (next == '}') break;
+			if (next != ',') throw error("Expected ',' or '}' in object");
+		}
+
+		if (subject == null && value != null) return new Term(value, true);
+		if (subject == null) {
+			// '#' cannot occur in the labels of other blank nodes
+			subject = "_:#" + (blankNodes++);
+			for (Object[] triple : pending)
+				report(subject, (String)triple[0], (Term)triple[1]);
+		}
+		return new Term(subject, false);
+	}
+
+	private void report(String subject, String predicate, Term object) {
+		handler.triple(subject, predicate, object.value, object.literal);
+	}
+
+	private String readString() throws IOException {
+		expect('"');
+		StringBuilder value = new StringBuilder();
+		while (true) {
+			int c = read();
+			if (c == -1) throw error("Unexpected end of string");
+			if (c == '"') return value.toString();
+			if (c != '\\') {
+				value.append((char)c);
+				continue;
+			}
+			c = read();
+			switch (c) {
+				case 't': value.append('\t'); break;
+				case 'b': value.append('\b'); break;
+				case 'n': value.append('\n'); break;
+				case 'r': value.append('\r'); break;
+				case 'f': value.append('\f'); break;
+				case 'u': value.append((char)readHex()); break;
+				case -1: throw error("Unexpected end of escape sequence");
+				default: value.append((char)c);
+			}
+		}
+	}
+
+	private int readHex() throws IOException {
+		StringBuilder hex = new StringBuilder();
+		for (int i=0; i<4; i++) hex.append((char)read());
+		try {
+			return Integer.parseInt(hex.toString(), 16);
+		} catch (NumberFormatException exception) {
+			throw error("Invalid escape sequence: " + hex);
+		}
+	}
+
+	/**
+	 * Reads a number, true, false or null.
+	 */
+	private String readWord() throws IOException {
+		StringBuilder word = new StringBuilder();
+		while (true) {
+			int c = peek();
+			if (c == -1 || c == ',' || c == '}' || c == ']' || c == ' ' || c == '\t' ||
+					c == '\r' || c == '\n')
+				return word.toString();
+			word.append((char)read());
+		}
+	}
+
+	private static String getLocalName(String predicate) {
+		int end = Math.max(predicate.lastIndexOf('#'), predicate.lastIndexOf('/'));
+		return predicate.substring(end + 1);
+	}
+
+	private void skipWhitespace() throws IOException {
+		while (true) {
+			int c = peek();
+			if (c == ' ' || c == '\t' || c == '\r' || c == '\n') read();
+			else return;
+		}
+	}
+
+	private void expect(char expected) throws IOException {
+		int c = read();
+		if (c != expected)
+			throw error("Expected '" + expected + "' but found " +
+				(c == -1 ? "end of document" : "'" + (char)c + "'"));
+	}
+
+	private IOException error(String message) {
+		return new IOException("JSON syntax error at line " + line + ": " + message);
+	}
+
+	private int read() throws IOException {
+		int c = peek();
+		if (c != -1) {
+			position++;
+			if (c == '\n') line++;
+		}
+		return c;
+	}
+
+	private int peek() throws IOException {
+		if (position == limit) {
+			position = 0;
+			limit = 0;
+			int count = reader.read(buffer, 0, buffer.length);
+			if (count == -1) return -1;
+			limit = count;
+		}
+		return buffer[position];
+	}
+
+}
@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * Copyright (c) 2012  Ola Spjuth <ola.spjuth@gmail.com>
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contact: http://www.bioclipse.net/
+ ******************************************************************************/
+package net.bioclipse.openphacts.client;
+
+/**
+ * The queries used to pull results out of LDA responses, each both as SPARQL
+ * and as the equivalent triple patterns for streaming extraction.
+ *
+ * @author ola
+ */
+public class LDAQueries {
+
+	private static final String API = "http://www.openphacts.org/api#";
+	private static final String SKOS = "http://www.w3.org/2004/02/skos/core#";
+	private static final String CHEMBL = "http://rdf.ebi.ac.uk/terms/chembl#";
+	private static final String DRUGBANK = "http://www4.wiwiss.fu-berlin.de/drugbank/resource/drugbank/";
+
+	/** Predicate of the relevance of a similarity search hit */
+	public static final String RELEVANCE = "http://www.openphacts.org/api/#relevance";
+
+	public static final ResultTemplate EXACT_MATCHES = new ResultTemplate(
+		"PREFIX skos: <http://www.w3.org/2004/02/skos/core#> " +
+		"SELECT ?match WHERE {" +
+	    " ?concept skos:exactMatch ?match ." +
+		"}",
+		"match"
+	).where("?concept", SKOS + "exactMatch", "?match");
+
+	public static final ResultTemplate CONCEPT_SEARCH_RESULTS = new ResultTemplate(
+		"SELECT ?uuid ?match WHERE {" +
+		" ?uuid <http://www.openphacts.org/api#match> ?match ." +
+		"}",
+		"uuid", "match"
+	).where("?uuid", API + "match", "?match");
+
+	public static final ResultTemplate PROTEIN_INFO = new ResultTemplate(
+		"SELECT ?uuid ?name ?residues ?pi WHERE {" +
+		" ?uuid <http://www.w3.org/2004/02/skos/core#prefLabel> ?name ;" +
+		"       <http://www.w3.org/2004/02/skos/core#exactMatch> ?dbUri ." +
+		" OPTIONAL {" + 
+		"  ?dbUri <http://www4.wiwiss.fu-berlin.de/drugbank/resource/drugbank/theoreticalPi> ?pi ;" +
+		"         <http://www4.wiwiss.fu-berlin.de/drugbank/resource/drugbank/numberOfResidues> ?residues ." +
+		" }" +
+		"}",
+		"uuid", "name", "residues", "pi"
+	).where("?uuid", SKOS + "prefLabel", "?name")
+	 .where("?uuid", SKOS + "exactMatch", "?dbUri")
+	 .optional(
+		"?dbUri", DRUGBANK + "theoreticalPi", "?pi",
+		"?dbUri", DRUGBANK + "numberOfResidues", "?residues"
+	);
+
+	public static final ResultTemplate COMPOUND_INFO = new ResultTemplate(
+			"SELECT ?compound ?smiles ?inchi ?logp ?hba ?hbd ?ro5Violations ?psa ?rtb ?molweight ?molformula WHERE {" +
+			" ?compound_uri <http://www.openphacts.org/api#smiles> ?smiles ; " +
+			"               <http://www.openphacts.org/api#inchi> ?inchi . " +
+			" OPTIONAL { ?compound_uri <http://www.openphacts.org/api#logp> ?logp . }" +
+			" OPTIONAL { ?compound_uri <http://www.openphacts.org/api#hba> ?hba . }" +
+			" OPTIONAL { ?compound_uri <http://www.openphacts.org/api#hbd> ?hbd . }" +
+			" OPTIONAL { ?compound_uri <http://www.openphacts.org/api#ro5_violations> ?ro5Violations . }" +
+			" OPTIONAL { ?compound_uri <http://www.openphacts.org/api#psa> ?psa . }" +
+			" OPTIONAL { ?compound_uri <http://www.openphacts.org/api#rtb> ?rtb . }" +
+			" OPTIONAL { ?compound_uri <http://www.openphacts.org/api#molweight> ?molweight . }" +
+			" OPTIONAL { ?compound_uri <http://www.openphacts.org/api#molformula> ?molformula . }" +
+			"}",
+			"compound", "smiles", "inchi", "logp", "hba", "hbd", "ro5Violations",
+			"psa", "rtb", "molweight", "molformula"
+	).where("?compound_uri", API + "smiles", "?smiles")
+	 .where("?compound_uri", API + "inchi", "?inchi")
+	 .optional("?compound_uri", API + "logp", "?logp")
+	 .optional("?compound_uri", API + "hba", "?hba")
+	 .optional("?compound_uri", API + "hbd", "?hbd")
+	 .optional("?compound_uri", API + "ro5_violations", "?ro5Violations")
+	 .optional("?compound_uri", API + "psa", "?psa")
+	 .optional("?compound_uri", API + "rtb", "?rtb")
+	 .optional("?compound_uri", API + "molweight", "?molweight")
+	 .optional("?compound_uri", API + "molformula", "?molformula");
+
+	public static final ResultTemplate COMPOUND_PHARMA_COUNT = new ResultTemplate(
+			"SELECT ?uuid ?count WHERE {" +
+			" ?uuid <http://www.openphacts.org/api#compoundPharmacologyTotalResults> ?count ." +
+			"}",
+			"uuid", "count"
+	).where("?uuid", API + "compoundPharmacologyTotalResults", "?count");
+
+	public static final ResultTemplate TARGET_PHARMA_COUNT = new ResultTemplate(
+			"SELECT ?uuid ?count WHERE {" +
+			" ?uuid <http://www.openphacts.org/api#targetPharmacologyTotalResults> ?count ." +
+			"}",
+			"uuid", "count"
+	).where("?uuid", API + "targetPharmacologyTotalResults", "?count");
+
+	public static final ResultTemplate COMPOUND_URI = new ResultTemplate(
+			"SELECT ?compound WHERE {" +
+			" ?compound <http://semanticscience.org/resource/CHEMINF_000396> ?inchi ." +
+			"}",
+			"compound"
+	).where("?compound", "http://semanticscience.org/resource/CHEMINF_000396", "?inchi");
+
+	public static final ResultTemplate COMPOUND_SIMILARITY = new ResultTemplate(
+			"SELECT ?compound ?relevance WHERE {" +
+			" ?compound <http://www.openphacts.org/api/#relevance> ?relevance ." +
+			"}",
+			"compound", "relevance"
+	).where("?compound", RELEVANCE, "?relevance");
+
+	public static final ResultTemplate COMPOUND_PHARMA = new ResultTemplate(
+			"SELECT * WHERE {" +
+			" ?item <http://rdf.ebi.ac.uk/terms/chembl#hasMolecule> ?chembl_compound_uri ; " +
+			"   <http://rdf.ebi.ac.uk/terms/chembl#hasAssay> ?assay_uri . " +
+			" OPTIONAL { ?item <http://rdf.ebi.ac.uk/terms/chembl#publishedType> ?published_type . } " +
+			" OPTIONAL { ?item <http://rdf.ebi.ac.uk/terms/chembl#publishedRelation> ?published_relation . } " +
+			" OPTIONAL { ?item <http://rdf.ebi.ac.uk/terms/chembl#publishedValue> ?published_value . } " +
+			" OPTIONAL { ?item <http://rdf.ebi.ac.uk/terms/chembl#publishedUnits> ?published_unit . } " +
+			" OPTIONAL { ?item <http://rdf.ebi.ac.uk/terms/chembl#pChembl> ?pChembl . } " +
+			" OPTIONAL { ?item <http://rdf.ebi.ac.uk/terms/chembl#activityComment> ?act_comment . } " +
+			" OPTIONAL { ?assay_uri <http://purl.org/dc/terms/description> ?assay_description. } " +
+			"}",
+			"item", "chembl_compound_uri", "assay_uri", "published_type",
+			"published_relation", "published_value", "published_unit", "pChembl",
+			"act_comment", "assay_description"
+	).where("?item", CHEMBL + "hasMolecule", "?chembl_compound_uri")
+	 .where("?item", CHEMBL + "hasAssay", "?assay_uri")
+	 .optional("?item", CHEMBL + "publishedType", "?published_type")
+	 .optional("?item", CHEMBL + "publishedRelation", "?published_relation")
+	 .optional("?item", CHEMBL + "publishedValue", "?published_value")
+	 .optional("?item", CHEMBL + "publishedUnits", "?published_unit")
+	 .optional("?item", CHEMBL + "pChembl", "?pChembl")
+	 .optional("?item", CHEMBL + "activityComment", "?act_comment")
+	 .optional("?assay_uri", "http://purl.org/dc/terms/description", "?assay_description");
+
+	public static final ResultTemplate COMPOUND_PHARMA_BY_TARGET = new ResultTemplate(
+			"SELECT * WHERE {" +
+			" ?item <http://rdf.ebi.ac.uk/terms/chembl#hasMolecule> ?chembl_compound_uri ; " +
+			"   <http://rdf.ebi.ac.uk/terms/chembl#hasAssay> ?assay_uri . " +
+			" ?chembl_compound_uri <http://www.w3.org/2004/02/skos/core#exactMatch> ?rsc_compound_uri . " +
+			" OPTIONAL { ?item <http://rdf.ebi.ac.uk/terms/chembl#publishedType> ?published_type . } " +
+			" OPTIONAL { ?item <http://rdf.ebi.ac.uk/terms/chembl#publishedRelation> ?published_relation . } " +
+			" OPTIONAL { ?item <http://rdf.ebi.ac.uk/terms/chembl#publishedValue> ?published_value . } " +
+			" OPTIONAL { ?item <http://rdf.ebi.ac.uk/terms/chembl#publishedUnits> ?published_unit . } " +
+			" OPTIONAL { ?item <http://rdf.ebi.ac.uk/terms/chembl#pChembl> ?pChembl . } " +
+			" OPTIONAL { ?item <http://rdf.ebi.ac.uk/terms/chembl#activityComment> ?act_comment . } " +
+			" OPTIONAL { ?assay_uri <http://purl.org/dc/terms/description> ?assay_description. } " +
+			" OPTIONAL { ?rsc_compound_uri <http://www.openphacts.org/api#smiles> ?smiles . } " +
+			"}",
+			"item", "chembl_compound_uri", "assay_uri", "rsc_compound_uri",
+			"published_type", "published_relation", "published_value",
+			"published_unit", "pChembl", "act_comment", "assay_description", "smiles"
+	).where("?item", CHEMBL + "hasMolecule", "?chembl_compound_uri")
+	 .where("?item", CHEMBL + "hasAssay", "?assay_uri")
+	 .where("?chembl_compound_uri", SKOS + "exactMatch", "?rsc_compound_uri")
+	 .optional("?item", CHEMBL + "publishedType", "?published_type")
+	 .optional("?item", CHEMBL + "publishedRelation", "?published_relation")
+	 .optional("?item", CHEMBL + "publishedValue", "?published_value")
+	 .optional("?item", CHEMBL + "publishedUnits", "?published_unit")
+	 .optional("?item", CHEMBL + "pChembl", "?pChembl")
+	 .optional("?item", CHEMBL + "activityComment", "?act_comment")
+	 .optional("?assay_uri", "http://purl.org/dc/terms/description", "?assay_description")
+	 .optional("?rsc_compound_uri", API + "smiles", "?smiles");
+
+	private LDAQueries() {}
+
+}
@@ -0,0 +1,272 @@
+/*******************************************************************************
+ * Copyright (c) 2012  Ola Spjuth <ola.spjuth@gmail.com>
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contact: http://www.bioclipse.net/
+ ******************************************************************************/
+package net.bioclipse.openphacts.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The URIs known to be exact matches of each other. Since
+ * <code>skos:exactMatch</code> is an equivalence, the URIs fall apart in
+ * clusters, kept in a union-find structure: adding the matches of a URI
+ * merges clusters, and the cluster of any URI in it can be listed without
+ * asking Open PHACTS again.
+ *
+ * <p>The members of a cluster are linked in a ring, so merging two clusters
+ * swaps two links and listing one only visits its own members. URIs that
+ * were mapped without any match are remembered separately.
+ *
+ * <p>The maximum number of URIs counts both the URIs in clusters and those
+ * without matches. When more would be known, the clusters and URIs without
+ * matches used least recently are forgotten until the graph is half full,
+ * so a large batch of new URIs does not wipe the clusters in use.
+ *
+ * @author ola
+ */
+public class MappingGraph {
+
+	private final int maxSize;
+
+	private final Map<String, Integer> ids = new HashMap<String, Integer>();
+	private final List<String> uris = new ArrayList<String>();
+	// URIs without matches -> when they were last used
+	private final Map<String, Long> unmapped = new HashMap<String, Long>();
+	private int[] parent = new int[16];
+	// number of URIs in the cluster, only up to date for the root
+	private int[] size = new int[16];
+	// next URI in the ring of the cluster
+	private int[] next = new int[16];
+	// when the cluster was last used, only up to date for the root
+	private long[] used = new long[16];
+	private long clock;
+	private int clusters;
+
+	/**
+	 * @param maxSize maximum number of URIs to remember
+	 */
+	public MappingGraph(int maxSize) {
+		if (maxSize < 1)
+			throw new IllegalArgumentException("The graph must be able to hold at least one URI");
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Records that the URIs are all exact matches of each other.
+	 */
+	public synchronized void addMatches(Collection<String> matches) {
+		if (uris.size() + unmapped.size() + matches.size() > maxSize) {
+			// keep the clusters about to be merged, if there is room
+			for (String uri : matches) {
+				Integer id = ids.get(uri);
+				if (id != null) used[find(id)] = ++clock;
+			}
+			evict(matches.size());
+		}
+		int first = -1;
+		for (String uri : matches) {
+			int id = getId(uri);
+			unmapped.remove(uri);
+			if (first == -1) first = id;
+			else union(first, id);
+		}
+		if (first != -1) used[find(first)] = ++clock;
+	}
+
+	/**
+	 * Records that the URI was mapped, but does not match anything.
+	 */
+	public synchronized void addUnmapped(String uri) {
+		if (ids.containsKey(uri)) return;
+		if (!unmapped.containsKey(uri) && uris.size() + unmapped.size() + 1 > maxSize) evict(1);
+		unmapped.put(uri, ++clock);
+	}
+
+	/**
+	 * Returns whether the matches of the URI are known, because it is in a
+	 * cluster or was mapped without matches.
+	 */
+	public synchronized boolean contains(String uri) {
+		return ids.containsKey(uri) || unmapped.containsKey(uri);
+	}
+
+	/**
+	 * Returns the URIs in the cluster of the given URI, itself included, in
+	 * the order they were first added, an empty list if it was mapped
+	 * without matches, or null if it is not known.
+	 */
+	public synchronized List<String> getCluster(String uri) {
+		Integer id = ids.get(uri);
+		if (id == null) {
+			if (!unmapped.containsKey(uri)) return null;
+			unmapped.put(uri, ++clock);
+			return new ArrayList<String>();
+		}
+		int root = find(id);
+		used[root] = ++clock;
+		int[] members = new int[size[root]];
+		int count = 0, member = id;
+		do {
+			members[count++] = member;
+			member = next[member];
+		} while (member != id);
+		// ids are handed out in the order URIs are added
+		Arrays.sort(members);
+		List<String> cluster = new ArrayList<String>(members.length);
+		for (int m : members) cluster.add(uris.get(m));
+		return cluster;
+	}
+
+	/**
+	 * Returns the number of URIs in clusters.
+	 */
+	public synchronized int size() {
+		return uris.size();
+	}
+
+	public synchronized int getClusterCount() {
+		return clusters;
+	}
+
+	public synchronized void clear() {
+		ids.clear();
+		uris.clear();
+		unmapped.clear();
+		clusters = 0;
+	}
+
+	private int getId(String uri) {
+		Integer id = ids.get(uri);
+		if (id != null) return id;
+		id = uris.size();
+		if (id == parent.length) {
+			parent = Arrays.copyOf(parent, 2 * id);
+			size = Arrays.copyOf(size, 2 * id);
+			next = Arrays.copyOf(next, 2 * id);
+			used = Arrays.copyOf(used, 2 * id);
+		}
+		ids.put(uri, id);
+		uris.add(uri);
+		parent[id] = id;
+		size[id] = 1;
+		next[id] = id;
+		clusters++;
+		return id;
+	}
+
+	/**
+	 * Forgets the clusters and URIs without matches used least recently,
+	 * until at most half of the maximum number of URIs is left and there is
+	 * room for the given number of new ones. The ids of the URIs that are
+	 * kept are renumbered in their old order.
+	 */
+	private void evict(int room) {
+		int target = Math.max(0, Math.min(maxSize / 2, maxSize - room));
+		int count = uris.size();
+		int[] roots = new int[count];
+		List<Integer> byUse = new ArrayList<Integer>();
+		for (int id=0; id<count; id++) {
+			roots[id] = find(id);
+			if (roots[id] == id) byUse.add(id);
+		}
+		Collections.sort(byUse, new Comparator<Integer>() {
+			public int compare(Integer root1, Integer root2) {
+				return used[root1] < used[root2] ? -1 : used[root1] > used[root2] ? 1 : 0;
+			}
+		});
+		List<Map.Entry<String, Long>> unmappedByUse =
+			new ArrayList<Map.Entry<String, Long>>(unmapped.entrySet());
+		Collections.sort(unmappedByUse, new Comparator<Map.Entry<String, Long>>() {
+			public int compare(Map.Entry<String, Long> uri1, Map.Entry<String, Long> uri2) {
+				return uri1.getValue().compareTo(uri2.getValue());
+			}
+		});
+		boolean[] dropped = new boolean[count];
+		int left = count + unmapped.size();
+		int cluster = 0, single = 0;
+		while (left > target) {
+			boolean dropCluster = single == unmappedByUse.size() || (cluster < byUse.size()
+				&& used[byUse.get(cluster)] < unmappedByUse.get(single).getValue());
+			if (dropCluster) {
+				int root = byUse.get(cluster++);
+				dropped[root] = true;
+				left -= size[root];
+				clusters--;
+			} else {
+				unmapped.remove(unmappedByUse.get(single++).getKey());
+				left--;
+			}
+		}
+
+		int[] renumbered = new int[count];
+		List<String> kept = new ArrayList<String>(left - unmapped.size());
+		for (int id=0; id<count; id++) {
+			if (dropped[roots[id]]) {
+				renumbered[id] = -1;
+				ids.remove(uris.get(id));
+			} else {
+				renumbered[id] = kept.size();
+				kept.add(uris.get(id));
+			}
+		}
+		int capacity = Math.max(16, parent.length);
+		int[] newParent = new int[capacity], newSize = new int[capacity], newNext = new int[capacity];
+		long[] newUsed = new long[capacity];
+		for (int id=0; id<count; id++) {
+			int to = renumbered[id];
+			if (to == -1) continue;
+			ids.put(uris.get(id), to);
+			newParent[to] = renumbered[roots[id]];
+			newSize[to] = size[id];
+			newNext[to] = renumbered[next[id]];
+			newUsed[to] = used[id];
+		}
+		uris.clear();
+		uris.addAll(kept);
+		parent = newParent;
+		size = newSize;
+		next = newNext;
+		used = newUsed;
+	}
+
+	private int find(int id) {
+		int root = id;
+		while (parent[root] != root) root = parent[root];
+		while (parent[id] != root) {
+			int up = parent[id];
+			parent[id] = root;
+			id = up;
+		}
+		return root;
+	}
+
+	private void union(int id1, int id2) {
+		int root1 = find(id1), root2 = find(id2);
+		if (root1 == root2) return;
+		if (size[root1] < size[root2]) {
+			int swap = root1;
+			root1 = root2;
+			root2 = swap;
+		}
+		parent[root2] = root1;
+		size[root1] += size[root2];
+		int link = next[root1];
+		next[root1] = next[root2];
+		next[root2] = link;
+		clusters--;
+	}
+
+}
@@ -0,0 +1,175 @@
+/*******************************************************************************
+ * Copyright (c) 2012  Ola Spjuth <ola.spjuth@gmail.com>
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contact: http://www.bioclipse.net/
+ ******************************************************************************/
+package net.bioclipse.openphacts.client;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+import net.bioclipse.openphacts.model.OperationStatistics;
+
+/**
+ * Latencies and counts of the steps of Open PHACTS calls. Every timed step
+ * keeps its number of calls and failures and a histogram of its latencies,
+ * with buckets that double in width, so percentiles are known within a
+ * factor of two without storing the individual latencies. Counters hold
+ * everything else, like cache hits and payload sizes.
+ *
+ * <p>Recording takes a few atomic increments and no locks, so it can be done
+ * on every call.
+ *
+ * @author ola
+ */
+public class Metrics implements MetricsMXBean {
+
+	private static final Logger logger = Logger.getLogger(Metrics.class);
+
+	// bucket i holds latencies below 2^i microseconds
+	private static final int BUCKETS = 40;
+
+	private static class Timer {
+		final AtomicLong count = new AtomicLong();
+		final AtomicLong errors = new AtomicLong();
+		final AtomicLong totalNanos = new AtomicLong();
+		final AtomicLong maxNanos = new AtomicLong();
+		final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+		void record(long nanos, boolean error) {
+			count.incrementAndGet();
+			if (error) errors.incrementAndGet();
+			totalNanos.addAndGet(nanos);
+			long max = maxNanos.get();
+			while (nanos > max && !maxNanos.compareAndSet(max, nanos))
+				max = maxNanos.get();
+			long micros = Math.max(nanos / 1000, 0);
+			int bucket = 64 - Long.numberOfLeadingZeros(micros);
+			buckets.incrementAndGet(Math.min(bucket, BUCKETS - 1));
+		}
+
+		/**
+		 * Returns the upper bound of the bucket holding the given quantile,
+		 * in milliseconds.
+		 */
+		double quantile(double quantile, long total) {
+			if (total == 0) return 0;
+			long rank = (long)Math.ceil(quantile * total);
+			long seen = 0;
+			for (int bucket=0; bucket<BUCKETS; bucket++) {
+				seen += buckets.get(bucket);
+				if (seen >= rank)
+					return Math.min((1L << bucket) / 1000.0, maxNanos.get() / 1000000.0);
+			}
+			return maxNanos.get() / 1000000.0;
+		}
+	}
+
+	private final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<String, Timer>();
+	private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+
+	/**
+	 * Returns the start time to pass to {@link #stop(String, long)}.
+	 */
+	public long start() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * Records a successful step that started at the given time.
+	 */
+	public void stop(String name, long start) {
+		getTimer(name).record(System.nanoTime() - start, false);
+	}
+
+	/**
+	 * Records a failed step that started at the given time.
+	 */
+	public void failed(String name, long start) {
+		getTimer(name).record(System.nanoTime() - start, true);
+	}
+
+	public void increment(String name) {
+		add(name, 1);
+	}
+
+	public void add(String name, long delta) {
+		AtomicLong counter = counters.get(name);
+		if (counter == null) {
+			AtomicLong created = new AtomicLong();
+			counter = counters.putIfAbsent(name, created);
+			if (counter == null) counter = created;
+		}
+		counter.addAndGet(delta);
+	}
+
+	public List<OperationStatistics> getOperations() {
+		List<OperationStatistics> operations = new ArrayList<OperationStatistics>();
+		for (Map.Entry<String, Timer> entry : new TreeMap<String, Timer>(timers).entrySet()) {
+			Timer timer = entry.getValue();
+			long count = timer.count.get();
+			operations.add(new OperationStatistics(
+				entry.getKey(), count, timer.errors.get(),
+				count == 0 ? 0 : timer.totalNanos.get() / 1000000.0 / count,
+				timer.quantile(0.5, count), timer.quantile(0.9, count),
+				timer.quantile(0.99, count), timer.maxNanos.get() / 1000000.0
+			));
+		}
+		return operations;
+	}
+
+	public Map<String, Long> getCounters() {
+		Map<String, Long> values = new TreeMap<String, Long>();
+		for (Map.Entry<String, AtomicLong> entry : counters.entrySet())
+			values.put(entry.getKey(), entry.getValue().get());
+		return values;
+	}
+
+	public void reset() {
+		timers.clear();
+		counters.clear();
+	}
+
+	/**
+	 * Makes these metrics available through JMX under the given name,
+	 * replacing whatever was registered under it before.
+	 */
+	public void register(String name) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = new ObjectName(name);
+			if (server.isRegistered(objectName)) server.unregisterMBean(objectName);
+			server.registerMBean(this, objectName);
+		} catch (Exception exception) {
+			logger.warn("Could not register the metrics with JMX: " + exception.getMessage());
+		}
+	}
+
+	private Timer getTimer(String name) {
+		Timer timer = timers.get(name);
+		if (timer == null) {
+			Timer created = new Timer();
+			timer = timers.putIfAbsent(name, created);
+			if (timer == null) timer = created;
+		}
+		return timer;
+	}
+
+}
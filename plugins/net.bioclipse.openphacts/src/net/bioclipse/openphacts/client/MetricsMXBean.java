@@ -0,0 +1,34 @@
+/*******************************************************************************
+ * Copyright (c) 2012  Ola Spjuth <ola.spjuth@gmail.com>
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contact: http://www.bioclipse.net/
+ ******************************************************************************/
+package net.bioclipse.openphacts.client;
+
+import java.util.List;
+import java.util.Map;
+
+import net.bioclipse.openphacts.model.OperationStatistics;
+
+/**
+ * The JMX view of {@link Metrics}.
+ *
+ * @author ola
+ */
+public interface MetricsMXBean {
+
+	/**
+	 * Returns the calls, failures and latencies of every timed step.
+	 */
+	List<OperationStatistics> getOperations();
+
+	Map<String, Long> getCounters();
+
+	void reset();
+
+}
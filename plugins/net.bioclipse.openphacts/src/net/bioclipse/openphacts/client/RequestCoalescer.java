@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Copyright (c) 2012  Ola Spjuth <ola.spjuth@gmail.com>
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contact: http://www.bioclipse.net/
+ ******************************************************************************/
+package net.bioclipse.openphacts.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Lets concurrent callers asking for the same request share a single call.
+ * The first caller for a key runs the call in its own thread; callers that
+ * arrive while it is still running wait for it and get the same response,
+ * or the same error. Once the call is done the key is forgotten, so later
+ * callers start a new call (or hit the {@link ResponseCache}).
+ *
+ * @author ola
+ */
+public class RequestCoalescer {
+
+	private final ConcurrentMap<String, FutureTask<String>> inFlight =
+		new ConcurrentHashMap<String, FutureTask<String>>();
+
+	/**
+	 * Runs the call for the given key, unless a call for the same key is
+	 * already running, in which case its response is returned.
+	 */
+	public String run(String key, Callable<String> call) throws IOException {
+		FutureTask<String> task = new FutureTask<String>(call);
+		FutureTask<String> running = inFlight.putIfAbsent(key, task);
+		if (running == null) {
+			try {
+				task.run();
+			} finally {
+				inFlight.remove(key, task);
+			}
+			running = task;
+		}
+		try {
+			return running.get();
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for " + key);
+		} catch (ExecutionException exception) {
+			Throwable cause = exception.getCause();
+			if (cause instanceof IOException) throw (IOException)cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+			if (cause instanceof Error) throw (Error)cause;
+			throw new IOException(cause.getMessage(), cause);
+		}
+	}
+
+	/**
+	 * Returns the number of calls that are currently running.
+	 */
+	public int getInFlightCount() {
+		return inFlight.size();
+	}
+
+}
@@ -0,0 +1,274 @@
+/*******************************************************************************
+ * Copyright (c) 2012  Ola Spjuth <ola.spjuth@gmail.com>
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contact: http://www.bioclipse.net/
+ ******************************************************************************/
+package net.bioclipse.openphacts.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cuts the tail latency of calls by hedging them: when a call has not
+ * returned after the given percentile of the recent latencies of its
+ * operation, a duplicate is sent, and whichever answers first is used. The
+ * other one is left to finish in the background and its answer dropped.
+ *
+ * <p>The latencies are those of the calls on the network, reported with
+ * {@link #record(String, long)}, and the timer of a call starts when
+ * {@link #run(String, Callable, Hedge)} is called, so the caller should
+ * have waited for its turn at the server before. Time spent waiting for a
+ * turn must not make calls look slow, or a busy batch would hedge calls
+ * that are only queued. For the same reason a duplicate is only sent if
+ * it can go out straight away, see {@link Hedge}.
+ *
+ * <p>Hedges are paid from a budget that every call adds a fraction of a
+ * hedge to, so that they never add more than that fraction to the load of
+ * the server, even when it slows down as a whole. Operations are not hedged
+ * until enough of their latencies are known.
+ *
+ * @author ola
+ */
+public class RequestHedger {
+
+	private static final int SAMPLES = 128;
+	private static final int MIN_SAMPLES = 16;
+	// hedges that can be saved up while all calls are fast
+	private static final double MAX_TOKENS = 10;
+
+	/**
+	 * The duplicate of a call.
+	 */
+	public interface Hedge<T> {
+		/**
+		 * Returns the duplicate call, with whatever it needs to go out
+		 * without waiting already reserved, or null if it would have to
+		 * wait.
+		 */
+		Callable<T> prepare();
+	}
+
+	/**
+	 * The latest latencies of an operation.
+	 */
+	private static class Latencies {
+		final long[] samples = new long[SAMPLES];
+		int count;
+		int next;
+
+		void add(long nanos) {
+			samples[next] = nanos;
+			next = (next + 1) % SAMPLES;
+			if (count < SAMPLES) count++;
+		}
+
+		long getPercentile(double percentile) {
+			long[] sorted = Arrays.copyOf(samples, count);
+			Arrays.sort(sorted);
+			int rank = (int)Math.ceil(percentile / 100 * count) - 1;
+			return sorted[Math.max(0, Math.min(count - 1, rank))];
+		}
+	}
+
+	private final Map<String, Latencies> latencies = new HashMap<String, Latencies>();
+	private final ExecutorService executor;
+	private final Metrics metrics;
+	private double percentile;
+	private double maxExtra;
+	private double tokens = 0;
+
+	/**
+	 * @param percentile the percentile of the latency after which a call is
+	 *                   hedged, like 95
+	 * @param maxExtra   maximum number of hedges per call, like 0.1 to add at
+	 *                   most 10% to the load
+	 * @param metrics    where to count hedges, or null
+	 */
+	public RequestHedger(double percentile, double maxExtra, Metrics metrics) {
+		setLimits(percentile, maxExtra);
+		this.metrics = metrics == null ? new Metrics() : metrics;
+		final AtomicInteger threads = new AtomicInteger();
+		executor = Executors.newCachedThreadPool(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "Open PHACTS hedged call " + threads.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	public synchronized void setLimits(double percentile, double maxExtra) {
+		if (percentile <= 0 || percentile > 100)
+			throw new IllegalArgumentException("The percentile must be above 0 and at most 100");
+		if (maxExtra < 0)
+			throw new IllegalArgumentException("The number of hedges cannot be negative");
+		this.percentile = percentile;
+		this.maxExtra = maxExtra;
+	}
+
+	/**
+	 * Runs the call, and the hedge if the call takes too long and the budget
+	 * allows it. Calls of which too little is known yet run in the calling
+	 * thread. Calls that were started are never canceled, so that they can
+	 * release what they hold; when the calling thread is interrupted they
+	 * finish in the background.
+	 *
+	 * @param operation the name the latencies are kept under
+	 * @param hedge     prepares the duplicate; it may go to another endpoint
+	 * @return the first answer; if the first call to finish failed, the
+	 *         answer of the other one
+	 */
+	public <T> T run(String operation, Callable<T> call, Hedge<T> hedge) throws IOException {
+		long delay = getDelay(operation);
+		if (delay < 0) return call(call);
+
+		BlockingQueue<Future<T>> done = new LinkedBlockingQueue<Future<T>>();
+		Future<T> first = submit(call, done);
+		Future<T> second = null;
+		try {
+			Future<T> winner = done.poll(delay, TimeUnit.NANOSECONDS);
+			if (winner == null) {
+				Callable<T> duplicate = tryHedge(hedge);
+				if (duplicate == null) return get(first);
+				metrics.increment("hedges");
+				second = submit(duplicate, done);
+				winner = done.take();
+			}
+			try {
+				T result = get(winner);
+				if (winner == second) metrics.increment("hedges.won");
+				return result;
+			} catch (IOException exception) {
+				if (second == null) throw exception;
+				// the other one may still succeed
+				Future<T> other = winner == first ? second : first;
+				try {
+					return get(other);
+				} catch (IOException ignored) {
+					throw exception;
+				}
+			}
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for " + operation);
+		}
+	}
+
+	/**
+	 * Records how long a successful call of the operation took on the
+	 * network, in nanoseconds.
+	 */
+	public synchronized void record(String operation, long nanos) {
+		Latencies known = latencies.get(operation);
+		if (known == null) {
+			known = new Latencies();
+			latencies.put(operation, known);
+		}
+		known.add(nanos);
+	}
+
+	/**
+	 * Returns how long a call of the operation may take before it is
+	 * hedged, in nanoseconds, or -1 if too little is known about it yet.
+	 * Every call adds to the budget of hedges.
+	 */
+	private synchronized long getDelay(String operation) {
+		tokens = Math.min(MAX_TOKENS, tokens + maxExtra);
+		Latencies known = latencies.get(operation);
+		if (known == null || known.count < MIN_SAMPLES) return -1;
+		return known.getPercentile(percentile);
+	}
+
+	/**
+	 * Takes a hedge from the budget, if there is one and the hedge can go
+	 * out without waiting.
+	 */
+	private <T> Callable<T> tryHedge(Hedge<T> hedge) {
+		synchronized (this) {
+			if (tokens < 1) {
+				metrics.increment("hedges.denied");
+				return null;
+			}
+			tokens--;
+		}
+		Callable<T> duplicate = hedge.prepare();
+		if (duplicate == null) {
+			metrics.increment("hedges.queued");
+			synchronized (this) {
+				tokens++;
+			}
+		}
+		return duplicate;
+	}
+
+	/**
+	 * Runs the call in the background, adding its future to the queue when
+	 * it is done.
+	 */
+	private <T> Future<T> submit(Callable<T> call, final BlockingQueue<Future<T>> done) {
+		FutureTask<T> task = new FutureTask<T>(call) {
+			@Override
+			protected void done() {
+				done.add(this);
+			}
+		};
+		executor.execute(task);
+		return task;
+	}
+
+	/**
+	 * Waits for the future and unwraps the exception it failed with.
+	 */
+	private static <T> T get(Future<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a call");
+		} catch (ExecutionException exception) {
+			return rethrow(exception.getCause());
+		}
+	}
+
+	/**
+	 * Runs the call in the calling thread.
+	 */
+	private static <T> T call(Callable<T> call) throws IOException {
+		try {
+			return call.call();
+		} catch (Exception exception) {
+			return rethrow(exception);
+		}
+	}
+
+	private static <T> T rethrow(Throwable failure) throws IOException {
+		if (failure instanceof IOException) throw (IOException)failure;
+		if (failure instanceof RuntimeException) throw (RuntimeException)failure;
+		if (failure instanceof Error) throw (Error)failure;
+		throw new IOException(failure.getMessage(), failure);
+	}
+
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+}
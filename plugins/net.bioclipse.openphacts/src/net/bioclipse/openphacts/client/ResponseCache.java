@@ -0,0 +1,236 @@
+/*******************************************************************************
+ * Copyright (c) 2012  Ola Spjuth <ola.spjuth@gmail.com>
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contact: http://www.bioclipse.net/
+ ******************************************************************************/
+package net.bioclipse.openphacts.client;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+
+import net.bioclipse.openphacts.model.CacheStatistics;
+
+/**
+ * A persistent, size bounded cache of LDA responses. Every response is kept
+ * in its own file, named after the SHA-1 of the request key. Entries older
+ * than the time to live are dropped when they are read, and the least
+ * recently used entries are evicted when the cache grows beyond its maximum
+ * size. Access order is stored in the file modification time, so that it
+ * survives restarts.
+ *
+ * @author ola
+ */
+public class ResponseCache {
+
+	private static final Logger logger = Logger.getLogger(ResponseCache.class);
+	private static final String SUFFIX = ".cache";
+
+	private final File directory;
+	private final long maxSize;
+	private final long timeToLive;
+
+	// file name -> size in bytes, in least recently used order
+	private final LinkedHashMap<String, Long> index =
+		new LinkedHashMap<String, Long>(16, 0.75f, true);
+	private long size;
+	private long hits;
+	private long misses;
+	private long evictions;
+	private long expirations;
+
+	/**
+	 * @param directory  directory the responses are stored in
+	 * @param maxSize    maximum total size of the stored responses, in bytes
+	 * @param timeToLive maximum age of a stored response, in milliseconds
+	 */
+	public ResponseCache(File directory, long maxSize, long timeToLive) {
+		this.directory = directory;
+		this.maxSize = maxSize;
+		this.timeToLive = timeToLive;
+		if (!directory.exists() && !directory.mkdirs())
+			logger.warn("Could not create the cache directory: " + directory);
+		load();
+	}
+
+	private void load() {
+		File[] files = directory.listFiles();
+		if (files == null) return;
+		Arrays.sort(files, new Comparator<File>() {
+			public int compare(File file1, File file2) {
+				long diff = file1.lastModified() - file2.lastModified();
+				return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+			}
+		});
+		for (File file : files) {
+			if (file.getName().endsWith(".tmp")) file.delete();
+			if (!file.getName().endsWith(SUFFIX)) continue;
+			index.put(file.getName(), file.length());
+			size += file.length();
+		}
+		evict();
+	}
+
+	/**
+	 * Returns the stored response for the given request key, or null if the
+	 * response is not cached or has expired.
+	 */
+	public String get(String key) {
+		String name = getFileName(key);
+		synchronized (this) {
+			if (!index.containsKey(name)) {
+				misses++;
+				return null;
+			}
+		}
+		File file = new File(directory, name);
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(
+				new InputStreamReader(new FileInputStream(file), "UTF-8")
+			);
+			String storedKey = reader.readLine();
+			long created = Long.parseLong(reader.readLine());
+			if (!escape(key).equals(storedKey)) {
+				// SHA-1 collision, or a corrupt file
+				synchronized (this) { misses++; }
+				return null;
+			}
+			if (System.currentTimeMillis() - created > timeToLive) {
+				synchronized (this) {
+					remove(name);
+					expirations++;
+					misses++;
+				}
+				return null;
+			}
+			String response = IOUtils.toString(reader);
+			file.setLastModified(System.currentTimeMillis());
+			synchronized (this) {
+				index.get(name); // marks the entry as recently used
+				hits++;
+			}
+			return response;
+		} catch (Exception exception) {
+			// evicted while reading, or unreadable: treat as a miss
+			logger.debug("Could not read cached response: " + exception.getMessage());
+			synchronized (this) {
+				remove(name);
+				misses++;
+			}
+			return null;
+		} finally {
+			IOUtils.closeQuietly(reader);
+		}
+	}
+
+	/**
+	 * Stores the response for the given request key, evicting the least
+	 * recently used responses if needed.
+	 */
+	public void put(String key, String response) {
+		String name = getFileName(key);
+		File file = new File(directory, name);
+		File temp = new File(directory, name + "." + Thread.currentThread().getId() + ".tmp");
+		Writer writer = null;
+		try {
+			writer = new OutputStreamWriter(new FileOutputStream(temp), "UTF-8");
+			writer.write(escape(key));
+			writer.write('\n');
+			writer.write(Long.toString(System.currentTimeMillis()));
+			writer.write('\n');
+			writer.write(response);
+			writer.close();
+			writer = null;
+			synchronized (this) {
+				remove(name);
+				if (!temp.renameTo(file)) {
+					logger.debug("Could not store cached response for: " + key);
+					return;
+				}
+				index.put(name, file.length());
+				size += file.length();
+				evict();
+			}
+		} catch (IOException exception) {
+			logger.debug("Could not store cached response: " + exception.getMessage());
+		} finally {
+			IOUtils.closeQuietly(writer);
+			if (temp.exists()) temp.delete();
+		}
+	}
+
+	/**
+	 * Removes all stored responses.
+	 */
+	public synchronized void clear() {
+		for (String name : index.keySet())
+			new File(directory, name).delete();
+		index.clear();
+		size = 0;
+	}
+
+	public synchronized CacheStatistics getStatistics() {
+		return new CacheStatistics(
+			hits, misses, evictions, expirations, index.size(), size
+		);
+	}
+
+	private void remove(String name) {
+		Long length = index.remove(name);
+		if (length != null) {
+			size -= length;
+			new File(directory, name).delete();
+		}
+	}
+
+	private void evict() {
+		Iterator<Map.Entry<String, Long>> entries = index.entrySet().iterator();
+		while (size > maxSize && entries.hasNext()) {
+			Map.Entry<String, Long> eldest = entries.next();
+			entries.remove();
+			size -= eldest.getValue();
+			new File(directory, eldest.getKey()).delete();
+			evictions++;
+		}
+	}
+
+	private static String escape(String key) {
+		return key.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r");
+	}
+
+	private static String getFileName(String key) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes("UTF-8"));
+			StringBuilder name = new StringBuilder();
+			for (byte b : digest)
+				name.append(Integer.toHexString((b & 0xff) | 0x100).substring(1));
+			return name.append(SUFFIX).toString();
+		} catch (NoSuchAlgorithmException exception) {
+			throw new IllegalStateException(exception);
+		} catch (IOException exception) {
+			throw new IllegalStateException(exception);
+		}
+	}
+
+}
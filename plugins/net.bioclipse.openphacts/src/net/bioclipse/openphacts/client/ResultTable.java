@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright (c) 2012  Ola Spjuth <ola.spjuth@gmail.com>
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contact: http://www.bioclipse.net/
+ ******************************************************************************/
+package net.bioclipse.openphacts.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Rows of values extracted from an LDA response, one column per variable of
+ * the {@link ResultTemplate} that produced it. Like
+ * <code>IStringMatrix</code>, rows are numbered from 1, and a value is null
+ * if its variable was not bound.
+ *
+ * @author ola
+ */
+public class ResultTable {
+
+	private final List<String> columns;
+	private final List<String[]> rows = new ArrayList<String[]>();
+
+	public ResultTable(List<String> columns) {
+		this.columns = columns;
+	}
+
+	public List<String> getColumnNames() {
+		return columns;
+	}
+
+	public int getRowCount() {
+		return rows.size();
+	}
+
+	/**
+	 * @param row    row number, starting at 1
+	 * @param column variable name, without the question mark
+	 */
+	public String get(int row, String column) {
+		int index = columns.indexOf(column);
+		if (index == -1)
+			throw new IllegalArgumentException("No such column: " + column);
+		return rows.get(row-1)[index];
+	}
+
+	public List<String> getColumn(String column) {
+		List<String> values = new ArrayList<String>(rows.size());
+		for (int row=1; row<=rows.size(); row++)
+			values.add(get(row, column));
+		return values;
+	}
+
+	/**
+	 * Adds a row, with the values in the order of the columns.
+	 */
+	public void addRow(String... values) {
+		if (values.length != columns.size())
+			throw new IllegalArgumentException(
+				"Expected " + columns.size() + " values, but got " + values.length);
+		rows.add(values);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder table = new StringBuilder(columns.toString());
+		for (String[] row : rows)
+			table.append('\n').append(Arrays.toString(row));
+		return table.toString();
+	}
+
+}
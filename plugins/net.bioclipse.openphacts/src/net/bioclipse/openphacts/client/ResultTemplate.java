@@ -0,0 +1,318 @@
+/*******************************************************************************
+ * Copyright (c) 2012  Ola Spjuth <ola.spjuth@gmail.com>
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contact: http://www.bioclipse.net/
+ ******************************************************************************/
+package net.bioclipse.openphacts.client;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A SPARQL SELECT query over an LDA response, together with the equivalent
+ * triple patterns. The patterns allow {@link #extract(Reader)} to pull the
+ * result rows straight out of the Turtle with the {@link TurtleParser}, or
+ * {@link #extractJSON(Reader)} out of the JSON with the
+ * {@link LDAJsonParser}: only triples with a predicate used in the patterns
+ * are kept, and no triple store or SPARQL engine is involved. The rows are
+ * the same as those of the SPARQL query, though not necessarily in the same
+ * order.
+ *
+ * <p>Subjects and objects starting with a question mark are variables; the
+ * first pattern must be a required one, and all later patterns must have a
+ * subject bound by an earlier pattern. Predicates can only be variables in
+ * templates that are answered with SPARQL, see
+ * {@link #extract(String, QueryEngine)}.
+ *
+ * @author ola
+ */
+public class ResultTemplate {
+
+	private static final Logger logger = Logger.getLogger(ResultTemplate.class);
+
+	/**
+	 * Runs the SPARQL query of a template over a Turtle document, for what
+	 * streaming extraction cannot answer.
+	 */
+	public interface QueryEngine {
+		ResultTable select(String turtle, ResultTemplate template) throws Exception;
+	}
+
+	private final String query;
+	private final List<String> variables;
+	private final List<String[]> required = new ArrayList<String[]>();
+	private final List<List<String[]>> optionals = new ArrayList<List<String[]>>();
+	private final Set<String> predicates = new HashSet<String>();
+	// compiled on first use, and again after patterns are added
+	private volatile Plan plan;
+
+	/**
+	 * @param query     the SPARQL query this template stands for
+	 * @param variables the selected variables, without question mark
+	 */
+	public ResultTemplate(String query, String... variables) {
+		this.query = query;
+		this.variables = Collections.unmodifiableList(Arrays.asList(variables));
+	}
+
+	/**
+	 * Adds a required triple pattern.
+	 */
+	public ResultTemplate where(String subject, String predicate, String object) {
+		required.add(new String[] { subject, predicate, object });
+		predicates.add(predicate);
+		plan = null;
+		return this;
+	}
+
+	/**
+	 * Adds an OPTIONAL group, given as subject, predicate, object triples.
+	 */
+	public ResultTemplate optional(String... patterns) {
+		if (patterns.length % 3 != 0)
+			throw new IllegalArgumentException("Patterns must be given as triples");
+		List<String[]> group = new ArrayList<String[]>();
+		for (int i=0; i<patterns.length; i+=3) {
+			group.add(new String[] { patterns[i], patterns[i+1], patterns[i+2] });
+			predicates.add(patterns[i+1]);
+		}
+		optionals.add(group);
+		plan = null;
+		return this;
+	}
+
+	public String getQuery() {
+		return query;
+	}
+
+	public List<String> getVariables() {
+		return variables;
+	}
+
+	/**
+	 * Returns whether the rows can be pulled out while streaming through a
+	 * response. They cannot when a predicate is a variable, as only the
+	 * triples with a predicate used in the patterns are kept.
+	 */
+	public boolean isStreamable() {
+		for (String predicate : predicates)
+			if (isVariable(predicate)) return false;
+		return true;
+	}
+
+	/**
+	 * Pulls the result rows out of the Turtle while streaming through it, or
+	 * runs the SPARQL query with the given engine when this template is not
+	 * streamable, or when the Turtle uses syntax the {@link TurtleParser}
+	 * does not read.
+	 */
+	public ResultTable extract(String turtle, QueryEngine sparql) throws Exception {
+		if (!isStreamable()) return sparql.select(turtle, this);
+		try {
+			return extract(turtle);
+		} catch (IOException exception) {
+			logger.debug("Running SPARQL instead of streaming: " + exception.getMessage());
+			return sparql.select(turtle, this);
+		}
+	}
+
+	public ResultTable extract(String turtle) throws IOException {
+		return extract(new StringReader(turtle));
+	}
+
+	public ResultTable extract(Reader turtle) throws IOException {
+		checkStreamable();
+		Map<String, Map<String, List<String>>> index = new HashMap<String, Map<String, List<String>>>();
+		new TurtleParser(turtle, indexer(index)).parse();
+		return solve(index);
+	}
+
+	/**
+	 * Pulls the result rows out of a response in the JSON format of the LDA
+	 * API, see {@link LDAJsonParser}. The rows are the same as for the
+	 * Turtle of the same response.
+	 */
+	public ResultTable extractJSON(String json) throws IOException {
+		return extractJSON(new StringReader(json));
+	}
+
+	public ResultTable extractJSON(Reader json) throws IOException {
+		checkStreamable();
+		Map<String, Map<String, List<String>>> index = new HashMap<String, Map<String, List<String>>>();
+		new LDAJsonParser(json, predicates, indexer(index)).parse();
+		return solve(index);
+	}
+
+	private void checkStreamable() {
+		if (!isStreamable())
+			throw new IllegalStateException("Variable predicates need SPARQL: " + query);
+	}
+
+	/**
+	 * Returns a handler that adds the triples with the predicates we need to
+	 * the index, by predicate, subject and object.
+	 */
+	private TurtleParser.TripleHandler indexer(final Map<String, Map<String, List<String>>> index) {
+		return new TurtleParser.TripleHandler() {
+			public void triple(String subject, String predicate, String object, boolean literal) {
+				if (!predicates.contains(predicate)) return;
+				Map<String, List<String>> subjects = index.get(predicate);
+				if (subjects == null) {
+					subjects = new LinkedHashMap<String, List<String>>();
+					index.put(predicate, subjects);
+				}
+				List<String> objects = subjects.get(subject);
+				if (objects == null) {
+					objects = new ArrayList<String>(1);
+					subjects.put(subject, objects);
+				}
+				// a graph is a set: repeated triples match only once
+				if (!objects.contains(object)) objects.add(object);
+			}
+		};
+	}
+
+	private ResultTable solve(Map<String, Map<String, List<String>>> index) {
+		Plan plan = getPlan();
+		List<String[]> solutions = new ArrayList<String[]>();
+		solutions.add(new String[plan.slots]);
+		for (Pattern pattern : plan.required)
+			solutions = match(index, pattern, solutions);
+		for (Pattern[] group : plan.optionals) {
+			List<String[]> extended = new ArrayList<String[]>();
+			for (String[] solution : solutions) {
+				List<String[]> groupSolutions = Collections.singletonList(solution);
+				for (Pattern pattern : group)
+					groupSolutions = match(index, pattern, groupSolutions);
+				if (groupSolutions.isEmpty()) extended.add(solution);
+				else extended.addAll(groupSolutions);
+			}
+			solutions = extended;
+		}
+
+		ResultTable table = new ResultTable(variables);
+		for (String[] solution : solutions)
+			table.addRow(Arrays.copyOf(solution, variables.size()));
+		return table;
+	}
+
+	/**
+	 * A triple pattern with its variables replaced by slots in the array of
+	 * a solution, or -1 for a term that is not a variable.
+	 */
+	private static class Pattern {
+		final String subject, predicate, object;
+		final int subjectSlot, objectSlot;
+
+		Pattern(String[] pattern, Map<String, Integer> slots) {
+			subject = pattern[0];
+			predicate = pattern[1];
+			object = pattern[2];
+			subjectSlot = slot(subject, slots);
+			objectSlot = slot(object, slots);
+		}
+
+		private static int slot(String term, Map<String, Integer> slots) {
+			if (!isVariable(term)) return -1;
+			String variable = term.substring(1);
+			Integer slot = slots.get(variable);
+			if (slot == null) {
+				slot = slots.size();
+				slots.put(variable, slot);
+			}
+			return slot;
+		}
+	}
+
+	/**
+	 * The patterns of the template, compiled once: solutions are arrays with
+	 * the selected variables first, in order, followed by the others.
+	 */
+	private static class Plan {
+		final List<Pattern> required = new ArrayList<Pattern>();
+		final List<Pattern[]> optionals = new ArrayList<Pattern[]>();
+		final int slots;
+
+		Plan(List<String> variables, List<String[]> required, List<List<String[]>> optionals) {
+			Map<String, Integer> slots = new HashMap<String, Integer>();
+			for (String variable : variables) slots.put(variable, slots.size());
+			for (String[] pattern : required)
+				this.required.add(new Pattern(pattern, slots));
+			for (List<String[]> group : optionals) {
+				Pattern[] patterns = new Pattern[group.size()];
+				for (int i=0; i<patterns.length; i++)
+					patterns[i] = new Pattern(group.get(i), slots);
+				this.optionals.add(patterns);
+			}
+			this.slots = slots.size();
+		}
+	}
+
+	private Plan getPlan() {
+		Plan compiled = plan;
+		if (compiled == null) {
+			synchronized (this) {
+				compiled = plan;
+				if (compiled == null) {
+					compiled = new Plan(variables, required, optionals);
+					plan = compiled;
+				}
+			}
+		}
+		return compiled;
+	}
+
+	private static List<String[]> match(
+			Map<String, Map<String, List<String>>> index, Pattern pattern,
+			List<String[]> solutions) {
+		List<String[]> matches = new ArrayList<String[]>();
+		Map<String, List<String>> subjects = index.get(pattern.predicate);
+		if (subjects == null) return matches;
+		for (String[] solution : solutions) {
+			String subject = pattern.subjectSlot == -1 ? pattern.subject : solution[pattern.subjectSlot];
+			if (subject != null) {
+				List<String> objects = subjects.get(subject);
+				if (objects != null)
+					addMatches(pattern, solution, subject, objects, matches);
+			} else {
+				for (Map.Entry<String, List<String>> entry : subjects.entrySet())
+					addMatches(pattern, solution, entry.getKey(), entry.getValue(), matches);
+			}
+		}
+		return matches;
+	}
+
+	private static void addMatches(Pattern pattern, String[] solution,
+			String subject, List<String> objects, List<String[]> matches) {
+		String object = pattern.objectSlot == -1 ? pattern.object : solution[pattern.objectSlot];
+		for (String candidate : objects) {
+			if (object != null && !object.equals(candidate)) continue;
+			String[] match = solution.clone();
+			if (pattern.subjectSlot != -1) match[pattern.subjectSlot] = subject;
+			if (pattern.objectSlot != -1) match[pattern.objectSlot] = candidate;
+			matches.add(match);
+		}
+	}
+
+	private static boolean isVariable(String term) {
+		return term.startsWith("?");
+	}
+
+}
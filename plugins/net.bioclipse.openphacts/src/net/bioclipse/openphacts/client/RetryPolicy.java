@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (c) 2012  Ola Spjuth <ola.spjuth@gmail.com>
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contact: http://www.bioclipse.net/
+ ******************************************************************************/
+package net.bioclipse.openphacts.client;
+
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.conn.ConnectTimeoutException;
+
+/**
+ * Decides which failed requests are worth trying again, and how long to
+ * wait before doing so. Timeouts, refused or dropped connections, HTTP 429
+ * (too many requests) and HTTP 5xx are transient; anything else, like a
+ * 404 for an unknown URI, is not.
+ *
+ * <p>Delays grow exponentially with every retry, up to a maximum, and are
+ * randomized over the whole range ("full jitter"), so that the requests of
+ * a failed batch do not all come back at the same moment.
+ *
+ * @author ola
+ */
+public class RetryPolicy {
+
+	// ops4j only reports the status in the message of its HttpException
+	private static final Pattern STATUS = Pattern.compile("Expected HTTP 200, but got a ?(\\d{3})");
+
+	private final int maxRetries;
+	private final long baseDelay;
+	private final long maxDelay;
+	private final Random random = new Random();
+
+	/**
+	 * @param maxRetries maximum number of times a request is tried again
+	 * @param baseDelay  upper bound of the delay before the first retry, in
+	 *                   milliseconds
+	 * @param maxDelay   upper bound of any delay, in milliseconds
+	 */
+	public RetryPolicy(int maxRetries, long baseDelay, long maxDelay) {
+		if (maxRetries < 0)
+			throw new IllegalArgumentException("The number of retries cannot be negative");
+		this.maxRetries = maxRetries;
+		this.baseDelay = baseDelay;
+		this.maxDelay = maxDelay;
+	}
+
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+
+	/**
+	 * Returns whether the request that failed with the given exception may
+	 * succeed when tried again.
+	 */
+	public boolean isTransient(Throwable failure) {
+		for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+			if (cause instanceof SocketTimeoutException ||
+					cause instanceof ConnectTimeoutException ||
+					cause instanceof ConnectException ||
+					cause instanceof NoHttpResponseException)
+				return true;
+			// any other interruption is a cancellation
+			if (cause instanceof InterruptedIOException)
+				return false;
+			int status = getStatus(cause);
+			if (status == 429 || (status >= 500 && status < 600))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the time to wait before the given retry, counting from 0, in
+	 * milliseconds.
+	 */
+	public long getDelay(int retry) {
+		long ceiling = baseDelay << Math.min(retry, 30);
+		if (ceiling <= 0 || ceiling > maxDelay) ceiling = maxDelay;
+		synchronized (random) {
+			return (long)(random.nextDouble() * ceiling);
+		}
+	}
+
+	/**
+	 * Returns the HTTP status of a failed request, or -1 if the exception
+	 * does not tell.
+	 */
+	public static int getStatus(Throwable failure) {
+		for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+			if (cause.getMessage() == null) continue;
+			Matcher matcher = STATUS.matcher(cause.getMessage());
+			if (matcher.find()) return Integer.parseInt(matcher.group(1));
+		}
+		return -1;
+	}
+
+}
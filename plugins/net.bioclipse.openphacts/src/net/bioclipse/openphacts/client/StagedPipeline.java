@@ -0,0 +1,301 @@
+/*******************************************************************************
+ * Copyright (c) 2012  Ola Spjuth <ola.spjuth@gmail.com>
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contact: http://www.bioclipse.net/
+ ******************************************************************************/
+package net.bioclipse.openphacts.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.bioclipse.openphacts.model.StageStatistics;
+
+/**
+ * Runs items through a chain of stages, for example fetch, parse and build.
+ * Every stage has its own pool of worker threads and reads from a bounded
+ * queue, so that a stage that falls behind makes the earlier stages wait
+ * instead of piling up work. While the network is busy with one item, the
+ * CPU can parse and build earlier ones, and the throughput is limited by the
+ * slowest stage rather than by the sum of all stages.
+ *
+ * <p>Results come out in the order they complete; each carries a key that
+ * gives its position in the input, see {@link Result#compareTo(Result)}.
+ *
+ * @author ola
+ */
+public class StagedPipeline {
+
+	/**
+	 * The work done by a stage for a single item.
+	 */
+	public interface Worker {
+		Object process(Object input) throws Exception;
+	}
+
+	/**
+	 * The outcome for a single item: either a value or the error that
+	 * stopped the item in one of the stages.
+	 */
+	public static class Result implements Comparable<Result> {
+
+		private final int[] key;
+		private final Object value;
+		private final Exception error;
+
+		Result(int[] key, Object value, Exception error) {
+			this.key = key;
+			this.value = value;
+			this.error = error;
+		}
+
+		/**
+		 * Index of the input item this result came from.
+		 */
+		public int getIndex() {
+			return key[0];
+		}
+
+		public Object getValue() {
+			return value;
+		}
+
+		public Exception getError() {
+			return error;
+		}
+
+		/**
+		 * Orders results by input position, and by position within the
+		 * output of splitting stages.
+		 */
+		public int compareTo(Result other) {
+			for (int i=0; i<Math.min(key.length, other.key.length); i++)
+				if (key[i] != other.key[i]) return key[i] < other.key[i] ? -1 : 1;
+			return key.length - other.key.length;
+		}
+	}
+
+	private static class Item {
+		final int[] key;
+		final Object value;
+
+		Item(int[] key, Object value) {
+			this.key = key;
+			this.value = value;
+		}
+	}
+
+	private class Stage {
+		final String name;
+		final int threads;
+		final boolean splitting;
+		final Worker worker;
+		final BlockingQueue<Item> queue;
+		final AtomicLong processed = new AtomicLong();
+		ExecutorService executor;
+
+		Stage(String name, int threads, int capacity, boolean splitting, Worker worker) {
+			this.name = name;
+			this.threads = threads;
+			this.splitting = splitting;
+			this.worker = worker;
+			this.queue = new ArrayBlockingQueue<Item>(capacity);
+		}
+	}
+
+	private final String name;
+	private final List<Stage> stages = new ArrayList<Stage>();
+	private final BlockingQueue<Result> results = new LinkedBlockingQueue<Result>();
+	private final AtomicInteger pending = new AtomicInteger();
+	private Thread feeder;
+	private long started;
+
+	/**
+	 * @param name the name of the operation the pipeline runs, which its
+	 *             statistics are reported under
+	 */
+	public StagedPipeline(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Adds a stage that turns each item into a single new item.
+	 *
+	 * @param capacity the number of items that can wait for this stage
+	 */
+	public StagedPipeline stage(String name, int threads, int capacity, Worker worker) {
+		stages.add(new Stage(name, threads, capacity, false, worker));
+		return this;
+	}
+
+	/**
+	 * Adds a stage whose worker returns a {@link List}; every element of the
+	 * list continues through the pipeline as an item of its own.
+	 */
+	public StagedPipeline splittingStage(String name, int threads, int capacity, Worker worker) {
+		stages.add(new Stage(name, threads, capacity, true, worker));
+		return this;
+	}
+
+	/**
+	 * Starts the stages and feeds them the given inputs. Returns immediately;
+	 * use {@link #poll(long, TimeUnit)} to collect the results.
+	 */
+	public void start(final List<?> inputs) {
+		if (stages.isEmpty())
+			throw new IllegalStateException("The pipeline has no stages");
+		started = System.nanoTime();
+		pending.set(inputs.size());
+		for (int i=0; i<stages.size(); i++) {
+			final Stage stage = stages.get(i);
+			final int index = i;
+			stage.executor = Executors.newFixedThreadPool(stage.threads);
+			for (int thread=0; thread<stage.threads; thread++) {
+				stage.executor.execute(new Runnable() {
+					public void run() {
+						work(index);
+					}
+				});
+			}
+		}
+		feeder = new Thread("Pipeline feeder") {
+			public void run() {
+				try {
+					for (int i=0; i<inputs.size(); i++)
+						stages.get(0).queue.put(new Item(new int[] { i }, inputs.get(i)));
+				} catch (InterruptedException exception) {
+					// canceled
+				}
+			}
+		};
+		feeder.setDaemon(true);
+		feeder.start();
+	}
+
+	/**
+	 * Takes items off the queue of the stage until the pipeline is shut
+	 * down. Whatever goes wrong with an item, it is finished with an error,
+	 * so that {@link #isDone()} is reached.
+	 */
+	private void work(int index) {
+		Stage stage = stages.get(index);
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				Item item = stage.queue.take();
+				List<?> parts = null;
+				int forwarded = 0;
+				try {
+					Object output;
+					try {
+						output = stage.worker.process(item.value);
+					} finally {
+						stage.processed.incrementAndGet();
+					}
+					if (stage.splitting) {
+						parts = (List<?>)output;
+						pending.addAndGet(parts.size() - 1);
+						for (; forwarded<parts.size(); forwarded++)
+							forward(index, getKey(item.key, forwarded), parts.get(forwarded));
+					} else {
+						forward(index, item.key, output);
+					}
+				} catch (InterruptedException exception) {
+					return;
+				} catch (Throwable failure) {
+					Exception error = failure instanceof Exception ?
+						(Exception)failure : new ExecutionException(failure);
+					if (parts == null) {
+						finish(item.key, null, error);
+					} else {
+						// the parts that were not passed on yet
+						for (int part=forwarded; part<parts.size(); part++)
+							finish(getKey(item.key, part), null, error);
+					}
+				}
+			}
+		} catch (InterruptedException exception) {
+			// canceled, or done
+		}
+	}
+
+	/**
+	 * Returns the key of a part of the output of a splitting stage.
+	 */
+	private static int[] getKey(int[] key, int part) {
+		int[] partKey = new int[key.length + 1];
+		System.arraycopy(key, 0, partKey, 0, key.length);
+		partKey[key.length] = part;
+		return partKey;
+	}
+
+	private void forward(int index, int[] key, Object value) throws InterruptedException {
+		if (index == stages.size() - 1) finish(key, value, null);
+		else stages.get(index + 1).queue.put(new Item(key, value));
+	}
+
+	private void finish(int[] key, Object value, Exception error) {
+		results.add(new Result(key, value, error));
+		pending.decrementAndGet();
+	}
+
+	/**
+	 * Waits up to the given time for the next result.
+	 *
+	 * @return the result, or null if none came in time or all are done
+	 */
+	public Result poll(long timeout, TimeUnit unit) throws InterruptedException {
+		if (isDone()) return null;
+		return results.poll(timeout, unit);
+	}
+
+	/**
+	 * Returns true when every result has been collected.
+	 */
+	public boolean isDone() {
+		return pending.get() == 0 && results.isEmpty();
+	}
+
+	/**
+	 * Stops all stages. Must be called when the pipeline is no longer needed,
+	 * whether or not all results were collected.
+	 */
+	public void shutdown() {
+		if (feeder != null) feeder.interrupt();
+		for (Stage stage : stages)
+			if (stage.executor != null) stage.executor.shutdownNow();
+	}
+
+	/**
+	 * Returns the queue depth and throughput of every stage.
+	 */
+	public List<StageStatistics> getStatistics() {
+		double seconds = (System.nanoTime() - started) / 1e9;
+		List<StageStatistics> statistics = new ArrayList<StageStatistics>();
+		for (Stage stage : stages) {
+			long processed = stage.processed.get();
+			statistics.add(new StageStatistics(
+				name, stage.name, stage.threads, stage.queue.size(), processed,
+				seconds > 0 ? processed / seconds : 0
+			));
+		}
+		return statistics;
+	}
+
+}
@@ -0,0 +1,439 @@
+/*******************************************************************************
+ * Copyright (c) 2012  Ola Spjuth <ola.spjuth@gmail.com>
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contact: http://www.bioclipse.net/
+ ******************************************************************************/
+package net.bioclipse.openphacts.client;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A small streaming Turtle parser. It reads the document once, from start to
+ * end, and hands every triple to a {@link TripleHandler} as soon as it is
+ * complete, without building any model in memory. Literals are reported with
+ * their lexical form; language tags and datatypes are dropped.
+ *
+ * @author ola
+ */
+public class TurtleParser {
+
+	private static final String RDF = "http://www.w3.org/1999/02/22-rdf-syntax-ns#";
+
+	/**
+	 * Receives the triples found by the parser.
+	 */
+	public interface TripleHandler {
+		/**
+		 * @param subject   IRI or blank node label (starting with "_:")
+		 * @param predicate IRI
+		 * @param object    IRI, blank node label, or lexical form of a literal
+		 * @param literal   true if the object is a literal
+		 */
+		void triple(String subject, String predicate, String object, boolean literal);
+	}
+
+	private final Reader reader;
+	private final TripleHandler handler;
+	private final Map<String, String> prefixes = new HashMap<String, String>();
+	private String base = "";
+	private int blankNodes = 0;
+	private int line = 1;
+
+	private final char[] buffer = new char[8192];
+	private int position = 0;
+	private int limit = 0;
+
+	// set by readObject(), as objects can be both IRIs and literals
+	private boolean lastWasLiteral;
+
+	public TurtleParser(Reader reader, TripleHandler handler) {
+		this.reader = reader;
+		this.handler = handler;
+	}
+
+	/**
+	 * Parses the whole document.
+	 */
+	public void parse() throws IOException {
+		while (true) {
+			skipWhitespace();
+			int c = peek(0);
+			if (c == -1) return;
+			if (c == '@') {
+				read();
+				String directive = readWord();
+				if ("prefix".equals(directive)) readPrefix();
+				else if ("base".equals(directive)) readBase();
+				else throw error("Unknown directive @" + directive);
+				skipWhitespace();
+				expect('.');
+			} else if (startsWithKeyword("PREFIX")) {
+				readWord();
+				readPrefix();
+			} else if (startsWithKeyword("BASE")) {
+				readWord();
+				readBase();
+			} else {
+				readTriples();
+				skipWhitespace();
+				expect('.');
+			}
+		}
+	}
+
+	private void readPrefix() throws IOException {
+		skipWhitespace();
+		StringBuilder prefix = new StringBuilder();
+		while (peek(0) != ':') {
+			if (peek(0) == -1) throw error("Unexpected end of prefix declaration");
+			prefix.append((char)read());
+		}
+		read();
+		skipWhitespace();
+		prefixes.put(prefix.toString().trim(), readIRI());
+	}
+
+	private void readBase() throws IOException {
+		skipWhitespace();
+		base = readIRI();
+	}
+
+	private void readTriples() throws IOException {
+		int c = peek(0);
+		String subject;
+		if (c == '[') {
+			subject = readBlankNodePropertyList();
+			skipWhitespace();
+			if (peek(0) == '.') return;
+		} else if (c == '(') {
+			subject = readCollection();
+		} else {
+			subject = readResource();
+		}
+		readPredicateObjectList(subject);
+	}
+
+	private void readPredicateObjectList(String subject) throws IOException {
+		while (true) {
+			skipWhitespace();
+			int c = peek(0);
+			if (c == '.' || c == ']' || c == -1) return;
+			String predicate = readVerb();
+			readObjectList(subject, predicate);
+			skipWhitespace();
+			if (peek(0) != ';') return;
+			while (peek(0) == ';') {
+				read();
+				skipWhitespace();
+			}
+		}
+	}
+
+	private void readObjectList(String subject, String predicate) throws IOException {
+		while (true) {
+			skipWhitespace();
+			String object = readObject();
+			handler.triple(subject, predicate, object, lastWasLiteral);
+			skipWhitespace();
+			if (peek(0) != ',') return;
+			read();
+		}
+	}
+
+	private String readVerb() throws IOException {
+		if (peek(0) == 'a' && isDelimiter(peek(1))) {
+			read();
+			return RDF + "type";
+		}
+		return readResource();
+	}
+
+	private String readObject() throws IOException {
+		lastWasLiteral = false;
+		int c = peek(0);
+		if (c == '"' || c == '\'') {
+			String value = readString();
+			if (peek(0) == '@') {
+				read();
+				while (isNameChar(peek(0))) read();
+			} else if (peek(0) == '^' && peek(1) == '^') {
+				read(); read();
+				readResource();
+			}
+			lastWasLiteral = true;
+			return value;
+		}
+		if (c == '[') {
+			String node = readBlankNodePropertyList();
+			// the objects inside the brackets set it too
+			lastWasLiteral = false;
+			return node;
+		}
+		if (c == '(') return readCollection();
+		if (c == '+' || c == '-' || c == '.' || (c >= '0' && c <= '9')) {
+			lastWasLiteral = true;
+			return readNumber();
+		}
+		if (startsWithKeyword("true") || startsWithKeyword("false")) {
+			lastWasLiteral = true;
+			return readWord();
+		}
+		return readResource();
+	}
+
+	private String readResource() throws IOException {
+		int c = peek(0);
+		if (c == '<') return readIRI();
+		if (c == '_' && peek(1) == ':') {
+			read(); read();
+			return "_:" + readLocalName();
+		}
+		return readPrefixedName();
+	}
+
+	private String readBlankNodePropertyList() throws IOException {
+		expect('[');
+		String node = newBlankNode();
+		skipWhitespace();
+		if (peek(0) != ']') readPredicateObjectList(node);
+		skipWhitespace();
+		expect(']');
+		return node;
+	}
+
+	private String readCollection() throws IOException {
+		expect('(');
+		String head = RDF + "nil";
+		String previous = null;
+		while (true) {
+			skipWhitespace();
+			if (peek(0) == ')') {
+				read();
+				break;
+			}
+			String node = newBlankNode();
+			if (previous == null) head = node;
+			else handler.triple(previous, RDF + "rest", node, false);
+			String item = readObject();
+			handler.triple(node, RDF + "first", item, lastWasLiteral);
+			previous = node;
+		}
+		if (previous != null) handler.triple(previous, RDF + "rest", RDF + "nil", false);
+		lastWasLiteral = false;
+		return head;
+	}
+
+	private String readIRI() throws IOException {
+		expect('<');
+		StringBuilder iri = new StringBuilder();
+		while (true) {
+			int c = read();
+			if (c == -1) throw error("Unexpected end of IRI");
+			if (c == '>') break;
+			if (c == '\\') iri.append(readEscape());
+			else iri.append((char)c);
+		}
+		return resolve(iri.toString());
+	}
+
+	private String resolve(String iri) {
+		if (base.length() == 0 || iri.matches("^[a-zA-Z][a-zA-Z0-9+.-]*:.*")) return iri;
+		if (iri.length() == 0) return base;
+		if (iri.startsWith("#")) {
+			int hash = base.indexOf('#');
+			return (hash == -1 ? base : base.substring(0, hash)) + iri;
+		}
+		return base.substring(0, base.lastIndexOf('/') + 1) + iri;
+	}
+
+	private String readPrefixedName() throws IOException {
+		StringBuilder prefix = new StringBuilder();
+		while (peek(0) != ':') {
+			int c = peek(0);
+			if (!isNameChar(c)) throw error("Unexpected character '" + (char)c + "'");
+			prefix.append((char)read());
+		}
+		read();
+		String namespace = prefixes.get(prefix.toString());
+		if (namespace == null) throw error("Undeclared prefix: " + prefix);
+		return namespace + readLocalName();
+	}
+
+	private String readLocalName() throws IOException {
+		StringBuilder name = new StringBuilder();
+		while (true) {
+			int c = peek(0);
+			if (c == '\\') {
+				read();
+				name.append((char)read());
+			} else if (c == '%' || c == ':' || isNameChar(c)) {
+				name.append((char)read());
+			} else if (c == '.' && (isNameChar(peek(1)) || peek(1) == ':' || peek(1) == '%')) {
+				// a dot can only be part of a name when it is not the last character
+				name.append((char)read());
+			} else {
+				return name.toString();
+			}
+		}
+	}
+
+	private String readString() throws IOException {
+		int quote = read();
+		boolean longString = peek(0) == quote && peek(1) == quote;
+		if (longString) {
+			read(); read();
+		} else if (peek(0) == quote) {
+			read();
+			return "";
+		}
+		StringBuilder value = new StringBuilder();
+		while (true) {
+			int c = read();
+			if (c == -1) throw error("Unexpected end of string");
+			if (c == '\\') {
+				value.append(readEscape());
+			} else if (c == quote) {
+				if (!longString) return value.toString();
+				if (peek(0) == quote && peek(1) == quote) {
+					read(); read();
+					// quotes directly before the closing ones belong to the string
+					while (peek(0) == quote) {
+						value.append((char)quote);
+						read();
+					}
+					return value.toString();
+				}
+				value.append((char)c);
+			} else {
+				value.append((char)c);
+			}
+		}
+	}
+
+	private String readEscape() throws IOException {
+		int c = read();
+		switch (c) {
+			case 't': return "\t";
+			case 'b': return "\b";
+			case 'n': return "\n";
+			case 'r': return "\r";
+			case 'f': return "\f";
+			case 'u': return new String(Character.toChars(readHex(4)));
+			case 'U': return new String(Character.toChars(readHex(8)));
+			case -1: throw error("Unexpected end of escape sequence");
+			default: return String.valueOf((char)c);
+		}
+	}
+
+	private int readHex(int length) throws IOException {
+		StringBuilder hex = new StringBuilder();
+		for (int i=0; i<length; i++) hex.append((char)read());
+		try {
+			return Integer.parseInt(hex.toString(), 16);
+		} catch (NumberFormatException exception) {
+			throw error("Invalid escape sequence: " + hex);
+		}
+	}
+
+	private String readNumber() throws IOException {
+		StringBuilder number = new StringBuilder();
+		while (true) {
+			int c = peek(0);
+			if ((c >= '0' && c <= '9') || c == '+' || c == '-' || c == 'e' || c == 'E') {
+				number.append((char)read());
+			} else if (c == '.' && peek(1) >= '0' && peek(1) <= '9') {
+				number.append((char)read());
+			} else {
+				return number.toString();
+			}
+		}
+	}
+
+	private String readWord() throws IOException {
+		StringBuilder word = new StringBuilder();
+		while (Character.isLetter(peek(0))) word.append((char)read());
+		return word.toString();
+	}
+
+	private boolean startsWithKeyword(String keyword) throws IOException {
+		for (int i=0; i<keyword.length(); i++)
+			if (Character.toUpperCase(peek(i)) != Character.toUpperCase(keyword.charAt(i)))
+				return false;
+		return isDelimiter(peek(keyword.length()));
+	}
+
+	private String newBlankNode() {
+		// '#' cannot occur in blank node labels of the document itself
+		return "_:#" + (blankNodes++);
+	}
+
+	private void skipWhitespace() throws IOException {
+		while (true) {
+			int c = peek(0);
+			if (c == '#') {
+				while (c != '\n' && c != -1) {
+					read();
+					c = peek(0);
+				}
+			} else if (c == ' ' || c == '\t' || c == '\r' || c == '\n') {
+				read();
+			} else {
+				return;
+			}
+		}
+	}
+
+	private void expect(char expected) throws IOException {
+		int c = read();
+		if (c != expected)
+			throw error("Expected '" + expected + "' but found " +
+				(c == -1 ? "end of document" : "'" + (char)c + "'"));
+	}
+
+	private static boolean isDelimiter(int c) {
+		return c == -1 || c == ' ' || c == '\t' || c == '\r' || c == '\n' ||
+			c == '<' || c == '[' || c == '"' || c == ',' || c == ';' || c == '.';
+	}
+
+	private static boolean isNameChar(int c) {
+		return c != -1 && (Character.isLetterOrDigit(c) || c == '_' || c == '-' || c >= 0x80);
+	}
+
+	private IOException error(String message) {
+		return new IOException("Turtle syntax error at line " + line + ": " + message);
+	}
+
+	private int read() throws IOException {
+		int c = peek(0);
+		if (c != -1) {
+			position++;
+			if (c == '\n') line++;
+		}
+		return c;
+	}
+
+	private int peek(int offset) throws IOException {
+		if (position + offset >= limit) {
+			if (position > 0) {
+				System.arraycopy(buffer, position, buffer, 0, limit - position);
+				limit -= position;
+				position = 0;
+			}
+			while (offset >= limit) {
+				int count = reader.read(buffer, limit, buffer.length - limit);
+				if (count == -1) return -1;
+				limit += count;
+			}
+		}
+		return buffer[position + offset];
+	}
+
+}
@@ -0,0 +1,47 @@
+package net.bioclipse.openphacts.model;
+
+public class CacheStatistics {
+
+	long hits;
+	long misses;
+	long evictions;
+	long expirations;
+	int entries;
+	long size;
+
+	public CacheStatistics(long hits, long misses, long evictions,
+			long expirations, int entries, long size) {
+		super();
+		this.hits = hits;
+		this.misses = misses;
+		this.evictions = evictions;
+		this.expirations = expirations;
+		this.entries = entries;
+		this.size = size;
+	}
+	public long getHits() {
+		return hits;
+	}
+	public long getMisses() {
+		return misses;
+	}
+	public long getEvictions() {
+		return evictions;
+	}
+	public long getExpirations() {
+		return expirations;
+	}
+	public int getEntries() {
+		return entries;
+	}
+	public long getSize() {
+		return size;
+	}
+	@Override
+	public String toString() {
+		return "CacheStatistics [hits=" + hits + ", misses=" + misses
+				+ ", evictions=" + evictions + ", expirations=" + expirations
+				+ ", entries=" + entries + ", size=" + size + "]";
+	}
+
+}
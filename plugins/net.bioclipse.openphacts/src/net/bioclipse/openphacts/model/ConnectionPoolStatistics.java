@@ -0,0 +1,51 @@
+package net.bioclipse.openphacts.model;
+
+public class ConnectionPoolStatistics {
+
+	int leased;
+	int pending;
+	int available;
+	int max;
+	int maxPerRoute;
+
+	public ConnectionPoolStatistics(int leased, int pending, int available,
+			int max, int maxPerRoute) {
+		super();
+		this.leased = leased;
+		this.pending = pending;
+		this.available = available;
+		this.max = max;
+		this.maxPerRoute = maxPerRoute;
+	}
+	/**
+	 * Connections currently in use by a request.
+	 */
+	public int getLeased() {
+		return leased;
+	}
+	/**
+	 * Requests waiting for a connection.
+	 */
+	public int getPending() {
+		return pending;
+	}
+	/**
+	 * Idle connections kept open for reuse.
+	 */
+	public int getAvailable() {
+		return available;
+	}
+	public int getMax() {
+		return max;
+	}
+	public int getMaxPerRoute() {
+		return maxPerRoute;
+	}
+	@Override
+	public String toString() {
+		return "ConnectionPoolStatistics [leased=" + leased + ", pending="
+				+ pending + ", available=" + available + ", max=" + max
+				+ ", maxPerRoute=" + maxPerRoute + "]";
+	}
+
+}
@@ -0,0 +1,57 @@
+package net.bioclipse.openphacts.model;
+
+public class EndpointStatistics {
+
+	String endpoint;
+	boolean healthy;
+	long requests;
+	long failures;
+	int inFlight;
+	double latencyMillis;
+
+	public EndpointStatistics(String endpoint, boolean healthy, long requests,
+			long failures, int inFlight, double latencyMillis) {
+		super();
+		this.endpoint = endpoint;
+		this.healthy = healthy;
+		this.requests = requests;
+		this.failures = failures;
+		this.inFlight = inFlight;
+		this.latencyMillis = latencyMillis;
+	}
+	public String getEndpoint() {
+		return endpoint;
+	}
+	/**
+	 * False after repeated failures, until a health probe succeeds.
+	 */
+	public boolean isHealthy() {
+		return healthy;
+	}
+	public long getRequests() {
+		return requests;
+	}
+	public long getFailures() {
+		return failures;
+	}
+	/**
+	 * Requests currently waiting for this endpoint.
+	 */
+	public int getInFlight() {
+		return inFlight;
+	}
+	/**
+	 * Moving average of the latency of recent requests.
+	 */
+	public double getLatencyMillis() {
+		return latencyMillis;
+	}
+	@Override
+	public String toString() {
+		return "EndpointStatistics [endpoint=" + endpoint + ", healthy="
+				+ healthy + ", requests=" + requests + ", failures=" + failures
+				+ ", inFlight=" + inFlight + ", latencyMillis=" + latencyMillis
+				+ "]";
+	}
+
+}
@@ -0,0 +1,76 @@
+package net.bioclipse.openphacts.model;
+
+import java.beans.ConstructorProperties;
+
+public class OperationStatistics {
+
+	String name;
+	long count;
+	long errors;
+	double meanMillis;
+	double medianMillis;
+	double p90Millis;
+	double p99Millis;
+	double maxMillis;
+
+	@ConstructorProperties({
+		"name", "count", "errors", "meanMillis", "medianMillis", "p90Millis",
+		"p99Millis", "maxMillis"
+	})
+	public OperationStatistics(String name, long count, long errors,
+			double meanMillis, double medianMillis, double p90Millis,
+			double p99Millis, double maxMillis) {
+		super();
+		this.name = name;
+		this.count = count;
+		this.errors = errors;
+		this.meanMillis = meanMillis;
+		this.medianMillis = medianMillis;
+		this.p90Millis = p90Millis;
+		this.p99Millis = p99Millis;
+		this.maxMillis = maxMillis;
+	}
+	public String getName() {
+		return name;
+	}
+	public long getCount() {
+		return count;
+	}
+	public long getErrors() {
+		return errors;
+	}
+	public double getMeanMillis() {
+		return meanMillis;
+	}
+	/**
+	 * Upper bound of the median latency, accurate within a factor of two.
+	 */
+	public double getMedianMillis() {
+		return medianMillis;
+	}
+	/**
+	 * Upper bound of the 90th percentile latency, accurate within a factor
+	 * of two.
+	 */
+	public double getP90Millis() {
+		return p90Millis;
+	}
+	/**
+	 * Upper bound of the 99th percentile latency, accurate within a factor
+	 * of two.
+	 */
+	public double getP99Millis() {
+		return p99Millis;
+	}
+	public double getMaxMillis() {
+		return maxMillis;
+	}
+	@Override
+	public String toString() {
+		return "OperationStatistics [name=" + name + ", count=" + count
+				+ ", errors=" + errors + ", meanMillis=" + meanMillis
+				+ ", medianMillis=" + medianMillis + ", p90Millis=" + p90Millis
+				+ ", p99Millis=" + p99Millis + ", maxMillis=" + maxMillis + "]";
+	}
+
+}
@@ -0,0 +1,32 @@
+package net.bioclipse.openphacts.model;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Number of activities per URI, in the order the URIs were given. URIs for
+ * which the count could not be retrieved are left out, and their error
+ * message is available from {@link #getErrors()}.
+ */
+public class PharmacologyCounts extends LinkedHashMap<String, Integer> {
+
+	private static final long serialVersionUID = 1L;
+
+	Map<String, String> errors = new LinkedHashMap<String, String>();
+
+	public PharmacologyCounts() {
+		super();
+	}
+	public Map<String, String> getErrors() {
+		return errors;
+	}
+	public void addError(String uri, String message) {
+		errors.put(uri, message);
+	}
+	@Override
+	public String toString() {
+		return "PharmacologyCounts [counts=" + super.toString()
+				+ ", errors=" + errors + "]";
+	}
+
+}
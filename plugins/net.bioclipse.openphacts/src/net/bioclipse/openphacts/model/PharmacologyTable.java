@@ -0,0 +1,358 @@
+package net.bioclipse.openphacts.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Activities from Open PHACTS, stored by column. Published values and
+ * pChEMBL values are kept as doubles, with NaN where they are missing, for
+ * filtering and sorting, and also as published, for display.
+ * Units, types, relations, URIs, assay descriptions and SMILES are kept
+ * once in a dictionary per column and referred to by number, so repeated
+ * values cost one int per row, and filtering on them compares ints.
+ *
+ * <p>Filtering and sorting return a new table that shares the columns of
+ * this one and only holds the numbers of the selected rows.
+ */
+public class PharmacologyTable {
+
+	/**
+	 * Decides which rows {@link PharmacologyTable#filter(RowFilter)} keeps.
+	 */
+	public interface RowFilter {
+		boolean accept(PharmacologyTable table, int row);
+	}
+
+	/**
+	 * Distinct values of a column, numbered in order of appearance.
+	 */
+	private static class Dictionary {
+		final Map<String, Integer> codes = new HashMap<String, Integer>();
+		final List<String> values = new ArrayList<String>();
+
+		int encode(String value) {
+			if (value == null) return -1;
+			Integer code = codes.get(value);
+			if (code == null) {
+				code = values.size();
+				codes.put(value, code);
+				values.add(value);
+			}
+			return code;
+		}
+
+		int find(String value) {
+			Integer code = value == null ? null : codes.get(value);
+			return code == null ? -2 : code;
+		}
+
+		String decode(int code) {
+			return code < 0 ? null : values.get(code);
+		}
+	}
+
+	/**
+	 * The columns, which only ever grow, shared by a table and the tables
+	 * filtered or sorted from it.
+	 */
+	private static class Columns {
+		int size;
+		final Dictionary uris = new Dictionary();
+		final Dictionary terms = new Dictionary();
+		final Dictionary texts = new Dictionary();
+		int[] compound = new int[16];
+		int[] rscCompound = new int[16];
+		int[] assay = new int[16];
+		int[] assayDescription = new int[16];
+		int[] type = new int[16];
+		int[] relation = new int[16];
+		int[] unit = new int[16];
+		int[] smiles = new int[16];
+		int[] valueText = new int[16];
+		int[] pChemblText = new int[16];
+		double[] value = new double[16];
+		double[] pChembl = new double[16];
+		String[] comment = new String[16];
+
+		void grow() {
+			int capacity = compound.length * 2;
+			compound = Arrays.copyOf(compound, capacity);
+			rscCompound = Arrays.copyOf(rscCompound, capacity);
+			assay = Arrays.copyOf(assay, capacity);
+			assayDescription = Arrays.copyOf(assayDescription, capacity);
+			type = Arrays.copyOf(type, capacity);
+			relation = Arrays.copyOf(relation, capacity);
+			unit = Arrays.copyOf(unit, capacity);
+			smiles = Arrays.copyOf(smiles, capacity);
+			valueText = Arrays.copyOf(valueText, capacity);
+			pChemblText = Arrays.copyOf(pChemblText, capacity);
+			value = Arrays.copyOf(value, capacity);
+			pChembl = Arrays.copyOf(pChembl, capacity);
+			comment = Arrays.copyOf(comment, capacity);
+		}
+	}
+
+	final Columns columns;
+	// the rows of the columns in this table, or null for all of them
+	final int[] rows;
+
+	public PharmacologyTable() {
+		this(new Columns(), null);
+	}
+
+	private PharmacologyTable(Columns columns, int[] rows) {
+		this.columns = columns;
+		this.rows = rows;
+	}
+
+	/**
+	 * Adds an activity. Numeric values that are missing or cannot be parsed
+	 * are stored as NaN. Only tables that were not filtered or sorted can be
+	 * added to.
+	 */
+	public synchronized void addRow(String compoundURI, String rscCompoundURI,
+			String assayURI, String assayDescription, String type, String relation,
+			String value, String unit, String pChembl, String comment, String smiles) {
+		if (rows != null)
+			throw new IllegalStateException("Rows cannot be added to a filtered or sorted table");
+		Columns c = columns;
+		if (c.size == c.compound.length) c.grow();
+		int row = c.size;
+		c.compound[row] = c.uris.encode(compoundURI);
+		c.rscCompound[row] = c.uris.encode(rscCompoundURI);
+		c.assay[row] = c.uris.encode(assayURI);
+		c.assayDescription[row] = c.texts.encode(assayDescription);
+		c.type[row] = c.terms.encode(type);
+		c.relation[row] = c.terms.encode(relation);
+		c.unit[row] = c.terms.encode(unit);
+		c.smiles[row] = c.texts.encode(smiles);
+		c.valueText[row] = c.terms.encode(value);
+		c.pChemblText[row] = c.terms.encode(pChembl);
+		c.value[row] = parseDouble(value);
+		c.pChembl[row] = parseDouble(pChembl);
+		c.comment[row] = comment;
+		c.size++;
+	}
+
+	/**
+	 * Adds all rows of the given table.
+	 */
+	public void addAll(PharmacologyTable table) {
+		for (int row=0; row<table.size(); row++) {
+			addRow(
+				table.getCompoundURI(row), table.getRSCCompoundURI(row), table.getAssayURI(row),
+				table.getAssayDescription(row), table.getPublishedType(row),
+				table.getPublishedRelation(row), table.getPublishedValueText(row),
+				table.getPublishedUnit(row), table.getPChemblText(row),
+				table.getComment(row), table.getSmiles(row)
+			);
+		}
+	}
+
+	public int size() {
+		return rows == null ? columns.size : rows.length;
+	}
+
+	/**
+	 * Returns the position the row was added at, counting from 0, which
+	 * stays the same when the table is filtered or sorted.
+	 */
+	public int getPosition(int row) {
+		return index(row);
+	}
+
+	public String getCompoundURI(int row) {
+		return columns.uris.decode(columns.compound[index(row)]);
+	}
+	/**
+	 * URI of the compound in the Royal Society of Chemistry database, if
+	 * known.
+	 */
+	public String getRSCCompoundURI(int row) {
+		return columns.uris.decode(columns.rscCompound[index(row)]);
+	}
+	public String getAssayURI(int row) {
+		return columns.uris.decode(columns.assay[index(row)]);
+	}
+	public String getAssayDescription(int row) {
+		return columns.texts.decode(columns.assayDescription[index(row)]);
+	}
+	public String getPublishedType(int row) {
+		return columns.terms.decode(columns.type[index(row)]);
+	}
+	public String getPublishedRelation(int row) {
+		return columns.terms.decode(columns.relation[index(row)]);
+	}
+	/**
+	 * @return the value, or NaN if none was published
+	 */
+	public double getPublishedValue(int row) {
+		return columns.value[index(row)];
+	}
+	/**
+	 * @return the value as published, like "10.0", or null if none was
+	 */
+	public String getPublishedValueText(int row) {
+		return columns.terms.decode(columns.valueText[index(row)]);
+	}
+	public String getPublishedUnit(int row) {
+		return columns.terms.decode(columns.unit[index(row)]);
+	}
+	/**
+	 * @return the pChEMBL value, or NaN if there is none
+	 */
+	public double getPChembl(int row) {
+		return columns.pChembl[index(row)];
+	}
+	/**
+	 * @return the pChEMBL value as published, or null if there is none
+	 */
+	public String getPChemblText(int row) {
+		return columns.terms.decode(columns.pChemblText[index(row)]);
+	}
+	public String getComment(int row) {
+		return columns.comment[index(row)];
+	}
+	public String getSmiles(int row) {
+		return columns.texts.decode(columns.smiles[index(row)]);
+	}
+
+	/**
+	 * Returns the activities the filter accepts.
+	 */
+	public PharmacologyTable filter(RowFilter filter) {
+		int[] selected = new int[size()];
+		int count = 0;
+		for (int row=0; row<size(); row++)
+			if (filter.accept(this, row)) selected[count++] = index(row);
+		return new PharmacologyTable(columns, Arrays.copyOf(selected, count));
+	}
+
+	/**
+	 * Returns the activities of the given published type, like "IC50".
+	 */
+	public PharmacologyTable filterByType(String type) {
+		return filterByCode(columns.type, columns.terms.find(type));
+	}
+
+	/**
+	 * Returns the activities published in the given unit, like "nM".
+	 */
+	public PharmacologyTable filterByUnit(String unit) {
+		return filterByCode(columns.unit, columns.terms.find(unit));
+	}
+
+	/**
+	 * Returns the activities of the given assay.
+	 */
+	public PharmacologyTable filterByAssay(String assayURI) {
+		return filterByCode(columns.assay, columns.uris.find(assayURI));
+	}
+
+	/**
+	 * Returns the activities with a pChEMBL value of at least the minimum.
+	 */
+	public PharmacologyTable filterByPChembl(final double min) {
+		return filter(new RowFilter() {
+			public boolean accept(PharmacologyTable table, int row) {
+				return table.getPChembl(row) >= min;
+			}
+		});
+	}
+
+	/**
+	 * Returns the activities with a published value between the minimum and
+	 * the maximum, inclusive.
+	 */
+	public PharmacologyTable filterByPublishedValue(final double min, final double max) {
+		return filter(new RowFilter() {
+			public boolean accept(PharmacologyTable table, int row) {
+				double value = table.getPublishedValue(row);
+				return value >= min && value <= max;
+			}
+		});
+	}
+
+	/**
+	 * Returns the activities ordered by pChEMBL value, with the activities
+	 * without one last.
+	 */
+	public PharmacologyTable sortByPChembl(boolean descending) {
+		return sortBy(columns.pChembl, descending);
+	}
+
+	/**
+	 * Returns the activities ordered by published value, with the
+	 * activities without one last. Values in different units are compared
+	 * as they are, so filter on a unit first.
+	 */
+	public PharmacologyTable sortByPublishedValue(boolean descending) {
+		return sortBy(columns.value, descending);
+	}
+
+	private PharmacologyTable filterByCode(int[] column, int code) {
+		int[] selected = new int[size()];
+		int count = 0;
+		for (int row=0; row<size(); row++) {
+			int index = index(row);
+			if (column[index] == code) selected[count++] = index;
+		}
+		return new PharmacologyTable(columns, Arrays.copyOf(selected, count));
+	}
+
+	/**
+	 * Sorts the row numbers by the values in the column, stable, with NaN
+	 * last in both directions.
+	 */
+	private PharmacologyTable sortBy(double[] column, boolean descending) {
+		int[] sorted = new int[size()];
+		for (int row=0; row<sorted.length; row++) sorted[row] = index(row);
+		mergeSort(sorted, new int[sorted.length], 0, sorted.length, column, descending);
+		return new PharmacologyTable(columns, sorted);
+	}
+
+	private static void mergeSort(int[] rows, int[] buffer, int from, int to,
+			double[] column, boolean descending) {
+		if (to - from < 2) return;
+		int middle = (from + to) >>> 1;
+		mergeSort(rows, buffer, from, middle, column, descending);
+		mergeSort(rows, buffer, middle, to, column, descending);
+		int left = from, right = middle, out = from;
+		while (left < middle && right < to)
+			buffer[out++] = compare(column[rows[right]], column[rows[left]], descending) < 0
+				? rows[right++] : rows[left++];
+		while (left < middle) buffer[out++] = rows[left++];
+		while (right < to) buffer[out++] = rows[right++];
+		System.arraycopy(buffer, from, rows, from, to - from);
+	}
+
+	private static int compare(double value1, double value2, boolean descending) {
+		boolean missing1 = Double.isNaN(value1), missing2 = Double.isNaN(value2);
+		if (missing1 || missing2) return missing1 == missing2 ? 0 : (missing1 ? 1 : -1);
+		return descending ? Double.compare(value2, value1) : Double.compare(value1, value2);
+	}
+
+	private int index(int row) {
+		if (row < 0 || row >= size())
+			throw new IndexOutOfBoundsException("Row " + row + " of " + size());
+		return rows == null ? row : rows[row];
+	}
+
+	private static double parseDouble(String value) {
+		if (value == null) return Double.NaN;
+		try {
+			return Double.parseDouble(value.trim());
+		} catch (NumberFormatException exception) {
+			return Double.NaN;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "PharmacologyTable [size=" + size() + "]";
+	}
+
+}
@@ -0,0 +1,49 @@
+package net.bioclipse.openphacts.model;
+
+/**
+ * A compound found to be similar to one of the query molecules of a
+ * similarity search.
+ */
+public class SimilarityHit {
+
+	int queryIndex;
+	String uri;
+	double relevance;
+
+	public SimilarityHit(int queryIndex, String uri, double relevance) {
+		super();
+		this.queryIndex = queryIndex;
+		this.uri = uri;
+		this.relevance = relevance;
+	}
+	/**
+	 * Index of the query molecule this compound is similar to.
+	 */
+	public int getQueryIndex() {
+		return queryIndex;
+	}
+	public void setQueryIndex(int queryIndex) {
+		this.queryIndex = queryIndex;
+	}
+	public String getURI() {
+		return uri;
+	}
+	public void setURI(String uri) {
+		this.uri = uri;
+	}
+	/**
+	 * Tanimoto similarity to the query molecule, between 0 and 1.
+	 */
+	public double getRelevance() {
+		return relevance;
+	}
+	public void setRelevance(double relevance) {
+		this.relevance = relevance;
+	}
+	@Override
+	public String toString() {
+		return "SimilarityHit [queryIndex=" + queryIndex + ", uri=" + uri
+				+ ", relevance=" + relevance + "]";
+	}
+
+}
@@ -0,0 +1,57 @@
+package net.bioclipse.openphacts.model;
+
+public class StageStatistics {
+
+	String pipeline;
+	String name;
+	int threads;
+	int queueDepth;
+	long processed;
+	double throughput;
+
+	public StageStatistics(String pipeline, String name, int threads,
+			int queueDepth, long processed, double throughput) {
+		super();
+		this.pipeline = pipeline;
+		this.name = name;
+		this.threads = threads;
+		this.queueDepth = queueDepth;
+		this.processed = processed;
+		this.throughput = throughput;
+	}
+	/**
+	 * The operation the pipeline of this stage belongs to.
+	 */
+	public String getPipeline() {
+		return pipeline;
+	}
+	public String getName() {
+		return name;
+	}
+	public int getThreads() {
+		return threads;
+	}
+	/**
+	 * Number of items waiting for this stage.
+	 */
+	public int getQueueDepth() {
+		return queueDepth;
+	}
+	public long getProcessed() {
+		return processed;
+	}
+	/**
+	 * Items processed per second since the pipeline started.
+	 */
+	public double getThroughput() {
+		return throughput;
+	}
+	@Override
+	public String toString() {
+		return "StageStatistics [pipeline=" + pipeline + ", name=" + name
+				+ ", threads=" + threads
+				+ ", queueDepth=" + queueDepth + ", processed=" + processed
+				+ ", throughput=" + throughput + "]";
+	}
+
+}